@@ -44,6 +44,7 @@ plugins {
     id("org.jetbrains.kotlinx.binary-compatibility-validator") version Versions.binaryValidator apply false
     id("com.android.library") apply false
     id("de.mannodermaus.android-junit5") version "1.8.2.1" apply false
+    id("me.champeau.jmh") version Versions.jmhGradlePlugin apply false
 }
 
 osDetector = osdetector
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+import com.google.gson.JsonArray
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import org.gradle.api.DefaultTask
+import org.gradle.api.GradleException
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.provider.Property
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.InputFile
+import org.gradle.api.tasks.TaskAction
+import java.io.File
+
+/**
+ * Compares JMH results in JSON format with a committed baseline, and fails if any benchmark is slower than
+ * baseline by more than [tolerance].
+ *
+ * Benchmarks are matched by name and parameters. A benchmark absent from the baseline, or measured in another mode or unit,
+ * also fails the check, so that the baseline cannot silently stop covering benchmarks.
+ * The check is skipped with a warning only if the baseline is empty, i.e. it has never been recorded.
+ */
+abstract class CheckBenchmarkRegressions : DefaultTask() {
+    @get:InputFile
+    abstract val results: RegularFileProperty
+
+    @get:InputFile
+    abstract val baseline: RegularFileProperty
+
+    /**
+     * Allowed relative slowdown, e.g. `0.15` for 15%.
+     */
+    @get:Input
+    abstract val tolerance: Property<Double>
+
+    @TaskAction
+    fun check() {
+        val baselineFile = baseline.get().asFile
+        val baseline = BenchmarkResults.load(baselineFile).associateBy { it.key }
+        if (baseline.isEmpty()) {
+            // Not recorded yet. Numbers depend on the machine, so there is nothing to compare with.
+            logger.warn(
+                "[Benchmarks] Baseline ${baselineFile.name} is empty, skipping regression check. " +
+                        "Run updateBenchmarkBaseline on the machine used for checks and commit it."
+            )
+            return
+        }
+        val results = BenchmarkResults.load(results.get().asFile)
+        val tolerance = tolerance.get()
+
+        val regressions = mutableListOf<String>()
+        val missing = mutableListOf<String>()
+        for (result in results) {
+            val expected = baseline[result.key]
+            if (expected == null) {
+                missing.add("${result.key}: ${result.describeScore()}")
+                logger.error("[Benchmarks] No baseline for ${result.key}: ${result.describeScore()}")
+                continue
+            }
+            if (result.mode != expected.mode || result.unit != expected.unit) {
+                missing.add("${result.key}: ${result.describeScore()}, baseline ${expected.describeScore()}")
+                logger.error("[Benchmarks] Baseline of ${result.key} is measured in ${expected.describeScore()}")
+                continue
+            }
+            val slowdown = result.slowdownComparedTo(expected)
+            val message = "${result.key}: ${result.describeScore()}, baseline ${expected.describeScore()}, " +
+                    "slowdown ${"%.1f".format(slowdown * 100)}%"
+            if (slowdown > tolerance) {
+                regressions.add(message)
+                logger.error("[Benchmarks] REGRESSION $message")
+            } else {
+                logger.lifecycle("[Benchmarks] $message")
+            }
+        }
+
+        if (regressions.isNotEmpty() || missing.isNotEmpty()) {
+            throw GradleException(buildString {
+                if (regressions.isNotEmpty()) {
+                    append("${regressions.size} benchmark(s) regressed by more than ${tolerance * 100}%:\n")
+                    regressions.joinTo(this, "\n", postfix = "\n")
+                }
+                if (missing.isNotEmpty()) {
+                    append("${missing.size} benchmark(s) have no comparable baseline. ")
+                    append("Run updateBenchmarkBaseline on the machine used for checks and commit baseline/results.json:\n")
+                    missing.joinTo(this, "\n")
+                }
+            })
+        }
+    }
+}
+
+object BenchmarkResults {
+    class Result(
+        val key: String,
+        val mode: String,
+        val score: Double,
+        val unit: String,
+    ) {
+        /**
+         * Relative slowdown, negative if [this] is faster.
+         */
+        fun slowdownComparedTo(baseline: Result): Double {
+            return if (mode == "thrpt") {
+                // higher is better
+                baseline.score / score - 1
+            } else {
+                // avgt, sample, ss: lower is better
+                score / baseline.score - 1
+            }
+        }
+
+        fun describeScore(): String = "${"%.3f".format(score)} $unit ($mode)"
+    }
+
+    /**
+     * Loads results written by JMH with `-rf json`.
+     */
+    fun load(file: File): List<Result> {
+        val array = JsonParser.parseString(file.readText().ifBlank { "[]" }) as JsonArray
+        return array.map { element ->
+            val obj = element as JsonObject
+            val params = obj.getAsJsonObject("params")?.entrySet()
+                ?.sortedBy { it.key }
+                ?.joinToString(",", prefix = "(", postfix = ")") { "${it.key}=${it.value.asString}" }
+                .orEmpty()
+            val metric = obj.getAsJsonObject("primaryMetric")
+            Result(
+                key = obj["benchmark"].asString + params,
+                mode = obj["mode"].asString,
+                score = metric["score"].asDouble,
+                unit = metric["scoreUnit"].asString,
+            )
+        }
+    }
+}
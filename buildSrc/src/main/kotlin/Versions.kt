@@ -74,6 +74,9 @@ object Versions {
 
     const val junit = "5.7.2"
 
+    const val jmh = "1.36"
+    const val jmhGradlePlugin = "0.7.1"
+
     const val yamlkt = "0.12.0"
     const val intellijGradlePlugin = "1.15.0"
 
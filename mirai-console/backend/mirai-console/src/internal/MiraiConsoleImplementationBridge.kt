@@ -331,6 +331,7 @@ ___  ____           _   _____                       _
             PermissionService.INSTANCE.let { ps ->
                 if (ps is BuiltInPermissionService) {
                     consoleDataScope.addAndReloadConfig(ps.config)
+                    ps.invalidatePermissionIndex()
                     mainLogger.verbose { "Reloaded PermissionService settings." }
                 } else {
                     mainLogger.info {
@@ -13,7 +13,8 @@ import net.mamoe.mirai.console.data.PluginDataExtensions
 import net.mamoe.mirai.console.permission.*
 import net.mamoe.mirai.console.permission.Permission.Companion.parentsWithSelf
 import net.mamoe.mirai.console.permission.PermitteeId.Companion.allParentsWithSelf
-import net.mamoe.mirai.console.permission.PermitteeId.Companion.isChildOf
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
 
 internal abstract class AbstractConcurrentPermissionService<P : Permission> : PermissionService<P> {
     protected abstract val permissions: MutableMap<PermissionId, P>
@@ -27,20 +28,26 @@ internal abstract class AbstractConcurrentPermissionService<P : Permission> : Pe
         val instance = createPermission(id, description, parent)
         val old = permissions.putIfAbsent(id, instance)
         if (old != null) throw PermissionRegistryConflictException(instance, old)
+        invalidatePermissionIndex()
         return instance
     }
 
     override fun permit(permitteeId: PermitteeId, permission: P) {
         grantedPermissionsMap[permission.id].add(permitteeId)
+        invalidatePermissionIndex()
     }
 
     override fun cancel(permitteeId: PermitteeId, permission: P, recursive: Boolean) {
-        val success = if (recursive) {
-            getPermittedPermissions(permitteeId).any { permitted ->
-                (permission in permitted.parentsWithSelf) && grantedPermissionsMap[permitted.id].remove(permitteeId)
+        val success = try {
+            if (recursive) {
+                getPermittedPermissions(permitteeId).toList().any { permitted ->
+                    (permission in permitted.parentsWithSelf) && grantedPermissionsMap[permitted.id].remove(permitteeId)
+                }
+            } else {
+                grantedPermissionsMap[permission.id].remove(permitteeId)
             }
-        } else {
-            grantedPermissionsMap[permission.id].remove(permitteeId)
+        } finally {
+            invalidatePermissionIndex()
         }
         if (!success) {
             val about = buildList {
@@ -72,23 +79,91 @@ internal abstract class AbstractConcurrentPermissionService<P : Permission> : Pe
 
     override fun getRegisteredPermissions(): Sequence<P> = permissions.values.asSequence()
 
-    override fun getPermittedPermissions(permitteeId: PermitteeId): Sequence<P> = sequence {
-        for ((permissionIdentifier, permissibleIdentifiers) in grantedPermissionsMap) {
+    override fun getPermittedPermissions(permitteeId: PermitteeId): Sequence<P> {
+        return permissionIndex().resolve(permitteeId).asSequence().mapNotNull { get(it) }
+    }
+
+    override fun testPermission(permitteeId: PermitteeId, permission: P): Boolean {
+        val index = permissionIndex()
+        val key = permitteeId.asString() to permission.id
+        index.testResults[key]?.let { return it }
+
+        val all = this[permission.id]?.parentsWithSelf ?: return false
+        val permitted = index.resolve(permitteeId)
+        val result = all.any { it.id in permitted }
 
-            val granted = permissibleIdentifiers.any { permitteeId.isChildOf(it) }
+        if (index.testResults.size >= TEST_RESULT_CACHE_SIZE) index.testResults.clear()
+        index.testResults[key] = result
+        return result
+    }
 
-            if (granted) get(permissionIdentifier)?.let { yield(it) }
+    internal fun getPermittedPermissionsAndSource(permitteeId: PermitteeId): Sequence<Pair<PermitteeId, P>> {
+        val index = permissionIndex()
+        return permitteeId.allParentsWithSelf.flatMap { pid ->
+            index.granted[pid.asString()].orEmpty().asSequence().mapNotNull { id -> get(id)?.let { pid to it } }
         }
     }
 
-    internal fun getPermittedPermissionsAndSource(permitteeId: PermitteeId): Sequence<Pair<PermitteeId, P>> = sequence {
-        for ((permissionIdentifier, permissibleIdentifiers) in grantedPermissionsMap) {
-            permissibleIdentifiers.forEach { pid ->
-                if (permitteeId.isChildOf(pid)) {
-                    get(permissionIdentifier)?.let { yield(pid to it) }
-                }
+    ///////////////////////////////////////////////////////////////////////////
+    // index
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Inverted [grantedPermissionsMap]: [PermitteeId.asString] to the ids of permissions granted to it.
+     *
+     * A [PermitteeId] has only a few [parents][PermitteeId.allParentsWithSelf],
+     * so resolving its permissions takes a few lookups instead of scanning all grants.
+     */
+    private class PermissionIndex(
+        val granted: Map<String, Set<PermissionId>>,
+    ) {
+        /**
+         * Results of [testPermission], dropped together with the index.
+         */
+        val testResults: MutableMap<Pair<String, PermissionId>, Boolean> = ConcurrentHashMap()
+
+        fun resolve(permitteeId: PermitteeId): Set<PermissionId> {
+            val result = LinkedHashSet<PermissionId>()
+            for (pid in permitteeId.allParentsWithSelf) {
+                granted[pid.asString()]?.let { result.addAll(it) }
+            }
+            return result
+        }
+    }
+
+    @Volatile
+    private var permissionIndex: PermissionIndex? = null
+    private val modificationCount = AtomicLong()
+
+    /**
+     * Must be called after [grantedPermissionsMap] or [permissions] is changed, including reloading from storage.
+     */
+    internal fun invalidatePermissionIndex() {
+        modificationCount.incrementAndGet()
+        permissionIndex = null
+    }
+
+    private fun permissionIndex(): PermissionIndex {
+        permissionIndex?.let { return it }
+
+        val version = modificationCount.get()
+        val granted = HashMap<String, MutableSet<PermissionId>>()
+        for ((permissionId, permitteeIds) in grantedPermissionsMap) {
+            for (permitteeId in permitteeIds) {
+                granted.getOrPut(permitteeId.asString()) { LinkedHashSet() }.add(permissionId)
             }
         }
+        val index = PermissionIndex(granted)
+        // Do not publish the index if grants changed concurrently, it may be outdated.
+        if (modificationCount.get() == version) {
+            permissionIndex = index
+            if (modificationCount.get() != version) permissionIndex = null
+        }
+        return index
+    }
+
+    companion object {
+        private const val TEST_RESULT_CACHE_SIZE = 4096
     }
 }
 
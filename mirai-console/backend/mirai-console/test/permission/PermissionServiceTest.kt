@@ -69,4 +69,27 @@ internal class PermissionServiceTest {
         assertTrue { builtIn.testPermission(any, command) }
         assertTrue { builtIn.testPermission(member, command) }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `permitted permissions are resolved from all parents`() {
+        val builtIn = BuiltInPermissionService()
+        val a = builtIn.register(PermissionId.parseFromString("plugin:a"), "", builtIn.rootPermission)
+        val b = builtIn.register(PermissionId.parseFromString("plugin:b"), "", builtIn.rootPermission)
+        val c = builtIn.register(PermissionId.parseFromString("plugin:c"), "", builtIn.rootPermission)
+
+        val member = AbstractPermitteeId.parseFromString("m12345.6789")
+        builtIn.permit(AbstractPermitteeId.parseFromString("m12345.*"), a)
+        builtIn.permit(AbstractPermitteeId.parseFromString("u6789"), b)
+        builtIn.permit(AbstractPermitteeId.parseFromString("m54321.6789"), c)
+
+        assertEquals(setOf(a, b), builtIn.getPermittedPermissions(member).toSet())
+        assertFalse { builtIn.testPermission(member, c) }
+
+        builtIn.permit(member, c)
+        assertTrue { builtIn.testPermission(member, c) }
+        assertEquals(setOf(a, b, c), builtIn.getPermittedPermissions(member).toSet())
+
+        builtIn.cancel(member, c, false)
+        assertFalse { builtIn.testPermission(member, c) }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.contact
+
+import kotlinx.atomicfu.locks.SynchronizedObject
+import kotlinx.atomicfu.locks.synchronized
+import net.mamoe.mirai.utils.ConcurrentHashMap
+import net.mamoe.mirai.utils.ConcurrentLinkedDeque
+
+/**
+ * [ContactList.delegate] 的默认实现. 在保持插入顺序的同时维护 [Contact.id] 到联系人的索引, 使 [ContactList.get] 为 O(1).
+ *
+ * 读取和遍历不加锁, 遍历是弱一致的 (与 [ConcurrentLinkedDeque] 相同). 修改操作加锁以保持索引与元素一致.
+ * 若有多个联系人拥有相同的 [Contact.id], [get] 返回最早加入的一个, 与线性查找的结果相同.
+ */
+internal class ContactCollection<C : Contact> : AbstractMutableCollection<C>() {
+    private val elements = ConcurrentLinkedDeque<C>()
+    private val index: MutableMap<Long, C> = ConcurrentHashMap()
+    private val lock = SynchronizedObject()
+
+    override val size: Int get() = elements.size
+
+    operator fun get(id: Long): C? = index[id]
+
+    override fun contains(element: C): Boolean {
+        val indexed = index[element.id] ?: return false // no contact with this id
+        return indexed === element || elements.contains(element)
+    }
+
+    override fun add(element: C): Boolean {
+        synchronized(lock) {
+            elements.add(element)
+            if (!index.containsKey(element.id)) index[element.id] = element
+        }
+        return true
+    }
+
+    override fun remove(element: C): Boolean {
+        synchronized(lock) {
+            if (!elements.remove(element)) return false
+            onRemoved(element)
+        }
+        return true
+    }
+
+    fun removeById(id: Long): Boolean {
+        synchronized(lock) {
+            if (!index.containsKey(id)) return false
+            elements.removeAll { it.id == id }
+            index.remove(id)
+        }
+        return true
+    }
+
+    override fun clear() {
+        synchronized(lock) {
+            elements.clear()
+            index.clear()
+        }
+    }
+
+    override fun iterator(): MutableIterator<C> = object : MutableIterator<C> {
+        private val delegate = elements.iterator()
+        private var last: C? = null
+
+        override fun hasNext(): Boolean = delegate.hasNext()
+
+        override fun next(): C = delegate.next().also { last = it }
+
+        override fun remove() {
+            val element = last ?: throw IllegalStateException("next() has not been called")
+            last = null
+            synchronized(lock) {
+                delegate.remove()
+                onRemoved(element)
+            }
+        }
+    }
+
+    /**
+     * Must be called in [lock], after [element] is removed from [elements].
+     */
+    private fun onRemoved(element: C) {
+        val id = element.id
+        if (index[id] !== element) return
+        val next = elements.firstOrNull { it.id == id }
+        if (next == null) index.remove(id) else index[id] = next
+    }
+}
@@ -11,7 +11,6 @@
 
 package net.mamoe.mirai.contact
 
-import net.mamoe.mirai.utils.ConcurrentLinkedDeque
 import net.mamoe.mirai.utils.MiraiInternalApi
 import kotlin.jvm.JvmField
 
@@ -27,13 +26,16 @@ public class ContactList<out C : Contact>
     Collection<C> by delegate {
 
     @MiraiInternalApi
-    public constructor() : this(ConcurrentLinkedDeque())
+    public constructor() : this(ContactCollection())
 
     /**
      * 获取一个 [Contact.id] 为 [id] 的元素. 在不存在时返回 `null`.
      */
     public operator fun get(id: Long): C? {
         @OptIn(MiraiInternalApi::class)
+        val delegate = delegate
+        @Suppress("UNCHECKED_CAST")
+        if (delegate is ContactCollection<*>) return delegate[id] as C?
         return delegate.firstOrNull { it.id == id }
     }
 
@@ -47,6 +49,8 @@ public class ContactList<out C : Contact>
      */
     public fun remove(id: Long): Boolean {
         @OptIn(MiraiInternalApi::class)
+        val delegate = delegate
+        if (delegate is ContactCollection<*>) return delegate.removeById(id)
         return delegate.removeAll { it.id == id }
     }
 
@@ -1,5 +1,5 @@
 /*
- * Copyright 2020 Mamoe Technologies and contributors.
+ * Copyright 2020-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -18,6 +18,8 @@ import net.mamoe.mirai.utils.*
 import java.io.Closeable
 import java.io.InputStream
 import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
 import kotlin.io.use
 
 
@@ -29,6 +31,17 @@ internal fun InputStream.detectFileTypeAndClose(): String? {
     }
 }
 
+/**
+ * Reads only the file header, with positional reads so the position of this channel is not changed.
+ */
+internal fun FileChannel.detectFileType(): String? {
+    val buffer = ByteBuffer.allocate(COUNT_BYTES_USED_FOR_DETECTING_FILE_TYPE)
+    while (buffer.hasRemaining()) {
+        if (read(buffer, buffer.position().toLong()) == -1) break
+    }
+    return getFileType(buffer.array().copyOf(buffer.position()))
+}
+
 internal class ExternalResourceImplByFileWithMd5(
     private val file: RandomAccessFile,
     override val md5: ByteArray,
@@ -52,7 +65,7 @@ internal class ExternalResourceImplByFileWithMd5(
     override val sha1: ByteArray by lazy { inputStream().sha1() }
     override val size: Long = file.length()
     override val formatName: String by lazy {
-        formatName ?: inputStream().detectFileTypeAndClose() ?: ExternalResource.DEFAULT_FORMAT_NAME
+        formatName ?: file.channel.detectFileType() ?: ExternalResource.DEFAULT_FORMAT_NAME
     }
 
     override fun inputStream(): InputStream {
@@ -128,10 +141,16 @@ internal class ExternalResourceImplByFile(
     )
 
     override val size: Long = file.length()
-    override val md5: ByteArray by lazy { inputStream().md5() }
-    override val sha1: ByteArray by lazy { inputStream().sha1() }
+
+    /**
+     * [md5] and [sha1] are computed in one pass, since they are usually both needed for uploading.
+     * [formatName] only reads the file header.
+     */
+    private val digests by lazy { file.channel.resourceDigests() }
+    override val md5: ByteArray by lazy { digests.md5 }
+    override val sha1: ByteArray by lazy { digests.sha1 }
     override val formatName: String by lazy {
-        formatName ?: inputStream().detectFileTypeAndClose() ?: ExternalResource.DEFAULT_FORMAT_NAME
+        formatName ?: file.channel.detectFileType() ?: ExternalResource.DEFAULT_FORMAT_NAME
     }
 
     override fun inputStream(): InputStream {
@@ -152,8 +171,9 @@ internal class ExternalResourceImplByByteArray(
     formatName: String?
 ) : ExternalResource {
     override val size: Long = data.size.toLong()
-    override val md5: ByteArray by lazy { data.md5() }
-    override val sha1: ByteArray by lazy { data.sha1() }
+    private val digests by lazy { data.resourceDigests() }
+    override val md5: ByteArray by lazy { digests.md5 }
+    override val sha1: ByteArray by lazy { digests.sha1 }
     override val formatName: String by lazy {
         formatName ?: getFileType(data.copyOf(COUNT_BYTES_USED_FOR_DETECTING_FILE_TYPE))
         ?: ExternalResource.DEFAULT_FORMAT_NAME
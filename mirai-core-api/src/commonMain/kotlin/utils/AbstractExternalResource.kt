@@ -98,8 +98,9 @@ public constructor(
         public fun cleanup()
     }
 
-    override val md5: ByteArray by lazy { inputStream().md5() }
-    override val sha1: ByteArray by lazy { inputStream().sha1() }
+    private val digests by lazy { inputStream().resourceDigests() }
+    override val md5: ByteArray by lazy { digests.md5 }
+    override val sha1: ByteArray by lazy { digests.sha1 }
     override val formatName: String by lazy {
         inputStream().detectFileTypeAndClose() ?: ExternalResource.DEFAULT_FORMAT_NAME
     }
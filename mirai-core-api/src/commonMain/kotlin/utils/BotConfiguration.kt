@@ -17,11 +17,15 @@ package net.mamoe.mirai.utils
 
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.BufferOverflow
 import kotlinx.serialization.json.Json
 import net.mamoe.mirai.Bot
 import net.mamoe.mirai.BotFactory
 import net.mamoe.mirai.Mirai
 import net.mamoe.mirai.auth.BotAuthorization
+import net.mamoe.mirai.contact.Group
+import net.mamoe.mirai.contact.Member
+import net.mamoe.mirai.contact.MemberPermission
 import net.mamoe.mirai.event.events.BotOfflineEvent
 import kotlin.coroutines.CoroutineContext
 import kotlin.coroutines.EmptyCoroutineContext
@@ -285,6 +289,66 @@ public open class BotConfiguration : AbstractBotConfiguration() { // open for Ja
      */
     public var highwayUploadCoroutineCount: Int = availableProcessors()
 
+    /**
+     * 网络层事件循环的线程数量.
+     *
+     * - `0` (默认): 与同一 JVM 中的所有 [Bot] 共享一个全局的事件循环. 其线程数量可通过系统属性 `mirai.network.netty.threads` 配置.
+     * - 正数: 为此 [Bot] 单独创建指定线程数量的事件循环, 它会在 [Bot] 关闭时被释放.
+     *
+     * 在同一 JVM 中运行大量 [Bot] 时, 共享事件循环可以大幅减少线程数量, 重连时也无需重新创建线程.
+     * 事件循环只负责网络读写, 数据包的解码与处理在 [Bot] 的协程上下文中进行.
+     *
+     * @since 2.17
+     */
+    public var networkEventLoopThreads: Int = 0
+
+    /**
+     * 消息同步去重窗口的大小.
+     *
+     * 服务器可能重复推送同一条消息或通知. mirai 会记住最近收到的若干条消息的同步标识, 并忽略重复的推送.
+     * 在消息量很大的账号上, 若仍然收到重复的消息事件, 可以适当增大此值.
+     *
+     * 默认为 `50`.
+     *
+     * @since 2.17
+     */
+    public var messageSyncCacheSize: Int = 50
+
+    /**
+     * 处理接收到的数据包的工作协程数量.
+     *
+     * 数据包总是按接收顺序解码. 解码后:
+     * - `0` (默认): 每个数据包在单独的协程中处理.
+     * - 正数: 数据包按指令名分配给固定数量的工作协程, 同一指令的数据包按接收顺序处理, 不同指令的数据包并行处理.
+     *   每个工作协程的队列容量为 [packetProcessingQueueCapacity], 队列满时按 [packetProcessingOverflow] 处理.
+     *   对 [Bot] 发出的请求的响应不经过工作协程, 总是立即处理, 因此工作协程中的处理过程可以等待请求的响应.
+     *
+     * @since 2.17
+     */
+    public var packetProcessingWorkers: Int = 0
+
+    /**
+     * 每个数据包处理工作协程的队列容量. 仅在 [packetProcessingWorkers] 为正数时有效.
+     *
+     * 默认为 `256`.
+     *
+     * @since 2.17
+     */
+    public var packetProcessingQueueCapacity: Int = 256
+
+    /**
+     * 数据包处理队列已满时的策略. 仅在 [packetProcessingWorkers] 为正数时有效.
+     *
+     * - [BufferOverflow.SUSPEND] (默认): 暂停解码和从网络读取数据, 直到该工作协程的队列有空位. 不会丢失数据包. 此时其他工作协程也不会收到新的数据包.
+     * - [BufferOverflow.DROP_OLDEST]: 丢弃队列中最早的数据包.
+     * - [BufferOverflow.DROP_LATEST]: 丢弃新的数据包.
+     *
+     * 丢弃数据包可能导致事件丢失或请求超时, 请谨慎使用.
+     *
+     * @since 2.17
+     */
+    public var packetProcessingOverflow: BufferOverflow = BufferOverflow.SUSPEND
+
     /**
      * 设置 [autoReconnectOnForceOffline] 为 `true`, 即在被挤下线时自动重连.
      * @since 2.1
@@ -483,6 +547,26 @@ public open class BotConfiguration : AbstractBotConfiguration() { // open for Ja
         contactListCache.groupMemberListCacheEnabled = true
     }
 
+    /**
+     * 按需加载群成员列表.
+     *
+     * 默认 (`false`) 在登录时获取所有群的成员列表. 启用后, 登录时只获取群列表,
+     * 群成员列表在首次访问 [Group.members] 或收到该群的第一条消息或通知时才获取.
+     * 对于加入了大量群的账号, 这可以显著缩短登录时间并减少登录时的请求数量.
+     *
+     * 若启用了 [群成员列表缓存][ContactListCache.groupMemberListCacheEnabled] 且缓存有效, 仍会在登录时从缓存加载.
+     *
+     * 注意, 在成员列表加载完成前:
+     * - [Group.members] 可能为空, [Group.get] 可能返回 `null`;
+     * - [Group.botAsMember] 和 [Group.owner] 只有 [Member.id] 和 [Member.permission] 可用, 且若 Bot 是管理员, [Group.botPermission] 为 [MemberPermission.MEMBER].
+     *
+     * 加载期间收到的该群消息和通知会在加载完成后按顺序广播, 不会阻塞其他群的消息处理.
+     * 加载失败时会在等待一段时间 (从 1 秒起倍增, 最长 5 分钟) 后重试, 等待期间的消息和通知使用已知的成员处理.
+     *
+     * @since 2.17
+     */
+    public var loadGroupMembersOnDemand: Boolean = false
+
 
     /**
      * 登录缓存.
@@ -516,11 +600,17 @@ public open class BotConfiguration : AbstractBotConfiguration() { // open for Ja
             new.loginSolver = loginSolver
             new.protocol = protocol
             new.highwayUploadCoroutineCount = highwayUploadCoroutineCount
+            new.networkEventLoopThreads = networkEventLoopThreads
+            new.messageSyncCacheSize = messageSyncCacheSize
+            new.packetProcessingWorkers = packetProcessingWorkers
+            new.packetProcessingQueueCapacity = packetProcessingQueueCapacity
+            new.packetProcessingOverflow = packetProcessingOverflow
             new.accountSecrets = accountSecrets
             new.deviceInfo = deviceInfo
             new.botLoggerSupplier = botLoggerSupplier
             new.networkLoggerSupplier = networkLoggerSupplier
             new.contactListCache = contactListCache
+            new.loadGroupMembersOnDemand = loadGroupMembersOnDemand
             new.convertLineSeparator = convertLineSeparator
             new.isShowingVerboseEventLog = isShowingVerboseEventLog
 
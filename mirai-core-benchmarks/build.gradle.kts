@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+plugins {
+    kotlin("jvm")
+    id("me.champeau.jmh")
+}
+
+description = "JMH benchmarks for mirai-core"
+
+kotlin {
+    optInForAllSourceSets("net.mamoe.mirai.LowLevelApi")
+    optInForAllSourceSets("net.mamoe.mirai.utils.MiraiInternalApi")
+    optInForAllSourceSets("net.mamoe.mirai.utils.MiraiExperimentalApi")
+}
+
+dependencies {
+    jmh(project(":mirai-core-api"))
+    jmh(project(":mirai-core-utils"))
+    jmh(project(":mirai-core"))
+    jmh(`ktor-io`)
+    jmh(`kotlinx-serialization-protobuf`)
+    jmh(`kotlinx-coroutines-core`)
+}
+
+val benchmarkResults = layout.buildDirectory.file("results/jmh/results.json")
+val benchmarkBaseline = layout.projectDirectory.file("baseline/results.json")
+
+jmh {
+    jmhVersion.set(Versions.jmh)
+    resultFormat.set("JSON")
+    resultsFile.set(benchmarkResults)
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    // e.g. -Pmirai.benchmarks.includes=TeaBenchmark
+    findProperty("mirai.benchmarks.includes")?.let { includes.set(listOf(it.toString())) }
+}
+
+tasks.register<CheckBenchmarkRegressions>("checkBenchmarkRegressions") {
+    group = "verification"
+    description = "Runs benchmarks and fails if any of them is slower than baseline/results.json"
+    dependsOn("jmh")
+    results.set(benchmarkResults)
+    baseline.set(benchmarkBaseline)
+    tolerance.set(findProperty("mirai.benchmarks.tolerance")?.toString()?.toDouble() ?: 0.15)
+}
+
+tasks.register<Copy>("updateBenchmarkBaseline") {
+    group = "verification"
+    description = "Runs benchmarks and saves the results as baseline/results.json"
+    dependsOn("jmh")
+    from(benchmarkResults)
+    into(benchmarkBaseline.asFile.parentFile)
+}
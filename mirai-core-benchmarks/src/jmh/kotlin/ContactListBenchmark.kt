@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.benchmarks
+
+import net.mamoe.mirai.Bot
+import net.mamoe.mirai.contact.Contact
+import net.mamoe.mirai.contact.ContactList
+import net.mamoe.mirai.message.MessageReceipt
+import net.mamoe.mirai.message.data.Image
+import net.mamoe.mirai.message.data.Message
+import net.mamoe.mirai.message.data.ShortVideo
+import net.mamoe.mirai.utils.ExternalResource
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.ConcurrentLinkedDeque
+import java.util.concurrent.TimeUnit
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.EmptyCoroutineContext
+
+/**
+ * Measures [ContactList.get] by id, with the default indexed storage and with a plain collection as delegate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class ContactListBenchmark {
+    class BenchmarkContact(override val id: Long) : Contact {
+        override val bot: Bot get() = throw UnsupportedOperationException()
+        override val coroutineContext: CoroutineContext get() = EmptyCoroutineContext
+
+        override suspend fun sendMessage(message: Message): MessageReceipt<Contact> =
+            throw UnsupportedOperationException()
+
+        override suspend fun uploadImage(resource: ExternalResource): Image = throw UnsupportedOperationException()
+
+        override suspend fun uploadShortVideo(
+            thumbnail: ExternalResource,
+            video: ExternalResource,
+            fileName: String?
+        ): ShortVideo = throw UnsupportedOperationException()
+    }
+
+    @Param("100", "1000", "3000")
+    @JvmField
+    var size: Int = 0
+
+    @Param("true", "false")
+    @JvmField
+    var indexed: Boolean = true
+
+    private lateinit var contacts: ContactList<BenchmarkContact>
+    private lateinit var ids: LongArray
+    private var next = 0
+
+    @Setup
+    fun setup() {
+        contacts = if (indexed) ContactList() else ContactList(ConcurrentLinkedDeque())
+        repeat(size) { contacts.delegate.add(BenchmarkContact(10000L + it)) }
+        // look up all members in a shuffled order, with some misses
+        ids = LongArray(size) { 10000L + it + if (it % 8 == 0) size else 0 }.apply { shuffle(kotlin.random.Random(1)) }
+    }
+
+    @Benchmark
+    fun get(): BenchmarkContact? {
+        val id = ids[next]
+        next = if (next == ids.size - 1) 0 else next + 1
+        return contacts[id]
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+@file:Suppress("INVISIBLE_MEMBER", "INVISIBLE_REFERENCE")
+
+package net.mamoe.mirai.benchmarks
+
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.runBlocking
+import net.mamoe.mirai.event.AbstractEvent
+import net.mamoe.mirai.event.ConcurrencyKind
+import net.mamoe.mirai.event.EventPriority
+import net.mamoe.mirai.event.ListeningStatus
+import net.mamoe.mirai.internal.event.EventListeners
+import net.mamoe.mirai.internal.event.SafeListener
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+import kotlin.coroutines.EmptyCoroutineContext
+
+/**
+ * Measures [EventListeners.callListeners] with many registered listeners, of which one in ten accepts the event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class EventDispatchBenchmark {
+    class BenchmarkEvent : AbstractEvent()
+    class UnrelatedEvent : AbstractEvent()
+
+    @Param("10", "1000", "10000")
+    @JvmField
+    var listenerCount: Int = 0
+
+    private val job = SupervisorJob()
+    private lateinit var listeners: EventListeners
+
+    private fun <E : AbstractEvent> newListener() = SafeListener<E>(
+        job, EmptyCoroutineContext, { ListeningStatus.LISTENING }, ConcurrencyKind.CONCURRENT, EventPriority.NORMAL
+    )
+
+    @Setup
+    fun setup() {
+        listeners = EventListeners()
+        repeat(listenerCount) { i ->
+            if (i % 10 == 0) {
+                listeners.addListener(BenchmarkEvent::class, newListener())
+            } else {
+                listeners.addListener(UnrelatedEvent::class, newListener())
+            }
+        }
+    }
+
+    @TearDown
+    fun tearDown() {
+        job.cancel()
+    }
+
+    @Benchmark
+    fun callListeners(): BenchmarkEvent = BenchmarkEvent().also { event ->
+        runBlocking { listeners.callListeners(event) }
+    }
+}
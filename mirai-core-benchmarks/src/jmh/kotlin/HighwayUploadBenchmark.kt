@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+@file:Suppress("INVISIBLE_MEMBER", "INVISIBLE_REFERENCE")
+
+package net.mamoe.mirai.benchmarks
+
+import io.ktor.utils.io.core.*
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.runBlocking
+import net.mamoe.mirai.internal.network.highway.HighwayConnectionPoolImpl
+import net.mamoe.mirai.internal.network.highway.HighwayProtocolChannel
+import net.mamoe.mirai.internal.network.highway.releaseHighwayConnection
+import net.mamoe.mirai.internal.utils.PlatformSocket
+import org.openjdk.jmh.annotations.*
+import java.io.DataInputStream
+import java.net.ServerSocket
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+/**
+ * Measures uploading a resource of [chunks] chunks of [chunkSize] bytes to a fake highway server on localhost,
+ * which acknowledges every chunk.
+ *
+ * [pooled] borrows connections from [HighwayConnectionPoolImpl], [unpooled] connects for every upload,
+ * as uploads did before the pool. Uploads run one at a time, so throughput is the inverse of the mean latency.
+ * [Mode.SampleTime] also reports latency percentiles, including p99.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class HighwayUploadBenchmark {
+    @Param("1", "8")
+    @JvmField
+    var chunks: Int = 0
+
+    @Param("8192")
+    @JvmField
+    var chunkSize: Int = 0
+
+    private lateinit var server: ServerSocket
+    private lateinit var job: Job
+    private lateinit var pool: HighwayConnectionPoolImpl
+    private lateinit var chunk: ByteArray
+
+    @Setup
+    fun setup() {
+        chunk = ByteArray(chunkSize)
+        server = ServerSocket(0)
+        thread(isDaemon = true, name = "FakeHighwayServer") {
+            while (!server.isClosed) {
+                val client = kotlin.runCatching { server.accept() }.getOrNull() ?: break
+                thread(isDaemon = true) {
+                    client.use {
+                        kotlin.runCatching {
+                            val input = DataInputStream(client.getInputStream().buffered())
+                            val output = client.getOutputStream()
+                            val buffer = ByteArray(chunkSize)
+                            while (true) {
+                                input.readFully(buffer)
+                                output.write(ACK)
+                                output.flush()
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        job = SupervisorJob()
+        pool = HighwayConnectionPoolImpl(job, { 1 })
+    }
+
+    @TearDown
+    fun tearDown() {
+        job.cancel()
+        server.close()
+    }
+
+    private suspend fun HighwayProtocolChannel.upload() {
+        repeat(chunks) {
+            send(ByteReadPacket(chunk))
+            read().release()
+        }
+    }
+
+    @Benchmark
+    fun pooled() = runBlocking {
+        val connection = pool.borrow(HOST, server.localPort)
+        try {
+            connection.upload()
+        } catch (e: Throwable) {
+            releaseHighwayConnection(connection, reusable = false)
+            throw e
+        }
+        releaseHighwayConnection(connection, reusable = true)
+    }
+
+    @Benchmark
+    fun unpooled() = runBlocking {
+        PlatformSocket.connect(HOST, server.localPort).use { it.upload() }
+    }
+
+    private companion object {
+        const val HOST = "127.0.0.1"
+        val ACK = byteArrayOf(0, 0, 0, 0)
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.benchmarks
+
+import net.mamoe.mirai.message.data.*
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class MessageChainBenchmark {
+    /**
+     * Number of [PlainText], [At] and [Face] groups in the chain.
+     */
+    @Param("1", "32")
+    @JvmField
+    var groups: Int = 0
+
+    private lateinit var chain: MessageChain
+
+    @Setup
+    fun setup() {
+        chain = build()
+    }
+
+    @Benchmark
+    fun build(): MessageChain = buildMessageChain {
+        repeat(groups) { i ->
+            +PlainText("hello ")
+            +PlainText("world ")
+            +At(123456L + i)
+            +Face(Face.WEI_XIAO)
+        }
+    }
+
+    @Benchmark
+    fun contentToString(): String = chain.contentToString()
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+@file:Suppress("INVISIBLE_MEMBER", "INVISIBLE_REFERENCE")
+
+package net.mamoe.mirai.benchmarks
+
+import net.mamoe.mirai.internal.message.protocol.MessageProtocolFacade
+import net.mamoe.mirai.internal.network.protocol.data.proto.ImMsgBody
+import net.mamoe.mirai.internal.utils.runCoroutineInPlace
+import net.mamoe.mirai.message.data.MessageChain
+import net.mamoe.mirai.message.data.MessageChainBuilder
+import net.mamoe.mirai.utils.TypeSafeMap
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares [MessageDecoderPipeline.decode][net.mamoe.mirai.internal.message.protocol.decode.MessageDecoderPipeline.decode]
+ * with processing each element through every decoder, as done when trace logging is enabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class MessageDecoderPipelineBenchmark {
+    @Param("1", "20")
+    @JvmField
+    var textElements: Int = 0
+
+    private val pipeline = MessageProtocolFacade.INSTANCE.decoderPipeline
+    private lateinit var elems: List<ImMsgBody.Elem>
+
+    @Setup
+    fun setup() {
+        elems = buildList {
+            repeat(textElements) { i ->
+                add(ImMsgBody.Elem(text = ImMsgBody.Text(str = "hello world $i")))
+                add(ImMsgBody.Elem(face = ImMsgBody.Face(index = i)))
+            }
+            add(ImMsgBody.Elem(generalFlags = ImMsgBody.GeneralFlags(glamourLevel = 3)))
+            add(ImMsgBody.Elem(extraInfo = ImMsgBody.ExtraInfo(nick = "user1", level = 1, groupMask = 3)))
+        }
+    }
+
+    @Benchmark
+    fun dispatched(): MessageChain {
+        val builder = MessageChainBuilder()
+        pipeline.decode(elems, TypeSafeMap.EMPTY, builder)
+        return builder.build()
+    }
+
+    @Benchmark
+    fun allDecoders(): MessageChain {
+        val builder = MessageChainBuilder()
+        runCoroutineInPlace {
+            elems.forEach { builder.addAll(pipeline.process(it, TypeSafeMap.EMPTY).collected) }
+        }
+        return builder.build()
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+@file:Suppress("INVISIBLE_MEMBER", "INVISIBLE_REFERENCE")
+
+package net.mamoe.mirai.benchmarks
+
+import net.mamoe.mirai.internal.message.protocol.MessageProtocolFacade
+import net.mamoe.mirai.internal.message.protocol.encode.MessageEncoderContext
+import net.mamoe.mirai.internal.network.protocol.data.proto.ImMsgBody
+import net.mamoe.mirai.internal.utils.runCoroutineInPlace
+import net.mamoe.mirai.message.data.*
+import net.mamoe.mirai.utils.TypeSafeMap
+import net.mamoe.mirai.utils.buildTypeSafeMap
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares [MessageEncoderPipeline.encode][net.mamoe.mirai.internal.message.protocol.encode.MessageEncoderPipeline.encode]
+ * with processing each message through every encoder, as done when trace logging is enabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class MessageEncoderPipelineBenchmark {
+    @Param("1", "20")
+    @JvmField
+    var textElements: Int = 0
+
+    private val pipeline = MessageProtocolFacade.INSTANCE.encoderPipeline
+    private lateinit var chain: MessageChain
+    private lateinit var attributes: TypeSafeMap
+
+    @Setup
+    fun setup() {
+        chain = buildMessageChain {
+            add(AtAll)
+            repeat(textElements) { i ->
+                add(PlainText("hello world $i"))
+                add(Face(i))
+            }
+        }
+        attributes = buildTypeSafeMap {
+            set(MessageEncoderContext.CONTACT, null)
+            set(MessageEncoderContext.ORIGINAL_MESSAGE, chain)
+            set(MessageEncoderContext.ADD_GENERAL_FLAGS, true)
+            set(MessageEncoderContext.IS_FORWARD, false)
+        }
+    }
+
+    @Benchmark
+    fun dispatched(): List<ImMsgBody.Elem> {
+        val output = ArrayList<ImMsgBody.Elem>(chain.size)
+        pipeline.encode(chain, attributes, output)
+        return output
+    }
+
+    @Benchmark
+    fun allEncoders(): List<ImMsgBody.Elem> {
+        val output = ArrayList<ImMsgBody.Elem>(chain.size)
+        runCoroutineInPlace {
+            chain.forEach { output.addAll(pipeline.process(it, attributes).collected) }
+        }
+        return output
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.benchmarks
+
+import net.mamoe.mirai.message.code.MiraiCode
+import net.mamoe.mirai.message.data.MessageChain
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class MiraiCodeBenchmark {
+    @Param("1", "32")
+    @JvmField
+    var repeat: Int = 0
+
+    private lateinit var code: String
+
+    @Setup
+    fun setup() {
+        code = "hello \\[world\\] [mirai:at:123456] [mirai:face:1] [mirai:atall] text\\:with\\,escapes ".repeat(repeat)
+    }
+
+    @Benchmark
+    fun deserialize(): MessageChain = MiraiCode.deserializeMiraiCode(code)
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+@file:Suppress("INVISIBLE_MEMBER", "INVISIBLE_REFERENCE")
+
+package net.mamoe.mirai.benchmarks
+
+import net.mamoe.mirai.internal.network.protocol.data.proto.ImMsgBody
+import net.mamoe.mirai.internal.network.protocol.data.proto.MsgComm
+import net.mamoe.mirai.internal.utils.io.serialization.loadAs
+import net.mamoe.mirai.internal.utils.io.serialization.toByteArray
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures protobuf decoding of a [MsgComm.Msg], as done for every incoming group message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class MsgCommDecodeBenchmark {
+    @Param("1", "20")
+    @JvmField
+    var textElements: Int = 0
+
+    private lateinit var encoded: ByteArray
+
+    @Setup
+    fun setup() {
+        val elems = mutableListOf<ImMsgBody.Elem>()
+        repeat(textElements) { i ->
+            elems.add(ImMsgBody.Elem(text = ImMsgBody.Text(str = "hello world $i")))
+            elems.add(ImMsgBody.Elem(face = ImMsgBody.Face(index = i)))
+        }
+        elems.add(
+            ImMsgBody.Elem(
+                generalFlags = ImMsgBody.GeneralFlags(glamourLevel = 3, pbReserve = ByteArray(48) { it.toByte() })
+            )
+        )
+        elems.add(ImMsgBody.Elem(extraInfo = ImMsgBody.ExtraInfo(nick = "user1", level = 1, groupMask = 3)))
+
+        val msg = MsgComm.Msg(
+            msgHead = MsgComm.MsgHead(
+                fromUin = 1230001,
+                toUin = 1230003,
+                msgType = 82,
+                msgSeq = 1629,
+                msgTime = 1630,
+                msgUid = 14411,
+                groupInfo = MsgComm.GroupInfo(
+                    groupCode = 2230203,
+                    groupType = 1,
+                    groupInfoSeq = 626,
+                    groupCard = "user1",
+                    groupLevel = 1,
+                    groupCardType = 2,
+                    groupName = "testtest".toByteArray(),
+                ),
+                fromAppid = 1,
+                fromInstid = 1,
+                userActive = 1,
+            ),
+            contentHead = MsgComm.ContentHead(pkgNum = 1),
+            msgBody = ImMsgBody.MsgBody(
+                richText = ImMsgBody.RichText(
+                    attr = ImMsgBody.Attr(
+                        time = 1630,
+                        random = -1469,
+                        size = 12,
+                        charSet = 134,
+                        pitchAndFamily = 34,
+                        fontName = "微软雅黑",
+                    ),
+                    elems = elems,
+                ),
+            ),
+        )
+        encoded = msg.toByteArray(MsgComm.Msg.serializer())
+    }
+
+    @Benchmark
+    fun decode(): MsgComm.Msg = encoded.loadAs(MsgComm.Msg.serializer())
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+@file:Suppress("INVISIBLE_MEMBER", "INVISIBLE_REFERENCE")
+
+package net.mamoe.mirai.benchmarks
+
+import io.ktor.utils.io.core.*
+import net.mamoe.mirai.internal.network.WLoginSigInfo
+import net.mamoe.mirai.internal.network.components.PacketCodecImpl
+import net.mamoe.mirai.internal.network.components.RawIncomingPacket
+import net.mamoe.mirai.internal.network.components.SsoSession
+import net.mamoe.mirai.internal.network.protocol.packet.PacketEncryptType
+import net.mamoe.mirai.internal.network.protocol.packet.sso.TRpcRawPacket
+import net.mamoe.mirai.internal.utils.crypto.TEA
+import net.mamoe.mirai.internal.utils.io.writeIntLVPacket
+import net.mamoe.mirai.utils.KEY_16_ZEROS
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Measures [PacketCodecImpl.decodeRaw] on a frame as received from the socket.
+ *
+ * `Empty` frames are encrypted with the 16-zero key, so they also measure in-place TEA decryption.
+ * The command is a TRPC command so that the OICQ response parser (which needs a logged-in bot) is not involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class PacketCodecBenchmark {
+    @Param("NoEncrypt", "Empty")
+    @JvmField
+    var encryptType: String = ""
+
+    @Param("64", "4096")
+    @JvmField
+    var bodySize: Int = 0
+
+    private val codec = PacketCodecImpl()
+    private val session = object : SsoSession {
+        override var outgoingPacketSessionId: ByteArray = byteArrayOf(1, 2, 3, 4)
+        override var loginState: Int = 0
+        override var wLoginSigInfo: WLoginSigInfo
+            get() = error("Not logged in")
+            set(_) {}
+        override val randomKey: ByteArray = ByteArray(16)
+    }
+
+    private lateinit var frame: ByteArray
+
+    @Setup
+    fun setup() {
+        val type = PacketEncryptType.valueOf(encryptType)
+        val body = Random(1).nextBytes(bodySize)
+        val sso = buildPacket {
+            writeIntLVPacket(lengthOffset = { it + 4 }) {
+                writeInt(1) // sequence id
+                writeInt(0) // return code
+                writeInt(4) // empty extra data
+                val commandName = TRpcRawPacket.COMMAND_PREFIX + "benchmark"
+                writeInt(commandName.length + 4)
+                writeText(commandName)
+                writeInt(session.outgoingPacketSessionId.size + 4)
+                writeFully(session.outgoingPacketSessionId)
+                writeInt(0) // not compressed
+            }
+            writeInt(body.size + 4)
+            writeFully(body)
+        }.readBytes()
+
+        frame = buildPacket {
+            writeInt(0x0B) // simple
+            writeByte(type.value.toByte())
+            writeByte(0) // flag3
+            val uin = "123456789"
+            writeInt(uin.length + 4)
+            writeText(uin)
+            writeFully(if (type == PacketEncryptType.NoEncrypt) sso else TEA.encrypt(sso, KEY_16_ZEROS))
+        }.readBytes()
+    }
+
+    @Benchmark
+    fun decodeRaw(): RawIncomingPacket {
+        // decodeRaw may decrypt in place
+        return codec.decodeRaw(session, frame.copyOf())
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+@file:Suppress("INVISIBLE_MEMBER", "INVISIBLE_REFERENCE")
+
+package net.mamoe.mirai.benchmarks
+
+import kotlinx.coroutines.*
+import net.mamoe.mirai.internal.network.components.EncryptServiceHolder
+import net.mamoe.mirai.internal.network.components.PacketSignerImpl
+import net.mamoe.mirai.internal.spi.EncryptService
+import net.mamoe.mirai.internal.spi.EncryptServiceContext
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Measures signing [packets] packets sent at the same time with a signing service of [latencyMillis] per call.
+ *
+ * [batched] signs them through [PacketSignerImpl], [sequential] calls the service once per packet,
+ * as outgoing packets were signed before [PacketSignerImpl].
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class PacketSignerBenchmark {
+    @Param("0", "5")
+    @JvmField
+    var latencyMillis: Int = 0
+
+    @Param("1", "64")
+    @JvmField
+    var packets: Int = 0
+
+    private val context = EncryptServiceContext(1)
+    private lateinit var job: Job
+    private lateinit var service: LocalStubEncryptService
+    private lateinit var signer: PacketSignerImpl
+    private lateinit var payloads: List<ByteArray>
+
+    @Setup
+    fun setup() {
+        job = SupervisorJob()
+        service = LocalStubEncryptService(latencyMillis.toLong())
+        val holder = object : EncryptServiceHolder {
+            override val isAvailable: Boolean get() = true
+            override val service: EncryptService get() = this@PacketSignerBenchmark.service
+            override val serviceOrNull: EncryptService get() = this@PacketSignerBenchmark.service
+        }
+        signer = PacketSignerImpl(job, holder, 1)
+        payloads = List(packets) { Random(it).nextBytes(256) }
+    }
+
+    @TearDown
+    fun tearDown() {
+        job.cancel()
+    }
+
+    @Benchmark
+    fun batched(): List<EncryptService.SignResult?> = runBlocking {
+        payloads.mapIndexed { index, payload ->
+            async { signer.sign(index, "cmd${index % 4}", payload) }
+        }.awaitAll()
+    }
+
+    @Benchmark
+    fun sequential(): List<EncryptService.SignResult?> = runBlocking {
+        payloads.mapIndexed { index, payload ->
+            service.qSecurityGetSignBatch(
+                context,
+                listOf(EncryptService.SignRequest(index, "cmd${index % 4}", payload))
+            ).single()
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+@file:Suppress("INVISIBLE_MEMBER", "INVISIBLE_REFERENCE")
+
+package net.mamoe.mirai.benchmarks
+
+import net.mamoe.mirai.internal.network.protocol.data.jce.GetTroopListRespV2
+import net.mamoe.mirai.internal.network.protocol.data.jce.StTroopNum
+import net.mamoe.mirai.internal.utils.io.serialization.loadAs
+import net.mamoe.mirai.internal.utils.io.serialization.toByteArray
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures Tars (JCE) encoding and decoding of a [GetTroopListRespV2], as received when the group list is refreshed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class TarsCodecBenchmark {
+    @Param("1", "100")
+    @JvmField
+    var groups: Int = 0
+
+    private lateinit var value: GetTroopListRespV2
+    private lateinit var encoded: ByteArray
+
+    @Setup
+    fun setup() {
+        value = GetTroopListRespV2(
+            uin = 1230001,
+            troopCount = groups.toShort(),
+            result = 0,
+            vecCookies = ByteArray(16) { it.toByte() },
+            vecTroopList = List(groups) { i ->
+                StTroopNum(
+                    groupUin = 200000000L + i,
+                    groupCode = 100000000L + i,
+                    flag = 1,
+                    dwGroupInfoSeq = i.toLong(),
+                    groupName = "group $i",
+                    groupMemo = "memo of group $i",
+                    dwMemberNum = 200,
+                    dwGroupOwnerUin = 1230002,
+                    dwMaxGroupMemberNum = 500,
+                    vecGroupRemark = ByteArray(8),
+                )
+            },
+            vecGroupInfoExt = List(groups) { it.toLong() },
+        )
+        encoded = value.toByteArray(GetTroopListRespV2.serializer())
+    }
+
+    @Benchmark
+    fun encode(): ByteArray = value.toByteArray(GetTroopListRespV2.serializer())
+
+    @Benchmark
+    fun decode(): GetTroopListRespV2 = encoded.loadAs(GetTroopListRespV2.serializer())
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+@file:Suppress("INVISIBLE_MEMBER", "INVISIBLE_REFERENCE")
+
+package net.mamoe.mirai.benchmarks
+
+import net.mamoe.mirai.internal.utils.crypto.TEA
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class TeaBenchmark {
+    @Param("16", "256", "4096")
+    @JvmField
+    var size: Int = 0
+
+    private val key = Random(1).nextBytes(16)
+    private lateinit var plaintext: ByteArray
+    private lateinit var ciphertext: ByteArray
+    private lateinit var buffer: ByteArray
+
+    @Setup
+    fun setup() {
+        plaintext = Random(2).nextBytes(size)
+        ciphertext = TEA.encrypt(plaintext, key)
+        buffer = ByteArray(ciphertext.size)
+    }
+
+    @Benchmark
+    fun encrypt(): ByteArray = TEA.encrypt(plaintext, key)
+
+    @Benchmark
+    fun decrypt(): ByteArray = TEA.decrypt(ciphertext, key)
+
+    @Benchmark
+    fun encryptIntoBuffer(): Int = TEA.encrypt(plaintext, 0, plaintext.size, key, buffer, 0)
+
+    @Benchmark
+    fun decryptInPlace(): Int {
+        ciphertext.copyInto(buffer)
+        return TEA.decryptInPlace(buffer, key)
+    }
+
+    @Benchmark
+    fun legacyEncrypt(): ByteArray = LegacyTea.encrypt(plaintext, key)
+
+    @Benchmark
+    fun legacyDecrypt(): ByteArray = LegacyTea.decrypt(ciphertext, key)
+}
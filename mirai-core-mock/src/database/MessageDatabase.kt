@@ -13,8 +13,10 @@ import net.mamoe.mirai.contact.Contact
 import net.mamoe.mirai.contact.roaming.RoamingMessageFilter
 import net.mamoe.mirai.message.data.*
 import net.mamoe.mirai.mock.MockBot
+import net.mamoe.mirai.mock.internal.db.FileMsgDatabaseImpl
 import net.mamoe.mirai.mock.internal.db.MsgDatabaseImpl
 import net.mamoe.mirai.utils.concatAsLong
+import java.nio.file.Path
 
 /**
  * 一个消息数据库
@@ -63,10 +65,43 @@ public interface MessageDatabase {
     public fun connect()
 
     public companion object {
+        /**
+         * 创建一个基于内存的数据库. 按消息 id 查询为 O(1), 漫游消息查询只访问对应联系人在时间范围内的消息.
+         */
         @JvmStatic
         public fun newDefaultDatabase(): MessageDatabase {
             return MsgDatabaseImpl()
         }
+
+        /**
+         * 创建一个基于内存的数据库, 并在插入消息时淘汰旧消息:
+         * 消息数量超过 [maxMessages] 时淘汰最早插入的消息, 并淘汰 [MessageInfo.time] 早于 [maxAgeSeconds] 秒前的消息.
+         *
+         * 传入 [Int.MAX_VALUE] 或 [Long.MAX_VALUE] 表示不限制.
+         *
+         * @since 2.17
+         */
+        @JvmStatic
+        public fun newDefaultDatabase(maxMessages: Int, maxAgeSeconds: Long): MessageDatabase {
+            require(maxMessages > 0) { "maxMessages must be positive, but was $maxMessages" }
+            require(maxAgeSeconds >= 0) { "maxAgeSeconds must not be negative, but was $maxAgeSeconds" }
+            return MsgDatabaseImpl(maxMessages, maxAgeSeconds)
+        }
+
+        /**
+         * 创建一个基于文件的数据库, 数据保存在 [directory] 中, 可以在多次运行之间保留.
+         *
+         * 消息内容追加写入文件, 仅在查询时读取, 不会一直占用内存. 索引通过内存映射文件访问.
+         * 无法序列化的消息只保存在内存中, 在 [disconnect] 后丢失.
+         *
+         * 同一个目录同时只能被一个数据库使用.
+         *
+         * @since 2.17
+         */
+        @JvmStatic
+        public fun newFileDatabase(directory: Path): MessageDatabase {
+            return FileMsgDatabaseImpl(directory)
+        }
     }
 }
 
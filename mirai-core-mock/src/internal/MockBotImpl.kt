@@ -123,6 +123,7 @@ internal class MockBotImpl(
     @Suppress("INVISIBLE_MEMBER", "INVISIBLE_REFERENCE")
     override fun close(cause: Throwable?) {
         tmpResourceServer.close()
+        msgDatabase.disconnect()
         Bot._instances.remove(id, this)
         cancel(when (cause) {
             null -> CancellationException("Bot cancelled")
@@ -0,0 +1,397 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.mock.internal.db
+
+import kotlinx.serialization.SerializationException
+import net.mamoe.mirai.contact.Contact
+import net.mamoe.mirai.contact.roaming.RoamingMessage
+import net.mamoe.mirai.contact.roaming.RoamingMessageFilter
+import net.mamoe.mirai.message.data.MessageChain
+import net.mamoe.mirai.message.data.MessageChain.Companion.serializeToJsonString
+import net.mamoe.mirai.message.data.MessageSourceKind
+import net.mamoe.mirai.mock.database.MessageDatabase
+import net.mamoe.mirai.mock.database.MessageInfo
+import net.mamoe.mirai.mock.database.mockMsgDatabaseId
+import net.mamoe.mirai.utils.MiraiLogger
+import net.mamoe.mirai.utils.verbose
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.random.Random
+
+/**
+ * File-backed [MessageDatabase] in [directory]. Messages survive between runs.
+ *
+ * Two files are used:
+ * - `messages.log`: append-only log of message chains, serialized as UTF-8 JSON.
+ * - `messages.idx`: memory-mapped index with a fixed-size entry for each message, in insertion order.
+ *
+ * Message ids are derived from the index slot, so [queryMessageInfo] reads a single index entry.
+ * The heap only holds the slots of each conversation, message chains are read from disk when queried.
+ *
+ * Message chains that cannot be serialized are kept in memory, and are not available after reconnecting.
+ */
+internal class FileMsgDatabaseImpl(
+    private val directory: Path,
+) : MessageDatabase {
+    private data class Conversation(val kind: MessageSourceKind, val subject: Long)
+
+    /**
+     * Index slots of a conversation in insertion order.
+     */
+    private class SlotList {
+        var slots = IntArray(16)
+        var size = 0
+
+        /**
+         * `true` if message times are non-decreasing, so that time ranges can be found by binary search.
+         */
+        @Volatile
+        var sortedByTime = true
+        var lastTime = Long.MIN_VALUE
+
+        @Synchronized
+        fun add(slot: Int, time: Long) {
+            if (size == slots.size) slots = slots.copyOf(size * 2)
+            slots[size++] = slot
+            if (time < lastTime) sortedByTime = false
+            lastTime = time
+        }
+
+        @Synchronized
+        fun snapshot(): IntArray = slots.copyOf(size)
+    }
+
+    private var logChannel: FileChannel? = null
+    private var indexChannel: FileChannel? = null
+
+    @Volatile
+    private var index: MappedByteBuffer? = null
+
+    @Volatile
+    private var count = 0
+    private var capacity = 0
+    private var logSize = 0L
+    private var idBase1 = 0
+    private var idBase2 = 0
+
+    private val conversations = ConcurrentHashMap<Conversation, SlotList>()
+    private val unserializableMessages = ConcurrentHashMap<Long, MessageChain>()
+    private val lock = Any()
+
+    private val logger by lazy { MiraiLogger.Factory.create(FileMsgDatabaseImpl::class, "FileMsgDatabase") }
+
+    override fun connect() {
+        synchronized(lock) {
+            check(index == null) { "Database is already connected." }
+            Files.createDirectories(directory)
+            val indexChannel = FileChannel.open(
+                directory.resolve(INDEX_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+            )
+            val logChannel = FileChannel.open(
+                directory.resolve(LOG_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+            )
+            this.indexChannel = indexChannel
+            this.logChannel = logChannel
+
+            if (indexChannel.size() == 0L) {
+                capacity = INITIAL_CAPACITY
+                val index = map(indexChannel, capacity)
+                idBase1 = Random.nextInt()
+                idBase2 = Random.nextInt()
+                index.putInt(HEADER_MAGIC, MAGIC)
+                index.putInt(HEADER_VERSION, VERSION)
+                index.putInt(HEADER_ID_BASE_1, idBase1)
+                index.putInt(HEADER_ID_BASE_2, idBase2)
+                index.putInt(HEADER_COUNT, 0)
+                index.putLong(HEADER_LOG_SIZE, 0)
+                count = 0
+                logSize = 0
+                this.index = index
+            } else {
+                capacity = ((indexChannel.size() - HEADER_SIZE) / ENTRY_SIZE).toInt()
+                val index = map(indexChannel, capacity)
+                check(index.getInt(HEADER_MAGIC) == MAGIC && index.getInt(HEADER_VERSION) == VERSION) {
+                    "${directory.resolve(INDEX_FILE)} is not a message database index."
+                }
+                idBase1 = index.getInt(HEADER_ID_BASE_1)
+                idBase2 = index.getInt(HEADER_ID_BASE_2)
+                count = index.getInt(HEADER_COUNT)
+                logSize = index.getLong(HEADER_LOG_SIZE)
+                this.index = index
+                rebuildConversations(index)
+            }
+        }
+    }
+
+    override fun disconnect() {
+        synchronized(lock) {
+            val index = index ?: return
+            index.force()
+            logChannel?.force(false)
+            logChannel?.close()
+            indexChannel?.close()
+            this.index = null
+            logChannel = null
+            indexChannel = null
+            conversations.clear()
+            unserializableMessages.clear()
+        }
+    }
+
+    private fun rebuildConversations(index: ByteBuffer) {
+        conversations.clear()
+        for (slot in 0 until count) {
+            val position = entryPosition(slot)
+            if (index.get(position + ENTRY_FLAGS).toInt() and FLAG_REMOVED != 0) continue
+            conversationOf(index, position).add(slot, index.getLong(position + ENTRY_TIME))
+        }
+    }
+
+    private fun conversationOf(index: ByteBuffer, position: Int): SlotList {
+        val kind = MessageSourceKind.values()[index.get(position + ENTRY_KIND).toInt()]
+        return conversations.getOrPut(Conversation(kind, index.getLong(position + ENTRY_SUBJECT))) { SlotList() }
+    }
+
+    override fun newMessageInfo(
+        sender: Long, subject: Long,
+        kind: MessageSourceKind,
+        time: Long,
+        message: MessageChain,
+    ): MessageInfo {
+        val body = try {
+            message.serializeToJsonString().encodeToByteArray()
+        } catch (e: SerializationException) {
+            logger.verbose({ "Message cannot be serialized and will be kept in memory: $message" }, e)
+            null
+        }
+
+        synchronized(lock) {
+            val logChannel = logChannel ?: error("Database is not connected.")
+            val slot = count
+            val msgId = mockMsgDatabaseId(idBase1 + slot, idBase2 - slot)
+
+            val offset = logSize
+            if (body != null) {
+                val buffer = ByteBuffer.wrap(body)
+                while (buffer.hasRemaining()) {
+                    logChannel.write(buffer, offset + buffer.position())
+                }
+                logSize += body.size
+            } else {
+                unserializableMessages[msgId] = message
+            }
+
+            if (slot == capacity) grow()
+            val index = index!!
+            val position = entryPosition(slot)
+            index.putLong(position + ENTRY_ID, msgId)
+            index.putLong(position + ENTRY_SENDER, sender)
+            index.putLong(position + ENTRY_SUBJECT, subject)
+            index.putLong(position + ENTRY_TIME, time)
+            index.putLong(position + ENTRY_OFFSET, offset)
+            index.putInt(position + ENTRY_LENGTH, body?.size ?: 0)
+            index.put(position + ENTRY_KIND, kind.ordinal.toByte())
+            index.put(position + ENTRY_FLAGS, (if (body == null) FLAG_IN_MEMORY else 0).toByte())
+            index.putLong(HEADER_LOG_SIZE, logSize)
+            index.putInt(HEADER_COUNT, slot + 1)
+            count = slot + 1
+
+            conversations.getOrPut(Conversation(kind, subject)) { SlotList() }.add(slot, time)
+
+            return MessageInfo(
+                mixinedMsgId = msgId,
+                sender = sender,
+                subject = subject,
+                kind = kind,
+                time = time,
+                message = message,
+            )
+        }
+    }
+
+    /**
+     * Must be called in [lock].
+     */
+    private fun grow() {
+        check(capacity <= MAX_CAPACITY / 2) { "Too many messages in $directory" }
+        capacity *= 2
+        index = map(indexChannel!!, capacity)
+    }
+
+    private fun slotOf(msgId: Long): Int {
+        val slot = ((msgId shr 32).toInt() - idBase1)
+        if (slot < 0 || slot >= count) return -1
+        val index = index ?: return -1
+        if (index.getLong(entryPosition(slot) + ENTRY_ID) != msgId) return -1
+        return slot
+    }
+
+    override fun queryMessageInfo(msgId: Long): MessageInfo? {
+        val slot = slotOf(msgId)
+        if (slot == -1) return null
+        val index = index ?: return null
+        val position = entryPosition(slot)
+        if (index.get(position + ENTRY_FLAGS).toInt() and FLAG_REMOVED != 0) return null
+        return readMessageInfo(index, position)
+    }
+
+    private fun readMessageInfo(index: ByteBuffer, position: Int): MessageInfo? {
+        val msgId = index.getLong(position + ENTRY_ID)
+        val message = if (index.get(position + ENTRY_FLAGS).toInt() and FLAG_IN_MEMORY != 0) {
+            unserializableMessages[msgId] ?: return null
+        } else {
+            readMessage(index.getLong(position + ENTRY_OFFSET), index.getInt(position + ENTRY_LENGTH))
+        }
+        return MessageInfo(
+            mixinedMsgId = msgId,
+            sender = index.getLong(position + ENTRY_SENDER),
+            subject = index.getLong(position + ENTRY_SUBJECT),
+            kind = MessageSourceKind.values()[index.get(position + ENTRY_KIND).toInt()],
+            time = index.getLong(position + ENTRY_TIME),
+            message = message,
+        )
+    }
+
+    private fun readMessage(offset: Long, length: Int): MessageChain {
+        val logChannel = logChannel ?: error("Database is not connected.")
+        val buffer = ByteBuffer.allocate(length)
+        while (buffer.hasRemaining()) {
+            if (logChannel.read(buffer, offset + buffer.position()) == -1) {
+                error("Unexpected end of ${directory.resolve(LOG_FILE)}")
+            }
+        }
+        return MessageChain.deserializeFromJsonString(buffer.array().decodeToString())
+    }
+
+    override fun removeMessageInfo(msgId: Long) {
+        synchronized(lock) {
+            val slot = slotOf(msgId)
+            if (slot == -1) return
+            val index = index!!
+            val position = entryPosition(slot)
+            val flags = index.get(position + ENTRY_FLAGS).toInt()
+            index.put(position + ENTRY_FLAGS, (flags or FLAG_REMOVED).toByte())
+            unserializableMessages.remove(msgId)
+        }
+    }
+
+    override fun queryMessageInfosBy(
+        subject: Long, kind: MessageSourceKind,
+        contact: Contact,
+        timeStart: Long,
+        timeEnd: Long,
+        filter: RoamingMessageFilter
+    ): Sequence<MessageInfo> {
+        if (timeEnd < timeStart) return emptySequence()
+        val list = conversations[Conversation(kind, subject)] ?: return emptySequence()
+        val slots = list.snapshot()
+        val sortedByTime = list.sortedByTime // read after snapshot, so it is true only if slots are sorted
+
+        return sequence<MessageInfo> {
+            val index = index ?: return@sequence
+            val rm = object : RoamingMessage {
+                override val contact: Contact get() = contact
+                override var sender: Long = -1
+                override var target: Long = -1
+                override var time: Long = -1
+                override val ids: IntArray = intArrayOf(-1)
+                override val internalIds: IntArray = intArrayOf(-1)
+            }
+            val start = if (sortedByTime) lowerBound(index, slots, timeStart) else 0
+            for (i in start until slots.size) {
+                val position = entryPosition(slots[i])
+                val time = index.getLong(position + ENTRY_TIME)
+                if (time > timeEnd) {
+                    if (sortedByTime) break else continue
+                }
+                if (time < timeStart) continue
+                if (index.get(position + ENTRY_FLAGS).toInt() and FLAG_REMOVED != 0) continue
+
+                val msgId = index.getLong(position + ENTRY_ID)
+                val sender = index.getLong(position + ENTRY_SENDER)
+                rm.sender = sender
+                if (kind != MessageSourceKind.GROUP) {
+                    if (sender == contact.id) {
+                        rm.target = contact.bot.id
+                    } else {
+                        rm.target = subject
+                    }
+                } else {
+                    rm.target = subject
+                }
+                rm.time = time
+                rm.ids[0] = (msgId shr 32).toInt()
+                rm.internalIds[0] = msgId.toInt()
+
+                if (filter.invoke(rm)) {
+                    yield(readMessageInfo(index, position) ?: continue)
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the first position in [slots] whose time is not less than [time]
+     */
+    private fun lowerBound(index: ByteBuffer, slots: IntArray, time: Long): Int {
+        var low = 0
+        var high = slots.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (index.getLong(entryPosition(slots[mid]) + ENTRY_TIME) < time) low = mid + 1 else high = mid
+        }
+        return low
+    }
+
+    override fun toString(): String = "FileMsgDatabaseImpl(directory=$directory, count=$count)"
+
+    private companion object {
+        const val INDEX_FILE = "messages.idx"
+        const val LOG_FILE = "messages.log"
+
+        const val MAGIC = 0x4D4D4442 // MMDB
+        const val VERSION = 1
+        const val INITIAL_CAPACITY = 4096
+        const val MAX_CAPACITY = (Int.MAX_VALUE - 32) / 48 // HEADER_SIZE, ENTRY_SIZE
+
+        const val HEADER_MAGIC = 0
+        const val HEADER_VERSION = 4
+        const val HEADER_ID_BASE_1 = 8
+        const val HEADER_ID_BASE_2 = 12
+        const val HEADER_COUNT = 16
+        const val HEADER_LOG_SIZE = 24
+        const val HEADER_SIZE = 32
+
+        const val ENTRY_ID = 0
+        const val ENTRY_SENDER = 8
+        const val ENTRY_SUBJECT = 16
+        const val ENTRY_TIME = 24
+        const val ENTRY_OFFSET = 32
+        const val ENTRY_LENGTH = 40
+        const val ENTRY_KIND = 44
+        const val ENTRY_FLAGS = 45
+        const val ENTRY_SIZE = 48
+
+        const val FLAG_REMOVED = 1
+        const val FLAG_IN_MEMORY = 2
+
+        fun entryPosition(slot: Int): Int = HEADER_SIZE + slot * ENTRY_SIZE
+
+        fun map(channel: FileChannel, capacity: Int): MappedByteBuffer =
+            channel.map(FileChannel.MapMode.READ_WRITE, 0, entryPosition(capacity).toLong())
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -17,18 +17,56 @@ import net.mamoe.mirai.message.data.MessageSourceKind
 import net.mamoe.mirai.mock.database.MessageDatabase
 import net.mamoe.mirai.mock.database.MessageInfo
 import net.mamoe.mirai.mock.database.mockMsgDatabaseId
-import java.util.concurrent.ConcurrentLinkedDeque
+import net.mamoe.mirai.utils.currentTimeSeconds
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ConcurrentSkipListMap
 import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 import kotlin.random.Random
 
-internal class MsgDatabaseImpl : MessageDatabase {
+/**
+ * In-memory [MessageDatabase], with a hash index on [MessageInfo.mixinedMsgId]
+ * and a time-sorted index for each conversation for roaming queries.
+ *
+ * @param maxMessages the earliest inserted messages are evicted when there are more messages than this.
+ * @param maxAgeSeconds messages with [MessageInfo.time] older than this are evicted, checked on every insertion.
+ */
+internal class MsgDatabaseImpl(
+    private val maxMessages: Int = Int.MAX_VALUE,
+    private val maxAgeSeconds: Long = Long.MAX_VALUE,
+) : MessageDatabase {
     override fun disconnect() {}
     override fun connect() {}
 
-    val db = ConcurrentLinkedDeque<MessageInfo>()
+    private data class Conversation(val kind: MessageSourceKind, val subject: Long)
+
+    /**
+     * Sorts messages by time, then by insertion order.
+     */
+    private data class TimelineKey(val time: Long, val sequence: Long) : Comparable<TimelineKey> {
+        override fun compareTo(other: TimelineKey): Int {
+            val byTime = time.compareTo(other.time)
+            return if (byTime != 0) byTime else sequence.compareTo(other.sequence)
+        }
+    }
+
+    private class Entry(val info: MessageInfo, val key: TimelineKey)
+
+    private val messages = ConcurrentHashMap<Long, Entry>()
+    private val timelines = ConcurrentHashMap<Conversation, ConcurrentSkipListMap<TimelineKey, MessageInfo>>()
+
+    /**
+     * Message ids in insertion order, used for eviction. May contain ids already removed.
+     */
+    private val insertionOrder = ConcurrentLinkedQueue<Long>()
+    private val sequence = AtomicLong()
+
     val idCounter1 = AtomicInteger(Random.nextInt())
     val idCounter2 = AtomicInteger(Random.nextInt())
 
+    val size: Int get() = messages.size
+
     override fun newMessageInfo(
         sender: Long, subject: Long,
         kind: MessageSourceKind,
@@ -44,16 +82,37 @@ internal class MsgDatabaseImpl : MessageDatabase {
             time = time,
             message = message,
         )
-        db.add(info)
+        val key = TimelineKey(time, sequence.getAndIncrement())
+        messages[dbid] = Entry(info, key)
+        timelines.computeIfAbsent(Conversation(kind, subject)) { ConcurrentSkipListMap() }[key] = info
+        if (maxMessages != Int.MAX_VALUE || maxAgeSeconds != Long.MAX_VALUE) {
+            insertionOrder.add(dbid)
+            evict()
+        }
         return info
     }
 
+    private fun evict() {
+        val minTime = if (maxAgeSeconds == Long.MAX_VALUE) Long.MIN_VALUE else currentTimeSeconds() - maxAgeSeconds
+        while (true) {
+            val head = insertionOrder.peek() ?: return
+            val entry = messages[head]
+            if (entry == null) { // already removed
+                insertionOrder.remove(head)
+                continue
+            }
+            if (messages.size <= maxMessages && entry.info.time >= minTime) return
+            if (insertionOrder.remove(head)) removeMessageInfo(head)
+        }
+    }
+
     override fun queryMessageInfo(msgId: Long): MessageInfo? {
-        return db.firstOrNull { it.mixinedMsgId == msgId }
+        return messages[msgId]?.info
     }
 
     override fun removeMessageInfo(msgId: Long) {
-        db.removeIf { it.mixinedMsgId == msgId }
+        val entry = messages.remove(msgId) ?: return
+        timelines[Conversation(entry.info.kind, entry.info.subject)]?.remove(entry.key)
     }
 
     override fun queryMessageInfosBy(
@@ -64,6 +123,11 @@ internal class MsgDatabaseImpl : MessageDatabase {
         filter: RoamingMessageFilter
     ): Sequence<MessageInfo> {
         if (timeEnd < timeStart) return emptySequence()
+        val timeline = timelines[Conversation(kind, subject)] ?: return emptySequence()
+        val range = timeline.subMap(
+            TimelineKey(timeStart, Long.MIN_VALUE), true,
+            TimelineKey(timeEnd, Long.MAX_VALUE), true,
+        ).values
         return sequence<MessageInfo> {
             val rm = object : RoamingMessage {
                 override val contact: Contact get() = contact
@@ -73,12 +137,7 @@ internal class MsgDatabaseImpl : MessageDatabase {
                 override val ids: IntArray = intArrayOf(-1)
                 override val internalIds: IntArray = intArrayOf(-1)
             }
-            for (msgInfo in db) {
-                if (msgInfo.kind != kind) continue
-                if (msgInfo.time < timeStart) continue
-                if (msgInfo.time > timeEnd) continue
-                if (msgInfo.subject != subject) continue
-
+            for (msgInfo in range) {
                 rm.sender = msgInfo.sender
                 if (kind != MessageSourceKind.GROUP) {
                     if (msgInfo.sender == contact.id) {
@@ -99,4 +158,4 @@ internal class MsgDatabaseImpl : MessageDatabase {
             }
         }
     }
-}
\ No newline at end of file
+}
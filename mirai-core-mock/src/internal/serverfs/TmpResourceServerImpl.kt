@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -9,11 +9,15 @@
 
 package net.mamoe.mirai.mock.internal.serverfs
 
+import io.ktor.http.*
+import io.ktor.http.content.*
 import io.ktor.server.application.*
 import io.ktor.server.engine.*
+import io.ktor.server.http.content.*
 import io.ktor.server.netty.*
 import io.ktor.server.plugins.*
 import io.ktor.server.response.*
+import io.ktor.utils.io.*
 import net.mamoe.mirai.mock.resserver.MockServerFileDisk
 import net.mamoe.mirai.mock.resserver.TmpResourceServer
 import net.mamoe.mirai.utils.*
@@ -21,8 +25,11 @@ import java.net.ServerSocket
 import java.net.URI
 import java.net.URLDecoder
 import java.net.URLEncoder
-import java.nio.file.Files
-import java.nio.file.Path
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.*
+import java.security.MessageDigest
+import java.util.UUID
 import kotlin.io.path.*
 
 internal class TmpResourceServerImpl(
@@ -50,22 +57,64 @@ internal class TmpResourceServerImpl(
     private val storage: Path = storageRoot.resolve("storage").mkdirsIfMissing()
     private val images: Path = storageRoot.resolve("images").mkdirsIfMissing()
 
-    override suspend fun uploadResource(resource: ExternalResource): String {
+    /**
+     * Resources being uploaded, moved to [storage] when completed.
+     * It is in the same file system as [storage] so that the move is atomic.
+     */
+    private val uploading: Path = storageRoot.resolve("uploading").mkdirsIfMissing()
+
+    private class UploadedResource(val resourceId: String, val md5: ByteArray)
+
+    /**
+     * Copies [resource] to [storage] and computes its digests in a single read.
+     */
+    private suspend fun ingest(resource: ExternalResource): UploadedResource {
         fun ByteArray.hex() = toUHexString(separator = "")
 
         resource.useAutoClose {
-            val resourceId = "${resource.size}-${resource.sha1.hex()}-${resource.md5.hex()}"
-            val locPath = storage.resolve(resourceId)
-            if (locPath.isFile) return resourceId
-            runBIO {
-                locPath.outputStream().use { output ->
-                    resource.inputStream().use { it.copyTo(output) }
+            return runBIO {
+                val md5 = MessageDigest.getInstance("MD5")
+                val sha1 = MessageDigest.getInstance("SHA-1")
+                var size = 0L
+
+                val tmp = uploading.resolve("${UUID.randomUUID()}.tmp")
+                try {
+                    resource.inputStream().use { input ->
+                        tmp.outputStream().use { output ->
+                            val buffer = ByteArray(64 * 1024)
+                            while (true) {
+                                val read = input.read(buffer)
+                                if (read == -1) break
+                                md5.update(buffer, 0, read)
+                                sha1.update(buffer, 0, read)
+                                output.write(buffer, 0, read)
+                                size += read
+                            }
+                        }
+                    }
+
+                    val md5Value = md5.digest()
+                    val resourceId = "$size-${sha1.digest().hex()}-${md5Value.hex()}"
+                    val locPath = storage.resolve(resourceId)
+                    if (!locPath.isFile) {
+                        try {
+                            Files.move(tmp, locPath, StandardCopyOption.ATOMIC_MOVE)
+                        } catch (e: AtomicMoveNotSupportedException) {
+                            Files.move(tmp, locPath, StandardCopyOption.REPLACE_EXISTING)
+                        }
+                    }
+                    UploadedResource(resourceId, md5Value)
+                } finally {
+                    tmp.deleteIfExists()
                 }
             }
-            return resourceId
         }
     }
 
+    override suspend fun uploadResource(resource: ExternalResource): String {
+        return ingest(resource).resourceId
+    }
+
     override fun isImageUploaded(md5: ByteArray, size: Long): Boolean {
         val img = images.resolve(generateUUID(md5))
         if (img.exists()) {
@@ -76,8 +125,9 @@ internal class TmpResourceServerImpl(
 
 
     override suspend fun uploadResourceAsImage(resource: ExternalResource): URI {
-        val imgId = generateUUID(resource.md5)
-        val resId = uploadResource(resource)
+        val uploaded = ingest(resource)
+        val imgId = generateUUID(uploaded.md5)
+        val resId = uploaded.resourceId
 
         val imgPath = images.resolve(imgId)
         val storagePath = storage.resolve(resId).toAbsolutePath()
@@ -137,12 +187,8 @@ internal class TmpResourceServerImpl(
                     } else {
                         storageRoot.resolve(req)
                     }
-                    if (targetPath.exists()) {
-                        call.respondOutputStream {
-                            net.mamoe.mirai.utils.runBIO {
-                                targetPath.inputStream().buffered().use { it.copyTo(this@respondOutputStream) }
-                            }
-                        }
+                    if (targetPath.isRegularFile()) {
+                        call.respond(fileContent(targetPath))
                         return@intercept
                     }
                     if (req.startsWith("images/")) {
@@ -170,6 +216,33 @@ internal class TmpResourceServerImpl(
     }
 }
 
+/**
+ * Files on the default file system are served by ktor directly.
+ * Others (e.g. in-memory file systems) are read from [FileChannel] into the response without intermediate streams.
+ */
+private fun fileContent(path: Path): OutgoingContent {
+    if (path.fileSystem === FileSystems.getDefault()) {
+        return LocalFileContent(path.toFile(), ContentType.Application.OctetStream)
+    }
+    return object : OutgoingContent.WriteChannelContent() {
+        override val contentType: ContentType get() = ContentType.Application.OctetStream
+        override val contentLength: Long = Files.size(path)
+
+        override suspend fun writeTo(channel: ByteWriteChannel) {
+            runBIO { FileChannel.open(path, StandardOpenOption.READ) }.use { file ->
+                val buffer = ByteBuffer.allocateDirect(64 * 1024)
+                while (true) {
+                    buffer.clear()
+                    // blocking read on IO threads, suspending write outside of it
+                    if (runBIO { file.read(buffer) } == -1) break
+                    buffer.flip()
+                    channel.writeFully(buffer)
+                }
+            }
+        }
+    }
+}
+
 private fun Path.mkdirsIfMissing(): Path {
     if (!exists()) createDirectories()
     return this
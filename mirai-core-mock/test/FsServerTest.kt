@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -14,10 +14,19 @@ package net.mamoe.mirai.mock.test
 import kotlinx.coroutines.runBlocking
 import net.mamoe.mirai.mock.resserver.TmpResourceServer
 import net.mamoe.mirai.utils.ExternalResource.Companion.toExternalResource
+import net.mamoe.mirai.utils.md5
 import net.mamoe.mirai.utils.mkParentDirs
+import net.mamoe.mirai.utils.sha1
+import net.mamoe.mirai.utils.toUHexString
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Path
+import kotlin.io.path.listDirectoryEntries
 import kotlin.io.path.writeText
+import kotlin.random.Random
+import kotlin.test.assertContentEquals
 import kotlin.test.assertEquals
+import kotlin.test.assertTrue
 
 @Suppress("RemoveExplicitTypeArguments")
 internal class FsServerTest {
@@ -38,4 +47,32 @@ internal class FsServerTest {
 
         fsServer.close()
     }
+
+    private fun testUploadLargeResource(fsServer: TmpResourceServer) = runBlocking<Unit> {
+        fsServer.startupServer()
+        val data = Random(1).nextBytes(3 * 1024 * 1024 + 17)
+
+        val resourceId = fsServer.uploadResource(data.toExternalResource())
+        assertEquals(
+            "${data.size}-${data.sha1().toUHexString("")}-${data.md5().toUHexString("")}",
+            resourceId
+        )
+        assertEquals(resourceId, fsServer.uploadResource(data.toExternalResource()))
+        assertTrue { fsServer.storageRoot.resolve("uploading").listDirectoryEntries().isEmpty() }
+
+        assertContentEquals(data, fsServer.resolveHttpUrl(resourceId).toURL().readBytes())
+        assertContentEquals(data, fsServer.uploadResourceAsImage(data.toExternalResource()).toURL().readBytes())
+
+        fsServer.close()
+    }
+
+    @Test
+    fun testUploadLargeResourceInMemory() {
+        testUploadLargeResource(TmpResourceServer.newInMemoryTmpResourceServer())
+    }
+
+    @Test
+    fun testUploadLargeResourceOnDisk(@TempDir dir: Path) {
+        testUploadLargeResource(TmpResourceServer.of(dir))
+    }
 }
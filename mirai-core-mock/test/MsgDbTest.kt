@@ -9,16 +9,22 @@
 
 package net.mamoe.mirai.mock.test
 
+import net.mamoe.mirai.contact.roaming.RoamingMessageFilter
 import net.mamoe.mirai.message.data.MessageSourceKind
+import net.mamoe.mirai.message.data.PlainText
 import net.mamoe.mirai.message.data.messageChainOf
 import net.mamoe.mirai.mock.database.MessageDatabase
 import net.mamoe.mirai.mock.database.MessageInfo
 import net.mamoe.mirai.mock.database.mockMsgDatabaseId
+import net.mamoe.mirai.utils.currentTimeSeconds
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Path
 import kotlin.random.Random
 import kotlin.test.assertEquals
+import kotlin.test.assertNull
 
-internal class MsgDbTest {
+internal class MsgDbTest : MockBotTestBase() {
     @Test
     fun testIdConversion() {
         repeat(50) {
@@ -46,4 +52,76 @@ internal class MsgDbTest {
 
         db.disconnect()
     }
+
+    @Test
+    fun testRemove() {
+        val db = MessageDatabase.newDefaultDatabase()
+        val info = db.newMessageInfo(1, 2, MessageSourceKind.GROUP, 0, messageChainOf())
+        db.removeMessageInfo(info.mixinedMsgId)
+        assertNull(db.queryMessageInfo(info.mixinedMsgId))
+    }
+
+    @Test
+    fun testQueryByTimeRange() {
+        val db = MessageDatabase.newDefaultDatabase()
+        val group = bot.addGroup(2, "2")
+        val infos = (0L until 10L).map { time ->
+            db.newMessageInfo(1, 2, MessageSourceKind.GROUP, time, messageChainOf())
+        }
+        db.newMessageInfo(1, 3, MessageSourceKind.GROUP, 5, messageChainOf())
+        db.newMessageInfo(1, 2, MessageSourceKind.FRIEND, 5, messageChainOf())
+        db.removeMessageInfo(infos[4].mixinedMsgId)
+
+        assertEquals(
+            listOf(infos[3], infos[5], infos[6]),
+            db.queryMessageInfosBy(2, MessageSourceKind.GROUP, group, 3, 6, RoamingMessageFilter.ANY).toList()
+        )
+        assertEquals(
+            listOf(infos[6]),
+            db.queryMessageInfosBy(2, MessageSourceKind.GROUP, group, 3, 6) { it.time == 6L }.toList()
+        )
+    }
+
+    @Test
+    fun testEviction() {
+        val db = MessageDatabase.newDefaultDatabase(maxMessages = 3, maxAgeSeconds = 100)
+        val now = currentTimeSeconds()
+        val old = db.newMessageInfo(1, 2, MessageSourceKind.GROUP, now - 200, messageChainOf())
+        assertNull(db.queryMessageInfo(old.mixinedMsgId))
+
+        val infos = List(5) { db.newMessageInfo(1, 2, MessageSourceKind.GROUP, now, messageChainOf()) }
+        assertNull(db.queryMessageInfo(infos[0].mixinedMsgId))
+        assertNull(db.queryMessageInfo(infos[1].mixinedMsgId))
+        infos.drop(2).forEach { assertEquals(it, db.queryMessageInfo(it.mixinedMsgId)) }
+    }
+
+    @Test
+    fun testFileDatabase(@TempDir dir: Path) {
+        val group = bot.addGroup(2, "2")
+        var db = MessageDatabase.newFileDatabase(dir)
+        db.connect()
+        val infos = (0L until 10L).map { time ->
+            db.newMessageInfo(1, 2, MessageSourceKind.GROUP, time, messageChainOf(PlainText("msg$time")))
+        }
+        db.newMessageInfo(1, 3, MessageSourceKind.GROUP, 5, messageChainOf(PlainText("other")))
+        db.removeMessageInfo(infos[4].mixinedMsgId)
+        infos.forEachIndexed { index, info ->
+            if (index == 4) assertNull(db.queryMessageInfo(info.mixinedMsgId))
+            else assertEquals(info, db.queryMessageInfo(info.mixinedMsgId))
+        }
+        db.disconnect()
+
+        db = MessageDatabase.newFileDatabase(dir)
+        db.connect()
+        assertEquals(infos[3], db.queryMessageInfo(infos[3].mixinedMsgId))
+        assertNull(db.queryMessageInfo(infos[4].mixinedMsgId))
+        assertEquals(
+            listOf(infos[3], infos[5], infos[6]),
+            db.queryMessageInfosBy(2, MessageSourceKind.GROUP, group, 3, 6, RoamingMessageFilter.ANY).toList()
+        )
+
+        val next = db.newMessageInfo(1, 2, MessageSourceKind.GROUP, 10, messageChainOf(PlainText("next")))
+        assertEquals(next, db.queryMessageInfo(next.mixinedMsgId))
+        db.disconnect()
+    }
 }
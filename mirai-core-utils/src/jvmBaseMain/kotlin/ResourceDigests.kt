@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+@file:JvmMultifileClass
+@file:JvmName("MiraiUtils")
+
+package net.mamoe.mirai.utils
+
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.security.MessageDigest
+
+/**
+ * MD5, SHA-1 and file header of some data, computed in a single pass.
+ *
+ * @see resourceDigests
+ */
+public class ResourceDigests(
+    public val md5: ByteArray,
+    public val sha1: ByteArray,
+    /**
+     * The first [COUNT_BYTES_USED_FOR_DETECTING_FILE_TYPE] bytes, or all bytes if data is shorter.
+     */
+    public val header: ByteArray,
+) {
+    /**
+     * @see getFileType
+     */
+    public val formatName: String? by lazy { getFileType(header) }
+}
+
+private const val RESOURCE_DIGESTS_BUFFER_SIZE = 64 * 1024
+
+private class ResourceDigestsCalculator {
+    private val md5 = MessageDigest.getInstance("MD5")
+    private val sha1 = MessageDigest.getInstance("SHA-1")
+    private val header = ByteArray(COUNT_BYTES_USED_FOR_DETECTING_FILE_TYPE)
+    private var headerSize = 0
+
+    fun update(bytes: ByteArray, offset: Int, length: Int) {
+        if (headerSize < header.size) {
+            val count = minOf(header.size - headerSize, length)
+            bytes.copyInto(header, headerSize, offset, offset + count)
+            headerSize += count
+        }
+        md5.update(bytes, offset, length)
+        sha1.update(bytes, offset, length)
+    }
+
+    fun finish(): ResourceDigests = ResourceDigests(md5.digest(), sha1.digest(), header.copyOf(headerSize))
+}
+
+/**
+ * Reads this stream to the end and computes [ResourceDigests]. The stream is closed after reading.
+ */
+public fun InputStream.resourceDigests(): ResourceDigests {
+    val calculator = ResourceDigestsCalculator()
+    use { input ->
+        val buffer = ByteArray(RESOURCE_DIGESTS_BUFFER_SIZE)
+        while (true) {
+            val read = input.read(buffer)
+            if (read == -1) break
+            calculator.update(buffer, 0, read)
+        }
+    }
+    return calculator.finish()
+}
+
+/**
+ * Computes [ResourceDigests] of the whole file with positional reads, so the position of this channel is not changed.
+ * This channel is not closed.
+ */
+public fun FileChannel.resourceDigests(): ResourceDigests {
+    val calculator = ResourceDigestsCalculator()
+    val buffer = ByteBuffer.allocate(RESOURCE_DIGESTS_BUFFER_SIZE)
+    var position = 0L
+    while (true) {
+        buffer.clear()
+        val read = read(buffer, position)
+        if (read == -1) break
+        calculator.update(buffer.array(), 0, read)
+        position += read
+    }
+    return calculator.finish()
+}
+
+@JvmOverloads
+public fun ByteArray.resourceDigests(offset: Int = 0, length: Int = size - offset): ResourceDigests {
+    checkOffsetAndLength(offset, length)
+    return ResourceDigestsCalculator().apply { update(this@resourceDigests, offset, length) }.finish()
+}
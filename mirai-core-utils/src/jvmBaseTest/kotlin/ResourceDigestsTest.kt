@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.utils
+
+import java.io.File
+import java.io.RandomAccessFile
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+internal class ResourceDigestsTest {
+    // larger than the buffer, so that multiple reads are needed
+    private val data = "89504E470D0A1A0A".hexToBytes() + Random(1).nextBytes(200_000)
+
+    private fun assertDigests(digests: ResourceDigests) {
+        assertContentEquals(data.md5(), digests.md5)
+        assertContentEquals(data.sha1(), digests.sha1)
+        assertEquals("png", digests.formatName)
+    }
+
+    @Test
+    fun `digests of byte array`() {
+        assertDigests(data.resourceDigests())
+    }
+
+    @Test
+    fun `digests of stream`() {
+        assertDigests(data.inputStream().resourceDigests())
+    }
+
+    @Test
+    fun `digests of file channel`() {
+        val file = File.createTempFile("ResourceDigestsTest", null)
+        try {
+            file.writeBytes(data)
+            RandomAccessFile(file, "r").use { raf ->
+                assertDigests(raf.channel.resourceDigests())
+                assertEquals(0L, raf.filePointer)
+            }
+        } finally {
+            file.delete()
+        }
+    }
+
+    @Test
+    fun `digests of empty data`() {
+        val digests = byteArrayOf().resourceDigests()
+        assertContentEquals(byteArrayOf().md5(), digests.md5)
+        assertEquals(0, digests.header.size)
+        assertNull(digests.formatName)
+    }
+}
@@ -37,6 +37,8 @@ import net.mamoe.mirai.internal.network.handler.state.LoggingStateObserver
 import net.mamoe.mirai.internal.network.handler.state.StateChangedObserver
 import net.mamoe.mirai.internal.network.handler.state.StateObserver
 import net.mamoe.mirai.internal.network.handler.state.safe
+import net.mamoe.mirai.internal.network.highway.HighwayConnectionPool
+import net.mamoe.mirai.internal.network.highway.HighwayConnectionPoolImpl
 import net.mamoe.mirai.internal.network.impl.ForceOfflineException
 import net.mamoe.mirai.internal.network.notice.TraceLoggingNoticeProcessor
 import net.mamoe.mirai.internal.network.notice.UnconsumedNoticesAlerter
@@ -280,6 +282,10 @@ internal open class QQAndroidBot constructor(
             configuration.createAccountsSecretsManager(bot.logger.subLogger("AccountSecretsManager")),
         )
         set(ImagePatcher, ImagePatcherImpl())
+        set(
+            HighwayConnectionPool,
+            HighwayConnectionPoolImpl(bot.coroutineContext, { configuration.highwayUploadCoroutineCount }),
+        )
 
         cacheValidator.register(get(AccountSecretsManager))
         cacheValidator.register(get(BdhSessionSyncer))
@@ -287,6 +293,8 @@ internal open class QQAndroidBot constructor(
         set(
             EncryptServiceHolder, EncryptServiceHolderImpl(this@QQAndroidBot, get(SsoProcessorContext))
         )
+        set(PacketSigner, PacketSignerImpl(bot.coroutineContext, get(EncryptServiceHolder), bot.id))
+        set(MessageReceiptTable, MessageReceiptTableImpl())
     }
 
     /**
@@ -295,7 +303,7 @@ internal open class QQAndroidBot constructor(
     open fun createNetworkLevelComponents(): ComponentStorage {
         return ConcurrentComponentStorage {
             set(BotClientHolder, BotClientHolderImpl(bot, networkLogger.subLogger("BotClientHolder")))
-            set(SyncController, SyncControllerImpl())
+            set(SyncController, SyncControllerImpl(configuration.messageSyncCacheSize))
             set(ClockHolder, ClockHolder())
         }.withFallback(defaultBotLevelComponents)
     }
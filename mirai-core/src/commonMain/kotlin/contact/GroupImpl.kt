@@ -44,6 +44,9 @@ import net.mamoe.mirai.internal.message.protocol.outgoing.GroupMessageProtocolSt
 import net.mamoe.mirai.internal.message.protocol.outgoing.MessageProtocolStrategy
 import net.mamoe.mirai.internal.network.components.BdhSession
 import net.mamoe.mirai.internal.network.components.HttpClientProvider
+import net.mamoe.mirai.internal.network.components.NoticePipelineContext
+import net.mamoe.mirai.internal.network.components.NoticeProcessorPipeline.Companion.noticeProcessorPipeline
+import net.mamoe.mirai.internal.network.components.PacketHandler
 import net.mamoe.mirai.internal.network.handler.logger
 import net.mamoe.mirai.internal.network.highway.ChannelKind
 import net.mamoe.mirai.internal.network.highway.Highway
@@ -52,14 +55,17 @@ import net.mamoe.mirai.internal.network.highway.ResourceKind.GROUP_IMAGE
 import net.mamoe.mirai.internal.network.highway.postPtt
 import net.mamoe.mirai.internal.network.highway.tryServersUpload
 import net.mamoe.mirai.internal.network.protocol.data.proto.Cmd0x388
+import net.mamoe.mirai.internal.network.protocol.packet.IncomingPacket
 import net.mamoe.mirai.internal.network.protocol.packet.chat.TroopEssenceMsgManager
 import net.mamoe.mirai.internal.network.protocol.packet.chat.image.ImgStore
 import net.mamoe.mirai.internal.network.protocol.packet.chat.voice.PttStore
 import net.mamoe.mirai.internal.network.protocol.packet.chat.voice.audioCodec
 import net.mamoe.mirai.internal.network.protocol.packet.chat.voice.voiceCodec
 import net.mamoe.mirai.internal.network.protocol.packet.list.ProfileService
+import net.mamoe.mirai.internal.network.toPacket
 import net.mamoe.mirai.internal.utils.GroupPkgMsgParsingCache
 import net.mamoe.mirai.internal.utils.ImagePatcher
+import net.mamoe.mirai.internal.utils.io.ProtocolStruct
 import net.mamoe.mirai.internal.utils.io.serialization.toByteArray
 import net.mamoe.mirai.internal.utils.subLogger
 import net.mamoe.mirai.message.MessageReceipt
@@ -87,7 +93,7 @@ internal fun GroupImpl(
     groupInfo: GroupInfo,
     members: Sequence<MemberInfo>,
 ): GroupImpl {
-    return GroupImpl(bot, parentCoroutineContext, id, groupInfo, ContactList(ConcurrentLinkedDeque())).apply Group@{
+    return GroupImpl(bot, parentCoroutineContext, id, groupInfo, ContactList()).apply Group@{
         members.forEach { info ->
             if (info.uin == bot.id) {
                 botAsMember = newNormalMember(info)
@@ -117,6 +123,85 @@ internal fun GroupImpl(
     }
 }
 
+/**
+ * Creates a group whose members are loaded by [fetchMembers] on demand, see [BotConfiguration.loadGroupMembersOnDemand].
+ *
+ * Until members are loaded, [GroupImpl.botAsMember] and [GroupImpl.owner] are placeholders with permissions derived from [ownerId].
+ * When members are loaded, [GroupImpl.botAsMember] is updated in place, and [GroupImpl.owner] is replaced by the loaded owner.
+ */
+internal fun GroupImpl(
+    bot: QQAndroidBot,
+    parentCoroutineContext: CoroutineContext,
+    id: Long,
+    groupInfo: GroupInfo,
+    ownerId: Long,
+    fetchMembers: suspend () -> List<MemberInfo>,
+): GroupImpl {
+    return GroupImpl(bot, parentCoroutineContext, id, groupInfo, ContactList()).apply {
+        botAsMember = newNormalMember(
+            MemberInfoImpl(
+                uin = bot.id,
+                nick = bot.nick,
+                permission = if (ownerId == bot.id) MemberPermission.OWNER else MemberPermission.MEMBER,
+            )
+        )
+        owner = if (ownerId == bot.id) botAsMember else newNormalMember(
+            MemberInfoImpl(uin = ownerId, nick = "", permission = MemberPermission.OWNER)
+        )
+        memberListLoader = GroupMemberListLoader(this, bot.network.logger.subLogger("Group $id"), fetchMembers) {
+            onMembersLoaded(it)
+        }
+    }
+}
+
+private fun GroupImpl.onMembersLoaded(members: List<MemberInfo>) {
+    for (info in members) {
+        if (info.uin == bot.id) {
+            botAsMember.info.run {
+                nick = info.nick
+                permission = info.permission
+                nameCard = info.nameCard
+                specialTitle = info.specialTitle
+            }
+            if (info.permission == MemberPermission.OWNER) owner = botAsMember
+            continue
+        }
+        // Members may have been added by events before loading completes.
+        val member = this.members[info.uin] ?: newNormalMember(info).also { this.members.delegate.add(it) }
+        if (member.permission == MemberPermission.OWNER) owner = member
+        if (lastTalkative == null && GroupHonorType.TALKATIVE in member.active.honors) {
+            casLastTalkative(null, member)
+        }
+    }
+}
+
+/**
+ * Runs [block] once members of [group] are loaded, if they are loaded on demand. See [BotConfiguration.loadGroupMembersOnDemand].
+ *
+ * Processing of [data] does not wait for the member list. While it is being loaded, [block] is deferred and later run
+ * in order with other deferred blocks of the group, on a new context whose results are handled by [PacketHandler].
+ * If loading fails, the failure is logged, and [block] runs with the members known so far.
+ */
+internal suspend fun NoticePipelineContext.withMembersLoaded(
+    group: GroupImpl,
+    data: ProtocolStruct,
+    block: suspend NoticePipelineContext.() -> Unit,
+) {
+    val deferred = group.memberListLoader?.defer {
+        val context = bot.components.noticeProcessorPipeline.createContext(data, attributes)
+        context.block()
+        bot.components[PacketHandler].handlePacket(
+            IncomingPacket(DEFERRED_COMMAND_NAME, 0, context.collected.data.toPacket())
+        )
+    } ?: false
+    if (!deferred) block()
+}
+
+/**
+ * [IncomingPacket.commandName] of results of blocks deferred by [withMembersLoaded], not matching any packet factory.
+ */
+private const val DEFERRED_COMMAND_NAME = "GroupMemberListLoader.deferred"
+
 private val logger by lazy {
     MiraiLogger.Factory.create(GroupImpl::class, "Group")
 }
@@ -140,10 +225,25 @@ internal abstract class CommonGroupImpl constructor(
     parentCoroutineContext: CoroutineContext,
     override val id: Long,
     groupInfo: GroupInfo,
-    final override val members: ContactList<NormalMemberImpl>,
+    members: ContactList<NormalMemberImpl>,
 ) : Group, AbstractContact(bot, parentCoroutineContext) {
     companion object
 
+    private val memberList: ContactList<NormalMemberImpl> = members
+
+    /**
+     * Not `null` if members are loaded on demand, see [BotConfiguration.loadGroupMembersOnDemand].
+     */
+    var memberListLoader: GroupMemberListLoader? = null
+
+    final override val members: ContactList<NormalMemberImpl>
+        get() {
+            memberListLoader?.let { loader ->
+                if (!loader.isLoaded) loader.load()
+            }
+            return memberList
+        }
+
     val uin: Long = groupInfo.uin
     final override val settings: GroupSettingsImpl = GroupSettingsImpl(this.cast(), groupInfo)
     final override var name: String by settings::name
@@ -159,7 +259,7 @@ internal abstract class CommonGroupImpl constructor(
 
     init {
         // Cannot move to argument of `atomic`, compiler error.
-        val value = members.find { GroupHonorType.TALKATIVE in it.active.honors }
+        val value = memberList.find { GroupHonorType.TALKATIVE in it.active.honors }
         _lastTalkative.value = value
     }
 
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.contact
+
+import kotlinx.atomicfu.AtomicRef
+import kotlinx.atomicfu.atomic
+import kotlinx.atomicfu.locks.SynchronizedObject
+import kotlinx.atomicfu.locks.synchronized
+import kotlinx.coroutines.*
+import net.mamoe.mirai.data.MemberInfo
+import net.mamoe.mirai.utils.BotConfiguration
+import net.mamoe.mirai.utils.MiraiLogger
+import net.mamoe.mirai.utils.currentTimeMillis
+
+/**
+ * Loads members of a group on first demand, see [BotConfiguration.loadGroupMembersOnDemand].
+ *
+ * Concurrent [load] calls share one request. If the request fails, [load] does not start another one
+ * until [retryDelay] has passed.
+ *
+ * @param fetch fetches members from server or cache
+ * @param onLoaded called once with the result of the successful [fetch]
+ * @param retryDelay milliseconds to wait before retrying, by the number of consecutive failures
+ */
+internal class GroupMemberListLoader(
+    private val scope: CoroutineScope,
+    private val logger: MiraiLogger,
+    private val fetch: suspend () -> List<MemberInfo>,
+    private val onLoaded: (List<MemberInfo>) -> Unit,
+    private val retryDelay: (failures: Int) -> Long = ::defaultRetryDelay,
+) {
+    private val current: AtomicRef<Deferred<Boolean>?> = atomic(null)
+    private val _isLoaded = atomic(false)
+    private val failures = atomic(0)
+    private val retryAt = atomic(0L)
+
+    private val lock = SynchronizedObject()
+
+    /**
+     * Blocks deferred by [defer] and not run yet, in order. `null` if blocks are not being deferred.
+     */
+    private var deferred: MutableList<suspend () -> Unit>? = null
+
+    val isLoaded: Boolean get() = _isLoaded.value
+
+    /**
+     * Starts loading if it is not loaded, being loaded, or waiting to retry after a failure.
+     *
+     * @return the ongoing request, completing with `true` if members are loaded, `false` if the request failed.
+     * `null` if there is no request.
+     */
+    fun load(): Deferred<Boolean>? {
+        while (true) {
+            if (isLoaded) return null
+            current.value?.let { request ->
+                if (!request.isCompleted) return request
+                current.compareAndSet(request, null) // failed, not cleared by its completion handler yet
+            }
+            if (currentTimeMillis() < retryAt.value) return null
+
+            val request = scope.async(start = CoroutineStart.LAZY) {
+                try {
+                    onLoaded(fetch())
+                    _isLoaded.value = true
+                    true
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    val delay = retryDelay(failures.incrementAndGet())
+                    retryAt.value = currentTimeMillis() + delay
+                    logger.warning("Failed to load members, retrying in $delay ms.", e)
+                    false
+                }
+            }
+            if (current.compareAndSet(null, request)) {
+                request.invokeOnCompletion { current.compareAndSet(request, null) }
+                request.start()
+                return request
+            }
+            request.cancel() // lost the race, never started
+        }
+    }
+
+    /**
+     * Runs [block] after the current request completes, in order with other deferred blocks, so that processing
+     * an event does not wait for the member list.
+     *
+     * @return `false` if there is no request and no block waiting, in which case [block] is not run.
+     */
+    fun defer(block: suspend () -> Unit): Boolean {
+        synchronized(lock) {
+            deferred?.let { blocks ->
+                blocks.add(block)
+                return true
+            }
+            val request = load() ?: return false
+            deferred = mutableListOf(block)
+            scope.launch {
+                request.join()
+                runDeferred()
+            }
+            return true
+        }
+    }
+
+    private suspend fun runDeferred() {
+        while (true) {
+            val blocks = synchronized(lock) {
+                val blocks = deferred ?: return
+                if (blocks.isEmpty()) {
+                    deferred = null
+                    return
+                }
+                deferred = mutableListOf()
+                blocks
+            }
+            for (block in blocks) {
+                try {
+                    block()
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    logger.error("Exception while processing a deferred event.", e)
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val INITIAL_RETRY_DELAY = 1000L
+        private const val MAX_RETRY_DELAY = 5 * 60 * 1000L
+
+        /**
+         * Doubles from 1 second, up to 5 minutes.
+         */
+        fun defaultRetryDelay(failures: Int): Long =
+            (INITIAL_RETRY_DELAY shl (failures - 1).coerceIn(0, 20)).coerceAtMost(MAX_RETRY_DELAY)
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2020 Mamoe Technologies and contributors.
+ * Copyright 2020-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -10,15 +10,17 @@
 package net.mamoe.mirai.internal.contact.info
 
 import kotlinx.serialization.Serializable
+import kotlinx.serialization.protobuf.ProtoNumber
 import net.mamoe.mirai.data.FriendInfo
 
 // since 2.4, for serialization
+// also stored in contact list caches, ProtoNumbers must not be changed or reused
 @Serializable
 internal data class FriendInfoImpl(
-    override val uin: Long,
-    override var nick: String,
-    override var remark: String,
-    override var friendGroupId: Int = 0
+    @ProtoNumber(1) override val uin: Long,
+    @ProtoNumber(2) override var nick: String,
+    @ProtoNumber(3) override var remark: String,
+    @ProtoNumber(4) override var friendGroupId: Int = 0
 ) : FriendInfo {
     companion object {
         fun FriendInfo.impl() = if (this is FriendInfoImpl) this else FriendInfoImpl(uin, nick, remark, friendGroupId)
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.contact.info
+
+import kotlinx.atomicfu.atomic
+import kotlinx.serialization.KSerializer
+import kotlinx.serialization.builtins.SetSerializer
+import kotlinx.serialization.descriptors.SerialDescriptor
+import kotlinx.serialization.encoding.Decoder
+import kotlinx.serialization.encoding.Encoder
+import net.mamoe.mirai.data.GroupHonorType
+
+/**
+ * Thread-safe [MemberInfoImpl.honors].
+ *
+ * Most members have no honors. Instead of a concurrent hash set for every member, this holds an immutable set which
+ * is replaced on modification, so an empty [MemberHonors] is a single small object.
+ */
+internal class MemberHonors(
+    initial: Collection<GroupHonorType> = emptyList(),
+) : AbstractMutableSet<GroupHonorType>() {
+    private val value = atomic(if (initial.isEmpty()) emptySet() else initial.toSet())
+
+    override val size: Int get() = value.value.size
+
+    override fun contains(element: GroupHonorType): Boolean = element in value.value
+
+    override fun add(element: GroupHonorType): Boolean {
+        while (true) {
+            val current = value.value
+            if (element in current) return false
+            if (value.compareAndSet(current, current + element)) return true
+        }
+    }
+
+    override fun remove(element: GroupHonorType): Boolean {
+        while (true) {
+            val current = value.value
+            if (element !in current) return false
+            if (value.compareAndSet(current, current - element)) return true
+        }
+    }
+
+    override fun clear() {
+        value.value = emptySet()
+    }
+
+    /**
+     * Iterates over a snapshot.
+     */
+    override fun iterator(): MutableIterator<GroupHonorType> = object : MutableIterator<GroupHonorType> {
+        private val delegate = value.value.iterator()
+        private var last: GroupHonorType? = null
+
+        override fun hasNext(): Boolean = delegate.hasNext()
+
+        override fun next(): GroupHonorType = delegate.next().also { last = it }
+
+        override fun remove() {
+            val element = last ?: throw IllegalStateException("next() has not been called")
+            last = null
+            this@MemberHonors.remove(element)
+        }
+    }
+
+    /**
+     * Same format as the default serializer of `MutableSet<GroupHonorType>`, but deserializes into [MemberHonors].
+     */
+    object Serializer : KSerializer<MutableSet<GroupHonorType>> {
+        private val delegate = SetSerializer(GroupHonorType.serializer())
+
+        override val descriptor: SerialDescriptor get() = delegate.descriptor
+
+        override fun serialize(encoder: Encoder, value: MutableSet<GroupHonorType>) {
+            delegate.serialize(encoder, value)
+        }
+
+        override fun deserialize(decoder: Decoder): MutableSet<GroupHonorType> =
+            MemberHonors(delegate.deserialize(decoder))
+    }
+}
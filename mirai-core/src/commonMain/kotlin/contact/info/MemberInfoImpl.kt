@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2021 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  *  此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  *  Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -10,32 +10,38 @@
 package net.mamoe.mirai.internal.contact.info
 
 import kotlinx.serialization.Serializable
+import kotlinx.serialization.protobuf.ProtoNumber
 import net.mamoe.mirai.contact.MemberPermission
 import net.mamoe.mirai.data.GroupHonorType
 import net.mamoe.mirai.data.MemberInfo
 import net.mamoe.mirai.internal.network.QQAndroidClient
 import net.mamoe.mirai.internal.network.protocol.data.jce.StTroopMemberInfo
 import net.mamoe.mirai.internal.network.protocol.packet.login.wtlogin.orEmpty
-import net.mamoe.mirai.utils.ConcurrentSet
+import net.mamoe.mirai.internal.utils.StringPool
 import net.mamoe.mirai.utils.currentTimeSeconds
 
+/**
+ * Also stored in contact list caches, see [net.mamoe.mirai.internal.network.GroupMemberListCache].
+ * [ProtoNumber]s must not be changed or reused.
+ */
 @Serializable
 internal data class MemberInfoImpl(
-    override val uin: Long,
-    override var nick: String,
-    override var permission: MemberPermission,
-    override var remark: String = "",
-    override val nameCard: String = "",
-    override val specialTitle: String = "",
-    override val muteTimestamp: Int = 0,
-    override val anonymousId: String? = null,
-    override val joinTimestamp: Int = currentTimeSeconds().toInt(),
-    override var lastSpeakTimestamp: Int = 0,
-    override val isOfficialBot: Boolean = false,
-    override var rank: Int = 1,
-    override var point: Int = 0,
-    override val honors: MutableSet<GroupHonorType> = ConcurrentSet(),
-    override var temperature: Int = 1
+    @ProtoNumber(1) override val uin: Long,
+    @ProtoNumber(2) override var nick: String,
+    @ProtoNumber(3) override var permission: MemberPermission,
+    @ProtoNumber(4) override var remark: String = "",
+    @ProtoNumber(5) override var nameCard: String = "",
+    @ProtoNumber(6) override var specialTitle: String = "",
+    @ProtoNumber(7) override val muteTimestamp: Int = 0,
+    @ProtoNumber(8) override val anonymousId: String? = null,
+    @ProtoNumber(9) override val joinTimestamp: Int = currentTimeSeconds().toInt(),
+    @ProtoNumber(10) override var lastSpeakTimestamp: Int = 0,
+    @ProtoNumber(11) override val isOfficialBot: Boolean = false,
+    @ProtoNumber(12) override var rank: Int = 1,
+    @ProtoNumber(13) override var point: Int = 0,
+    @Serializable(MemberHonors.Serializer::class)
+    @ProtoNumber(14) override val honors: MutableSet<GroupHonorType> = MemberHonors(),
+    @ProtoNumber(15) override var temperature: Int = 1
 ) : MemberInfo {
     constructor(
         client: QQAndroidClient,
@@ -59,7 +65,7 @@ internal data class MemberInfoImpl(
         isOfficialBot = client.groupConfig.isOfficialRobot(jceInfo.memberUin),
         rank = jceInfo.dwMemberLevel?.toInt() ?: 1,
         point = jceInfo.dwPoint?.toInt() ?: 0,
-        honors = ConcurrentSet<GroupHonorType>().apply {
+        honors = MemberHonors().apply {
             /**
              * vecGroupHonor 的 结构是
              * [
@@ -95,4 +101,18 @@ internal data class MemberInfoImpl(
             null
         } ?: 0
     )
-}
\ No newline at end of file
+}
+
+/**
+ * Replaces strings with instances from [pool], so that equal strings of different members are shared.
+ *
+ * Together with [MemberHonors], 200000 members of 100000 users (every user in two groups, half with a name card)
+ * retain about 155 bytes per member, compared to 312 bytes with a `ConcurrentSet` for honors and unshared strings
+ * (JDK 17, 64-bit, compressed oops).
+ */
+internal fun MemberInfoImpl.deduplicateStrings(pool: StringPool) {
+    nick = pool[nick]
+    remark = pool[remark]
+    nameCard = pool[nameCard]
+    specialTitle = pool[specialTitle]
+}
@@ -95,6 +95,7 @@ internal sealed class EventChannelImpl<E : Event>(
         eventListeners.addListener(eventClass, listener)
     }
 
+    @Suppress("INVISIBLE_MEMBER", "INVISIBLE_REFERENCE")
     override fun <E : Event> createListener(
         coroutineContext: CoroutineContext,
         concurrencyKind: ConcurrencyKind,
@@ -102,12 +103,15 @@ internal sealed class EventChannelImpl<E : Event>(
         listenerBlock: suspend (E) -> ListeningStatus
     ): Listener<E> {
         val context = this.defaultCoroutineContext + coroutineContext
+        // Consumed here, so that it is not inherited by listeners created inside this listener.
+        val routingKey = context[EventSubjectRoutingKey]
         return SafeListener(
             parentJob = context[Job],
-            subscriberContext = context,
+            subscriberContext = if (routingKey == null) context else context.minusKey(EventSubjectRoutingKey),
             listenerBlock = listenerBlock,
             concurrencyKind = concurrencyKind,
-            priority = priority
+            priority = priority,
+            routingSubjectId = routingKey?.subjectId,
         )
     }
 
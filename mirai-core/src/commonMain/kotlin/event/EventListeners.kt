@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -7,8 +7,12 @@
  * https://github.com/mamoe/mirai/blob/dev/LICENSE
  */
 
+@file:Suppress("INVISIBLE_MEMBER", "INVISIBLE_REFERENCE")
+
 package net.mamoe.mirai.internal.event
 
+import kotlinx.atomicfu.locks.SynchronizedObject
+import kotlinx.atomicfu.locks.synchronized
 import kotlinx.coroutines.CoroutineStart
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.supervisorScope
@@ -16,14 +20,132 @@ import kotlinx.coroutines.sync.withLock
 import net.mamoe.mirai.event.*
 import net.mamoe.mirai.internal.network.components.EVENT_LAUNCH_UNDISPATCHED
 import net.mamoe.mirai.utils.*
+import kotlin.jvm.Volatile
 import kotlin.reflect.KClass
 
 
 internal class ListenerRegistry(
     val listener: Listener<Event>,
     val type: KClass<out Event>,
+    /**
+     * Set if the listener only accepts events of this subject, see [EventChannel.filterBySubject].
+     */
+    val subjectId: Long? = null,
+    /**
+     * Registration order, used to merge subject listeners with the others.
+     */
+    val order: Long = 0,
 )
 
+/**
+ * Listeners that can handle events of a concrete event class, by [EventPriority.ordinal], in registration order.
+ */
+private class DispatchEntry(
+    val listeners: Array<List<ListenerRegistry>>,
+    val subjectListeners: Map<Long, Array<List<ListenerRegistry>>>,
+) {
+    fun get(priority: EventPriority, subjectId: Long?): List<ListenerRegistry> {
+        val common = listeners[priority.ordinal]
+        if (subjectId == null) return common
+        val keyed = subjectListeners[subjectId]?.get(priority.ordinal)
+        if (keyed.isNullOrEmpty()) return common
+        if (common.isEmpty()) return keyed
+
+        // merge two sorted lists
+        val result = ArrayList<ListenerRegistry>(common.size + keyed.size)
+        var i = 0
+        var j = 0
+        while (i < common.size && j < keyed.size) {
+            result.add(if (common[i].order < keyed[j].order) common[i++] else keyed[j++])
+        }
+        while (i < common.size) result.add(common[i++])
+        while (j < keyed.size) result.add(keyed[j++])
+        return result
+    }
+
+    fun plus(registry: ListenerRegistry): DispatchEntry = update(registry) { list ->
+        val index = list.indexOfFirst { it.order > registry.order }.let { if (it == -1) list.size else it }
+        ArrayList<ListenerRegistry>(list.size + 1).apply {
+            addAll(list.subList(0, index))
+            add(registry)
+            addAll(list.subList(index, list.size))
+        }
+    }
+
+    fun minus(registry: ListenerRegistry): DispatchEntry = update(registry) { list -> list.filter { it !== registry } }
+
+    /**
+     * Copies only the list [registry] belongs to.
+     */
+    private inline fun update(
+        registry: ListenerRegistry,
+        transform: (List<ListenerRegistry>) -> List<ListenerRegistry>,
+    ): DispatchEntry {
+        val ordinal = registry.listener.priority.ordinal
+        val subjectId = registry.subjectId
+        if (subjectId == null) {
+            val listeners = listeners.copyOf()
+            listeners[ordinal] = transform(listeners[ordinal])
+            return DispatchEntry(listeners, subjectListeners)
+        }
+        val subjectListeners = HashMap(subjectListeners)
+        val keyed = subjectListeners[subjectId]?.copyOf() ?: Array<List<ListenerRegistry>>(listeners.size) { emptyList() }
+        keyed[ordinal] = transform(keyed[ordinal])
+        if (keyed.all { it.isEmpty() }) subjectListeners.remove(subjectId) else subjectListeners[subjectId] = keyed
+        return DispatchEntry(listeners, subjectListeners)
+    }
+}
+
+/**
+ * Dispatch index of a concrete event class. Modified while holding the lock of [EventListeners].
+ */
+private class IndexedEventClass(
+    @Volatile var entry: DispatchEntry,
+    /**
+     * Whether the event class is a subtype of listener types, by listener type. Only types seen so far are here.
+     */
+    val acceptedTypes: MutableMap<KClass<out Event>, Boolean>,
+) {
+    /**
+     * Listeners of types not in [acceptedTypes], checked against an instance on the next broadcast.
+     */
+    val pending: MutableList<ListenerRegistry> = ArrayList()
+
+    @Volatile
+    var hasPending: Boolean = false
+
+    fun add(registry: ListenerRegistry) {
+        when (acceptedTypes[registry.type]) {
+            true -> entry = entry.plus(registry)
+            false -> {}
+            null -> {
+                pending.add(registry)
+                hasPending = true
+            }
+        }
+    }
+
+    fun remove(registry: ListenerRegistry) {
+        when (acceptedTypes[registry.type]) {
+            true -> entry = entry.minus(registry)
+            false -> {}
+            null -> {
+                pending.remove(registry)
+                hasPending = pending.isNotEmpty()
+            }
+        }
+    }
+
+    fun resolvePending(event: Event) {
+        for (registry in pending) {
+            val accepted = acceptedTypes.getOrPut(registry.type) { registry.type.isInstance(event) }
+            if (accepted) entry = entry.plus(registry)
+        }
+        pending.clear()
+        hasPending = false
+    }
+}
+
 
 internal class EventListeners {
     companion object {
@@ -45,8 +167,11 @@ internal class EventListeners {
 
 
     fun clear() {
-        map.forEach { (_, u) ->
-            u.clear()
+        synchronized(lock) {
+            map.forEach { (_, u) ->
+                u.clear()
+            }
+            dispatchIndex.clear()
         }
     }
 
@@ -54,16 +179,69 @@ internal class EventListeners {
         map[priority] ?: error("Internal error: map[$priority] == null")
 
 
+    private val priorities: Array<EventPriority> = EventPriority.values()
+
     private val prioritiesExcludedMonitor: Array<EventPriority> = run {
         EventPriority.values().filter { it != EventPriority.MONITOR }.toTypedArray()
     }
 
+    /**
+     * An entry is built on the first broadcast of its event class, so a broadcast does not need to check every
+     * registered listener. When a listener is added or removed, only entries of event classes it accepts are updated.
+     * Whether a class is accepted by a listener type is remembered per entry, and checked against the next broadcast
+     * event if the type is new.
+     *
+     * Listeners registered with a subject are further indexed by subject ID, so they are only touched by events of that subject.
+     */
+    private val dispatchIndex: MutableMap<KClass<out Event>, IndexedEventClass> = ConcurrentHashMap()
+
+    /**
+     * Guards modifications of listener containers and [dispatchIndex]. Broadcasts only take it for new classes and types.
+     */
+    private val lock = SynchronizedObject()
+
+    private var registrationCounter = 0L
+
+    private fun resolveListeners(event: Event): DispatchEntry {
+        val indexed = dispatchIndex[event::class]
+        if (indexed != null && !indexed.hasPending) return indexed.entry
+
+        synchronized(lock) {
+            val current = dispatchIndex.getOrPut(event::class) { buildIndex(event) }
+            if (current.hasPending) current.resolvePending(event)
+            return current.entry
+        }
+    }
+
+    private fun buildIndex(event: Event): IndexedEventClass {
+        val acceptedTypes = HashMap<KClass<out Event>, Boolean>()
+        val listeners = Array(priorities.size) { ArrayList<ListenerRegistry>() }
+        val subjectListeners = HashMap<Long, Array<ArrayList<ListenerRegistry>>>()
+        for (priority in priorities) {
+            for (registry in get(priority)) {
+                if (!acceptedTypes.getOrPut(registry.type) { registry.type.isInstance(event) }) continue
+                val target = registry.subjectId?.let { id ->
+                    subjectListeners.getOrPut(id) { Array(priorities.size) { ArrayList() } }
+                } ?: listeners
+                target[priority.ordinal].add(registry)
+            }
+        }
+        val entry = DispatchEntry(
+            Array(listeners.size) { listeners[it] },
+            subjectListeners.mapValues { (_, keyed) -> Array<List<ListenerRegistry>>(keyed.size) { keyed[it] } },
+        )
+        return IndexedEventClass(entry, acceptedTypes)
+    }
+
     internal suspend fun <E : AbstractEvent> callListeners(event: E) {
+        val entry = resolveListeners(event)
+
+        val subjectId = if (entry.subjectListeners.isEmpty()) null else event.routingSubjectIdOrNull()
+
         for (p in prioritiesExcludedMonitor) {
             val container = get(p)
-            for (registry in container) {
+            for (registry in entry.get(p, subjectId)) {
                 if (event.isIntercepted) return
-                if (!registry.type.isInstance(event)) continue
                 val listener = registry.listener
                 process(container, registry, listener, event)
             }
@@ -71,16 +249,15 @@ internal class EventListeners {
 
         if (event.isIntercepted) return
         val container = get(EventPriority.MONITOR)
-        when (container.size) {
+        val monitors = entry.get(EventPriority.MONITOR, subjectId)
+        when (monitors.size) {
             0 -> return
             1 -> {
-                val registry = container.firstOrNull() ?: return
-                if (!registry.type.isInstance(event)) return
+                val registry = monitors.first()
                 process(container, registry, registry.listener, event)
             }
             else -> supervisorScope {
-                for (registry in get(EventPriority.MONITOR)) {
-                    if (!registry.type.isInstance(event)) continue
+                for (registry in monitors) {
                     launch(start = if (EVENT_LAUNCH_UNDISPATCHED) CoroutineStart.UNDISPATCHED else CoroutineStart.DEFAULT) {
                         process(container, registry, registry.listener, event)
                     }
@@ -93,11 +270,28 @@ internal class EventListeners {
         logger.info { "Add listener: $listener for $eventClass" }
         val listeners = get(listener.priority)
 
-        @Suppress("UNCHECKED_CAST")
-        val node = ListenerRegistry(listener as Listener<Event>, eventClass)
-        listeners.add(node)
+        val node = synchronized(lock) {
+            @Suppress("UNCHECKED_CAST")
+            val node = ListenerRegistry(
+                listener as Listener<Event>,
+                eventClass,
+                subjectId = (listener as? SafeListener<*>)?.routingSubjectId,
+                order = registrationCounter++,
+            )
+            listeners.add(node)
+            for (indexed in dispatchIndex.values) indexed.add(node)
+            node
+        }
         listener.invokeOnCompletion {
-            listeners.remove(node)
+            removeListener(listeners, node)
+        }
+    }
+
+    private fun removeListener(container: MutableCollection<ListenerRegistry>, registry: ListenerRegistry) {
+        synchronized(lock) {
+            if (container.remove(registry)) {
+                for (indexed in dispatchIndex.values) indexed.remove(registry)
+            }
         }
     }
 
@@ -112,13 +306,13 @@ internal class EventListeners {
             ConcurrencyKind.LOCKED -> {
                 (listener as SafeListener).lock!!.withLock {
                     if (listener.onEvent(event) == ListeningStatus.STOPPED) {
-                        container.remove(registry)
+                        removeListener(container, registry)
                     }
                 }
             }
             ConcurrencyKind.CONCURRENT -> {
                 if (listener.onEvent(event) == ListeningStatus.STOPPED) {
-                    container.remove(registry)
+                    removeListener(container, registry)
                 }
             }
         }
@@ -26,6 +26,10 @@ internal class SafeListener<in E : Event> internal constructor(
     private val listenerBlock: suspend (E) -> ListeningStatus,
     override val concurrencyKind: ConcurrencyKind,
     override val priority: EventPriority,
+    /**
+     * @see ListenerRegistry.subjectId
+     */
+    val routingSubjectId: Long? = null,
     private val creationStacktrace: Exception? = if (traceEnabled) Exception() else null
 ) : Listener<E>, CompletableJob by SupervisorJob(parentJob) { // avoid being cancelled on handling event
 
@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -38,12 +38,9 @@ import net.mamoe.mirai.internal.network.component.withFallback
 import net.mamoe.mirai.internal.network.protocol.data.proto.ImMsgBody
 import net.mamoe.mirai.internal.network.protocol.data.proto.MsgComm
 import net.mamoe.mirai.internal.pipeline.ProcessResult
-import net.mamoe.mirai.internal.utils.runCoroutineInPlace
 import net.mamoe.mirai.message.MessageReceipt
 import net.mamoe.mirai.message.MessageSerializers
 import net.mamoe.mirai.message.data.*
-import net.mamoe.mirai.message.data.visitor.RecursiveMessageVisitor
-import net.mamoe.mirai.message.data.visitor.accept
 import net.mamoe.mirai.utils.*
 import kotlin.reflect.KClass
 
@@ -264,8 +261,6 @@ internal class MessageProtocolFacadeImpl(
         withGeneralFlags: Boolean,
         isForward: Boolean
     ): List<ImMsgBody.Elem> {
-        val pipeline = encoderPipeline
-
         val attributes = buildTypeSafeMap {
             set(MessageEncoderContext.CONTACT, messageTarget)
             set(MessageEncoderContext.ORIGINAL_MESSAGE, chain)
@@ -274,15 +269,7 @@ internal class MessageProtocolFacadeImpl(
         }
 
         val builder = ArrayList<ImMsgBody.Elem>(chain.size)
-
-        chain.accept(object : RecursiveMessageVisitor<Unit>() {
-            override fun visitSingleMessage(message: SingleMessage, data: Unit) {
-                runCoroutineInPlace {
-                    builder.addAll(pipeline.process(message, attributes).collected)
-                }
-            }
-        })
-
+        encoderPipeline.encode(chain, attributes, builder)
         return builder
     }
 
@@ -294,8 +281,6 @@ internal class MessageProtocolFacadeImpl(
         builder: MessageChainBuilder,
         containingMsg: MsgComm.Msg?
     ) {
-        val pipeline = decoderPipeline
-
         val attributes = buildTypeSafeMap {
             set(MessageDecoderContext.BOT, bot)
             set(MessageDecoderContext.MESSAGE_SOURCE_KIND, messageSourceKind)
@@ -303,9 +288,7 @@ internal class MessageProtocolFacadeImpl(
             set(MessageDecoderContext.CONTAINING_MSG, containingMsg)
         }
 
-        runCoroutineInPlace {
-            elements.forEach { builder.addAll(pipeline.process(it, attributes).collected) }
-        }
+        decoderPipeline.decode(elements, attributes, builder)
     }
 
     private val thisComponentStorage by lazy {
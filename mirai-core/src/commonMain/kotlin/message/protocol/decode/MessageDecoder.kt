@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -12,21 +12,84 @@ package net.mamoe.mirai.internal.message.protocol.decode
 import net.mamoe.mirai.internal.network.protocol.data.proto.ImMsgBody
 import net.mamoe.mirai.internal.pipeline.PipelineConsumptionMarker
 import net.mamoe.mirai.internal.pipeline.Processor
+import net.mamoe.mirai.internal.utils.runCoroutineInPlace
 
 
 internal interface MessageDecoder : PipelineConsumptionMarker {
+    /**
+     * Fields of [ImMsgBody.Elem] this decoder reads.
+     * [MessageDecoderPipeline] calls this decoder only for elements having at least one of them set.
+     *
+     * `null` means this decoder is called for every element.
+     */
+    val elemFields: Set<ElemField>? get() = null
+
     suspend fun MessageDecoderContext.process(data: ImMsgBody.Elem)
 }
 
+/**
+ * A [MessageDecoder] that does not call [MessageDecoderContext.processAlso].
+ * [MessageDecoderPipeline] calls [decode] directly, without starting a coroutine.
+ */
+internal interface PureMessageDecoder : MessageDecoder {
+    fun MessageDecoderContext.decode(data: ImMsgBody.Elem)
+
+    override suspend fun MessageDecoderContext.process(data: ImMsgBody.Elem) {
+        decode(data)
+    }
+}
+
+/**
+ * Fields of [ImMsgBody.Elem] that [MessageDecoder]s can be dispatched by.
+ */
+internal enum class ElemField(
+    private val getter: (ImMsgBody.Elem) -> Any?,
+) {
+    TEXT({ it.text }),
+    FACE({ it.face }),
+    NOT_ONLINE_IMAGE({ it.notOnlineImage }),
+    TRANS_ELEM_INFO({ it.transElemInfo }),
+    MARKET_FACE({ it.marketFace }),
+    CUSTOM_FACE({ it.customFace }),
+    ELEM_FLAGS2({ it.elemFlags2 }),
+    RICH_MSG({ it.richMsg }),
+    EXTRA_INFO({ it.extraInfo }),
+    VIDEO_FILE({ it.videoFile }),
+    ANON_GROUP_MSG({ it.anonGroupMsg }),
+    CUSTOM_ELEM({ it.customElem }),
+    GENERAL_FLAGS({ it.generalFlags }),
+    SRC_MSG({ it.srcMsg }),
+    LIGHT_APP({ it.lightApp }),
+    COMMON_ELEM({ it.commonElem }),
+    ;
+
+    fun isSet(elem: ImMsgBody.Elem): Boolean = getter(elem) != null
+}
+
 /**
  * Adapter for [MessageDecoder] to be used as [Processor].
  */
 internal class MessageDecoderProcessor(
-    private val decoder: MessageDecoder,
+    val decoder: MessageDecoder,
 ) : Processor<MessageDecoderContext, ImMsgBody.Elem> {
     override val origin: Any get() = this
 
+    fun accepts(data: ImMsgBody.Elem): Boolean = decoder.elemFields?.any { it.isSet(data) } ?: true
+
+    /**
+     * Processes [data] in current thread, assuming [accepts] is `true`.
+     * [PureMessageDecoder]s are called without starting a coroutine.
+     */
+    fun processInPlace(context: MessageDecoderContext, data: ImMsgBody.Elem) {
+        if (decoder is PureMessageDecoder) {
+            decoder.run { context.decode(data) }
+        } else {
+            runCoroutineInPlace { process(context, data) }
+        }
+    }
+
     override suspend fun process(context: MessageDecoderContext, data: ImMsgBody.Elem) {
+        if (!accepts(data)) return
         @Suppress("ILLEGAL_RESTRICTED_SUSPENDING_FUNCTION_CALL")
         decoder.run { context.process(data) }
         // TODO: 2022/4/27 handle exceptions
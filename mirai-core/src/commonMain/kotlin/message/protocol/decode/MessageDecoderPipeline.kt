@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -9,18 +9,30 @@
 
 package net.mamoe.mirai.internal.message.protocol.decode
 
+import kotlinx.atomicfu.atomic
 import net.mamoe.mirai.Bot
 import net.mamoe.mirai.internal.message.protocol.decode.MessageDecoderContext.Companion.CONTAINING_MSG
 import net.mamoe.mirai.internal.network.protocol.data.proto.ImMsgBody
 import net.mamoe.mirai.internal.network.protocol.data.proto.MsgComm
 import net.mamoe.mirai.internal.pipeline.*
+import net.mamoe.mirai.internal.utils.runCoroutineInPlace
 import net.mamoe.mirai.message.data.Message
+import net.mamoe.mirai.message.data.MessageChainBuilder
 import net.mamoe.mirai.message.data.MessageSourceKind
 import net.mamoe.mirai.utils.*
 import kotlin.coroutines.RestrictsSuspension
 
 internal interface MessageDecoderPipeline :
-    ProcessorPipeline<MessageDecoderProcessor, MessageDecoderContext, ImMsgBody.Elem, Message>
+    ProcessorPipeline<MessageDecoderProcessor, MessageDecoderContext, ImMsgBody.Elem, Message> {
+
+    /**
+     * Decodes [elements] in current thread, and adds the results to [output] in order.
+     *
+     * Each element is only passed to the decoders accepting it (see [MessageDecoder.elemFields]).
+     * If trace logging is enabled, every element goes through [process] instead so that each decoder is logged.
+     */
+    fun decode(elements: List<ImMsgBody.Elem>, attributes: TypeSafeMap, output: MessageChainBuilder)
+}
 
 @RestrictsSuspension // Implementor can only call `MessageDecoderContext.process` and `processAlso` so there will be no suspension point
 internal interface MessageDecoderContext : ProcessorPipelineContext<ImMsgBody.Elem, Message> {
@@ -57,7 +69,121 @@ internal open class MessageDecoderPipelineImpl :
         return super.process(data, context, attributes)
     }
 
+    override fun decode(elements: List<ImMsgBody.Elem>, attributes: TypeSafeMap, output: MessageChainBuilder) {
+        if (traceLogging.isEnabled) {
+            runCoroutineInPlace {
+                elements.forEach { output.addAll(process(it, attributes).collected) }
+            }
+            return
+        }
+
+        val table = currentDispatchTable()
+        val context = ReusableContextImpl(attributes)
+        for (element in elements) {
+            for (processor in table.candidates(element)) {
+                try {
+                    processor.processInPlace(context, element)
+                } catch (e: Throwable) {
+                    handleExceptionInProcess(element, context, attributes, processor, e)
+                }
+                if (context.isConsumed && configuration.stopWhenConsumed) break
+            }
+            output.addAll(context.collected.data)
+            context.reset()
+        }
+    }
+
+    private val dispatchTable = atomic<DispatchTable?>(null)
+
+    private fun currentDispatchTable(): DispatchTable {
+        val table = dispatchTable.value
+        if (table != null && table.isUpToDate(processors)) return table
+        return DispatchTable(processors.toList()).also { dispatchTable.value = it }
+    }
+
+    /**
+     * Processors grouped by the [ElemField] they accept, in the order of [processors].
+     * Rebuilt once [processors] are registered, removed or replaced.
+     */
+    private class DispatchTable(
+        private val boxes: List<ProcessorBox<MessageDecoderProcessor>>,
+    ) {
+        private val processors = boxes.map { it.value }
+        private val wildcards = processors.filter { it.decoder.elemFields == null }
+        private val byField = ELEM_FIELDS.map { field ->
+            processors.filter { it.decoder.elemFields?.contains(field) ?: true }
+        }
+
+        fun isUpToDate(current: Iterable<ProcessorBox<MessageDecoderProcessor>>): Boolean {
+            var index = 0
+            for (box in current) {
+                if (index == boxes.size) return false
+                if (boxes[index] !== box || processors[index] !== box.value) return false
+                index++
+            }
+            return index == boxes.size
+        }
+
+        fun candidates(element: ImMsgBody.Elem): List<MessageDecoderProcessor> {
+            var found: ElemField? = null
+            for (field in ELEM_FIELDS) {
+                if (!field.isSet(element)) continue
+                if (found != null) {
+                    // Several fields set, not seen from server in practice
+                    return processors.filter { it.accepts(element) }
+                }
+                found = field
+            }
+            return if (found == null) wildcards else byField[found.ordinal]
+        }
+    }
+
+    /**
+     * Context reused for all elements in [decode], as decoders there never keep the context.
+     */
+    private inner class ReusableContextImpl(
+        override val attributes: TypeSafeMap,
+    ) : MessageDecoderContext {
+        private val consumers: ArrayDeque<Any> = ArrayDeque()
+
+        override val collected: MutablePipelineResult<Message> = MutablePipelineResult(ArrayList())
+
+        override val isConsumed: Boolean get() = consumers.isNotEmpty()
+
+        override fun PipelineConsumptionMarker.markAsConsumed(marker: Any) {
+            consumers.addFirst(marker)
+        }
+
+        override fun PipelineConsumptionMarker.markNotConsumed(marker: Any) {
+            if (consumers.firstOrNull() === marker) consumers.removeFirst()
+        }
+
+        override fun collect(result: Message) {
+            collected.data.add(result)
+        }
+
+        override fun collect(results: Iterable<Message>) {
+            collected.data.addAll(results)
+        }
+
+        override suspend fun processAlso(
+            data: ImMsgBody.Elem,
+            extraAttributes: TypeSafeMap
+        ): ProcessResult<out ProcessorPipelineContext<ImMsgBody.Elem, Message>, Message> {
+            return process(data, this.attributes + extraAttributes).also {
+                this.collected.data += it.collected
+            }
+        }
+
+        fun reset() {
+            consumers.clear()
+            collected.data.clear()
+        }
+    }
+
     companion object {
+        private val ELEM_FIELDS = ElemField.values()
+
         @TestOnly
         val defaultTraceLogging: MiraiLoggerWithSwitch by lazy {
             MiraiLogger.Factory.create(MessageDecoderPipelineImpl::class, "MessageDecoderPipeline")
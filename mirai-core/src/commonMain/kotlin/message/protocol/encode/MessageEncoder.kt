@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -11,6 +11,7 @@ package net.mamoe.mirai.internal.message.protocol.encode
 
 import net.mamoe.mirai.internal.pipeline.PipelineConsumptionMarker
 import net.mamoe.mirai.internal.pipeline.Processor
+import net.mamoe.mirai.internal.utils.runCoroutineInPlace
 import net.mamoe.mirai.message.data.SingleMessage
 import net.mamoe.mirai.utils.uncheckedCast
 import kotlin.reflect.KClass
@@ -19,6 +20,18 @@ internal fun interface MessageEncoder<T : SingleMessage> : PipelineConsumptionMa
     suspend fun MessageEncoderContext.process(data: T)
 }
 
+/**
+ * A [MessageEncoder] that does not call [MessageEncoderContext.processAlso].
+ * [MessageEncoderPipeline] calls [encode] directly, without starting a coroutine.
+ */
+internal interface PureMessageEncoder<T : SingleMessage> : MessageEncoder<T> {
+    fun MessageEncoderContext.encode(data: T)
+
+    override suspend fun MessageEncoderContext.process(data: T) {
+        encode(data)
+    }
+}
+
 
 /**
  * Adapter for [MessageEncoder] to be used as [Processor].
@@ -29,8 +42,22 @@ internal class MessageEncoderProcessor<T : SingleMessage>(
 ) : Processor<MessageEncoderContext, SingleMessage> {
     override val origin: Any get() = this
 
+    fun accepts(data: SingleMessage): Boolean = elementType.isInstance(data)
+
+    /**
+     * Processes [data] in current thread, assuming [accepts] is `true`.
+     * [PureMessageEncoder]s are called without starting a coroutine.
+     */
+    fun processInPlace(context: MessageEncoderContext, data: SingleMessage) {
+        if (encoder is PureMessageEncoder<T>) {
+            encoder.run { context.encode(data.uncheckedCast()) }
+        } else {
+            runCoroutineInPlace { process(context, data) }
+        }
+    }
+
     override suspend fun process(context: MessageEncoderContext, data: SingleMessage) {
-        if (elementType.isInstance(data)) {
+        if (accepts(data)) {
             @Suppress("ILLEGAL_RESTRICTED_SUSPENDING_FUNCTION_CALL")
             encoder.run { context.process(data.uncheckedCast()) }
             // TODO: 2022/4/27 handle exceptions
@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -9,16 +9,29 @@
 
 package net.mamoe.mirai.internal.message.protocol.encode
 
+import kotlinx.atomicfu.atomic
 import net.mamoe.mirai.contact.ContactOrBot
 import net.mamoe.mirai.internal.network.protocol.data.proto.ImMsgBody
 import net.mamoe.mirai.internal.pipeline.*
+import net.mamoe.mirai.internal.utils.runCoroutineInPlace
 import net.mamoe.mirai.message.data.MessageChain
 import net.mamoe.mirai.message.data.SingleMessage
+import net.mamoe.mirai.message.data.visitor.RecursiveMessageVisitor
+import net.mamoe.mirai.message.data.visitor.accept
 import net.mamoe.mirai.utils.*
 import kotlin.coroutines.RestrictsSuspension
+import kotlin.reflect.KClass
 
 internal interface MessageEncoderPipeline :
     ProcessorPipeline<MessageEncoderProcessor<*>, MessageEncoderContext, SingleMessage, ImMsgBody.Elem> {
+
+    /**
+     * Encodes every [SingleMessage] in [chain], visited recursively, in current thread, and adds the results to [output] in order.
+     *
+     * Each message is only passed to the encoders accepting its class.
+     * If trace logging is enabled, every message goes through [process] instead so that each encoder is logged.
+     */
+    fun encode(chain: MessageChain, attributes: TypeSafeMap, output: MutableCollection<ImMsgBody.Elem>)
 }
 
 /**
@@ -71,17 +84,133 @@ internal open class MessageEncoderPipelineImpl :
 
     private inner class MessageEncoderContextImpl(attributes: TypeSafeMap) : MessageEncoderContext,
         BaseContextImpl(attributes) {
-        override var generalFlags: ImMsgBody.Elem by lateinitMutableProperty {
-            ImMsgBody.Elem(generalFlags = ImMsgBody.GeneralFlags(pbReserve = PB_RESERVE_FOR_ELSE))
-        }
+        override var generalFlags: ImMsgBody.Elem by lateinitMutableProperty { defaultGeneralFlags() }
     }
 
     override fun createContext(data: SingleMessage, attributes: TypeSafeMap): MessageEncoderContext =
         MessageEncoderContextImpl(attributes)
 
+    override fun encode(chain: MessageChain, attributes: TypeSafeMap, output: MutableCollection<ImMsgBody.Elem>) {
+        if (traceLogging.isEnabled) {
+            chain.accept(object : RecursiveMessageVisitor<Unit>() {
+                override fun visitSingleMessage(message: SingleMessage, data: Unit) {
+                    runCoroutineInPlace {
+                        output.addAll(process(message, attributes).collected)
+                    }
+                }
+            })
+            return
+        }
+
+        val table = currentDispatchTable()
+        val context = ReusableContextImpl(attributes)
+        chain.accept(object : RecursiveMessageVisitor<Unit>() {
+            override fun visitSingleMessage(message: SingleMessage, data: Unit) {
+                for (processor in table.candidates(message)) {
+                    try {
+                        processor.processInPlace(context, message)
+                    } catch (e: Throwable) {
+                        handleExceptionInProcess(message, context, attributes, processor, e)
+                    }
+                    if (context.isConsumed && configuration.stopWhenConsumed) break
+                }
+                output.addAll(context.collected.data)
+                context.reset()
+            }
+        })
+    }
+
+    private val dispatchTable = atomic<DispatchTable?>(null)
+
+    private fun currentDispatchTable(): DispatchTable {
+        val table = dispatchTable.value
+        if (table != null && table.isUpToDate(processors)) return table
+        return DispatchTable(processors.toList()).also { dispatchTable.value = it }
+    }
+
+    /**
+     * Processors accepting each class of [SingleMessage], in the order of [processors].
+     * An entry is built on the first message of its class. The table is rebuilt once [processors] are registered, removed or replaced.
+     */
+    private class DispatchTable(
+        private val boxes: List<ProcessorBox<MessageEncoderProcessor<*>>>,
+    ) {
+        private val processors = boxes.map { it.value }
+        private val byClass: MutableMap<KClass<out SingleMessage>, List<MessageEncoderProcessor<*>>> =
+            ConcurrentHashMap()
+
+        fun isUpToDate(current: Iterable<ProcessorBox<MessageEncoderProcessor<*>>>): Boolean {
+            var index = 0
+            for (box in current) {
+                if (index == boxes.size) return false
+                if (boxes[index] !== box || processors[index] !== box.value) return false
+                index++
+            }
+            return index == boxes.size
+        }
+
+        fun candidates(message: SingleMessage): List<MessageEncoderProcessor<*>> {
+            return byClass.getOrPut(message::class) { processors.filter { it.accepts(message) } }
+        }
+    }
+
+    /**
+     * Context reused for all messages in [encode], as encoders there never keep the context.
+     */
+    private inner class ReusableContextImpl(
+        override val attributes: TypeSafeMap,
+    ) : MessageEncoderContext {
+        private val consumers: ArrayDeque<Any> = ArrayDeque()
+        private var _generalFlags: ImMsgBody.Elem? = null
+
+        override var generalFlags: ImMsgBody.Elem
+            get() = _generalFlags ?: defaultGeneralFlags().also { _generalFlags = it }
+            set(value) {
+                _generalFlags = value
+            }
+
+        override val collected: MutablePipelineResult<ImMsgBody.Elem> = MutablePipelineResult(ArrayList())
+
+        override val isConsumed: Boolean get() = consumers.isNotEmpty()
+
+        override fun PipelineConsumptionMarker.markAsConsumed(marker: Any) {
+            consumers.addFirst(marker)
+        }
+
+        override fun PipelineConsumptionMarker.markNotConsumed(marker: Any) {
+            if (consumers.firstOrNull() === marker) consumers.removeFirst()
+        }
+
+        override fun collect(result: ImMsgBody.Elem) {
+            collected.data.add(result)
+        }
+
+        override fun collect(results: Iterable<ImMsgBody.Elem>) {
+            collected.data.addAll(results)
+        }
+
+        override suspend fun processAlso(
+            data: SingleMessage,
+            extraAttributes: TypeSafeMap
+        ): ProcessResult<out ProcessorPipelineContext<SingleMessage, ImMsgBody.Elem>, ImMsgBody.Elem> {
+            return process(data, this.attributes + extraAttributes).also {
+                this.collected.data += it.collected
+            }
+        }
+
+        fun reset() {
+            consumers.clear()
+            _generalFlags = null
+            collected.data.clear()
+        }
+    }
+
     companion object {
         private val PB_RESERVE_FOR_ELSE = "78 00 F8 01 00 C8 02 00".hexToBytes()
 
+        private fun defaultGeneralFlags() =
+            ImMsgBody.Elem(generalFlags = ImMsgBody.GeneralFlags(pbReserve = PB_RESERVE_FOR_ELSE))
+
         @TestOnly
         val defaultTraceLogging: MiraiLoggerWithSwitch by lazy {
             MiraiLogger.Factory.create(MessageEncoderPipelineImpl::class, "MessageEncoderPipeline")
@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -11,8 +11,9 @@ package net.mamoe.mirai.internal.message.protocol.impl
 
 import net.mamoe.mirai.internal.message.protocol.MessageProtocol
 import net.mamoe.mirai.internal.message.protocol.ProcessorCollector
-import net.mamoe.mirai.internal.message.protocol.decode.MessageDecoder
+import net.mamoe.mirai.internal.message.protocol.decode.ElemField
 import net.mamoe.mirai.internal.message.protocol.decode.MessageDecoderContext
+import net.mamoe.mirai.internal.message.protocol.decode.PureMessageDecoder
 import net.mamoe.mirai.internal.message.protocol.encode.MessageEncoder
 import net.mamoe.mirai.internal.message.protocol.encode.MessageEncoderContext
 import net.mamoe.mirai.internal.network.protocol.data.proto.ImMsgBody
@@ -50,8 +51,10 @@ internal class CustomMessageProtocol : MessageProtocol() {
 
     }
 
-    private class Decoder : MessageDecoder {
-        override suspend fun MessageDecoderContext.process(data: ImMsgBody.Elem) {
+    private class Decoder : PureMessageDecoder {
+        override val elemFields: Set<ElemField> = setOf(ElemField.CUSTOM_ELEM)
+
+        override fun MessageDecoderContext.decode(data: ImMsgBody.Elem) {
             if (data.customElem == null) return
             markAsConsumed()
             kotlin.runCatching {
@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -12,10 +12,11 @@ package net.mamoe.mirai.internal.message.protocol.impl
 import io.ktor.utils.io.core.*
 import net.mamoe.mirai.internal.message.protocol.MessageProtocol
 import net.mamoe.mirai.internal.message.protocol.ProcessorCollector
-import net.mamoe.mirai.internal.message.protocol.decode.MessageDecoder
+import net.mamoe.mirai.internal.message.protocol.decode.ElemField
 import net.mamoe.mirai.internal.message.protocol.decode.MessageDecoderContext
-import net.mamoe.mirai.internal.message.protocol.encode.MessageEncoder
+import net.mamoe.mirai.internal.message.protocol.decode.PureMessageDecoder
 import net.mamoe.mirai.internal.message.protocol.encode.MessageEncoderContext
+import net.mamoe.mirai.internal.message.protocol.encode.PureMessageEncoder
 import net.mamoe.mirai.internal.message.protocol.serialization.MessageSerializer
 import net.mamoe.mirai.internal.network.protocol.data.proto.HummerCommelem
 import net.mamoe.mirai.internal.network.protocol.data.proto.ImMsgBody
@@ -43,8 +44,8 @@ internal class FaceProtocol : MessageProtocol() {
         }
     }
 
-    private class Encoder : MessageEncoder<Face> {
-        override suspend fun MessageEncoderContext.process(data: Face) {
+    private class Encoder : PureMessageEncoder<Face> {
+        override fun MessageEncoderContext.encode(data: Face) {
             markAsConsumed()
             collect(
                 if (data.id >= 260) {
@@ -81,8 +82,10 @@ internal class FaceProtocol : MessageProtocol() {
         }
     }
 
-    private class Type1Decoder : MessageDecoder {
-        override suspend fun MessageDecoderContext.process(data: ImMsgBody.Elem) {
+    private class Type1Decoder : PureMessageDecoder {
+        override val elemFields: Set<ElemField> = setOf(ElemField.COMMON_ELEM)
+
+        override fun MessageDecoderContext.decode(data: ImMsgBody.Elem) {
             val commonElem = data.commonElem ?: return
             if (commonElem.serviceType != 33) return
             markAsConsumed()
@@ -94,8 +97,10 @@ internal class FaceProtocol : MessageProtocol() {
 
     }
 
-    private class Type2Decoder : MessageDecoder {
-        override suspend fun MessageDecoderContext.process(data: ImMsgBody.Elem) {
+    private class Type2Decoder : PureMessageDecoder {
+        override val elemFields: Set<ElemField> = setOf(ElemField.FACE)
+
+        override fun MessageDecoderContext.decode(data: ImMsgBody.Elem) {
             val face = data.face ?: return
             markAsConsumed()
             collect(Face(face.index))
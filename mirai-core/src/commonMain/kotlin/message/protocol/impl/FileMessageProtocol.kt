@@ -18,8 +18,9 @@ import net.mamoe.mirai.internal.message.data.checkIsImpl
 import net.mamoe.mirai.internal.message.flags.AllowSendFileMessage
 import net.mamoe.mirai.internal.message.protocol.MessageProtocol
 import net.mamoe.mirai.internal.message.protocol.ProcessorCollector
-import net.mamoe.mirai.internal.message.protocol.decode.MessageDecoder
+import net.mamoe.mirai.internal.message.protocol.decode.ElemField
 import net.mamoe.mirai.internal.message.protocol.decode.MessageDecoderContext
+import net.mamoe.mirai.internal.message.protocol.decode.PureMessageDecoder
 import net.mamoe.mirai.internal.message.protocol.outgoing.MessageProtocolStrategy
 import net.mamoe.mirai.internal.message.protocol.outgoing.OutgoingMessagePipelineContext
 import net.mamoe.mirai.internal.message.protocol.outgoing.OutgoingMessagePipelineContext.Companion.CONTACT
@@ -131,8 +132,10 @@ internal class FileMessageProtocol : MessageProtocol() {
         }
     }
 
-    private class Decoder : MessageDecoder {
-        override suspend fun MessageDecoderContext.process(data: ImMsgBody.Elem) {
+    private class Decoder : PureMessageDecoder {
+        override val elemFields: Set<ElemField> = setOf(ElemField.TRANS_ELEM_INFO)
+
+        override fun MessageDecoderContext.decode(data: ImMsgBody.Elem) {
             if (data.transElemInfo == null) return
             if (data.transElemInfo.elemType != 24) return
 
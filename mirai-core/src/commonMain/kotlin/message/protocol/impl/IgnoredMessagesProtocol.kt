@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -12,10 +12,11 @@ package net.mamoe.mirai.internal.message.protocol.impl
 import net.mamoe.mirai.internal.message.flags.InternalFlagOnlyMessage
 import net.mamoe.mirai.internal.message.protocol.MessageProtocol
 import net.mamoe.mirai.internal.message.protocol.ProcessorCollector
-import net.mamoe.mirai.internal.message.protocol.decode.MessageDecoder
+import net.mamoe.mirai.internal.message.protocol.decode.ElemField
 import net.mamoe.mirai.internal.message.protocol.decode.MessageDecoderContext
-import net.mamoe.mirai.internal.message.protocol.encode.MessageEncoder
+import net.mamoe.mirai.internal.message.protocol.decode.PureMessageDecoder
 import net.mamoe.mirai.internal.message.protocol.encode.MessageEncoderContext
+import net.mamoe.mirai.internal.message.protocol.encode.PureMessageEncoder
 import net.mamoe.mirai.internal.network.protocol.data.proto.ImMsgBody
 import net.mamoe.mirai.message.data.ForwardMessage
 import net.mamoe.mirai.message.data.MessageSource
@@ -30,8 +31,15 @@ internal class IgnoredMessagesProtocol : MessageProtocol(PRIORITY_IGNORE) {
         // 所有未处理的 Elem 都会变成 UnsupportedMessage 所有不用在这里处理
     }
 
-    private class Decoder : MessageDecoder {
-        override suspend fun MessageDecoderContext.process(data: ImMsgBody.Elem) {
+    private class Decoder : PureMessageDecoder {
+        override val elemFields: Set<ElemField> = setOf(
+            ElemField.ELEM_FLAGS2,
+            ElemField.EXTRA_INFO,
+            ElemField.GENERAL_FLAGS,
+            ElemField.ANON_GROUP_MSG,
+        )
+
+        override fun MessageDecoderContext.decode(data: ImMsgBody.Elem) {
             when {
                 data.elemFlags2 != null
                         || data.extraInfo != null
@@ -42,8 +50,8 @@ internal class IgnoredMessagesProtocol : MessageProtocol(PRIORITY_IGNORE) {
         }
     }
 
-    private class Encoder : MessageEncoder<SingleMessage> {
-        override suspend fun MessageEncoderContext.process(data: SingleMessage) {
+    private class Encoder : PureMessageEncoder<SingleMessage> {
+        override fun MessageEncoderContext.encode(data: SingleMessage) {
             when (data) {
                 is ForwardMessage,
                 is MessageSource, // mirai metadata only
@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -15,8 +15,9 @@ import net.mamoe.mirai.internal.message.data.transform
 import net.mamoe.mirai.internal.message.image.*
 import net.mamoe.mirai.internal.message.protocol.MessageProtocol
 import net.mamoe.mirai.internal.message.protocol.ProcessorCollector
-import net.mamoe.mirai.internal.message.protocol.decode.MessageDecoder
+import net.mamoe.mirai.internal.message.protocol.decode.ElemField
 import net.mamoe.mirai.internal.message.protocol.decode.MessageDecoderContext
+import net.mamoe.mirai.internal.message.protocol.decode.PureMessageDecoder
 import net.mamoe.mirai.internal.message.protocol.encode.MessageEncoder
 import net.mamoe.mirai.internal.message.protocol.encode.MessageEncoderContext
 import net.mamoe.mirai.internal.message.protocol.encode.MessageEncoderContext.Companion.contact
@@ -74,8 +75,14 @@ internal class ImageProtocol : MessageProtocol() {
         }
     }
 
-    private class ImageDecoder : MessageDecoder {
-        override suspend fun MessageDecoderContext.process(data: ImMsgBody.Elem) {
+    private class ImageDecoder : PureMessageDecoder {
+        override val elemFields: Set<ElemField> = setOf(
+            ElemField.NOT_ONLINE_IMAGE,
+            ElemField.CUSTOM_FACE,
+            ElemField.COMMON_ELEM,
+        )
+
+        override fun MessageDecoderContext.decode(data: ImMsgBody.Elem) {
             markAsConsumed()
             when {
                 data.notOnlineImage != null -> {
@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -15,8 +15,9 @@ import net.mamoe.mirai.internal.message.data.LightAppInternal
 import net.mamoe.mirai.internal.message.data.LongMessageInternal
 import net.mamoe.mirai.internal.message.protocol.MessageProtocol
 import net.mamoe.mirai.internal.message.protocol.ProcessorCollector
-import net.mamoe.mirai.internal.message.protocol.decode.MessageDecoder
+import net.mamoe.mirai.internal.message.protocol.decode.ElemField
 import net.mamoe.mirai.internal.message.protocol.decode.MessageDecoderContext
+import net.mamoe.mirai.internal.message.protocol.decode.PureMessageDecoder
 import net.mamoe.mirai.internal.message.protocol.encode.MessageEncoder
 import net.mamoe.mirai.internal.message.protocol.encode.MessageEncoderContext
 import net.mamoe.mirai.internal.message.protocol.encode.MessageEncoderContext.Companion.collectGeneralFlags
@@ -131,8 +132,10 @@ internal class RichMessageProtocol : MessageProtocol() {
         }
     }
 
-    private class LightAppDecoder : MessageDecoder {
-        override suspend fun MessageDecoderContext.process(data: ImMsgBody.Elem) {
+    private class LightAppDecoder : PureMessageDecoder {
+        override val elemFields: Set<ElemField> = setOf(ElemField.LIGHT_APP)
+
+        override fun MessageDecoderContext.decode(data: ImMsgBody.Elem) {
             val lightApp = data.lightApp ?: return
             markAsConsumed()
 
@@ -150,8 +153,10 @@ internal class RichMessageProtocol : MessageProtocol() {
 
     }
 
-    private class RichMsgDecoder : MessageDecoder {
-        override suspend fun MessageDecoderContext.process(data: ImMsgBody.Elem) {
+    private class RichMsgDecoder : PureMessageDecoder {
+        override val elemFields: Set<ElemField> = setOf(ElemField.RICH_MSG)
+
+        override fun MessageDecoderContext.decode(data: ImMsgBody.Elem) {
             if (data.richMsg == null) return
 
             val richMsg = data.richMsg
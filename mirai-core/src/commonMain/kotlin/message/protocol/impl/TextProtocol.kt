@@ -16,13 +16,14 @@ import net.mamoe.mirai.contact.Group
 import net.mamoe.mirai.contact.nameCardOrNick
 import net.mamoe.mirai.internal.message.protocol.MessageProtocol
 import net.mamoe.mirai.internal.message.protocol.ProcessorCollector
-import net.mamoe.mirai.internal.message.protocol.decode.MessageDecoder
+import net.mamoe.mirai.internal.message.protocol.decode.ElemField
 import net.mamoe.mirai.internal.message.protocol.decode.MessageDecoderContext
-import net.mamoe.mirai.internal.message.protocol.encode.MessageEncoder
+import net.mamoe.mirai.internal.message.protocol.decode.PureMessageDecoder
 import net.mamoe.mirai.internal.message.protocol.encode.MessageEncoderContext
 import net.mamoe.mirai.internal.message.protocol.encode.MessageEncoderContext.Companion.CONTACT
 import net.mamoe.mirai.internal.message.protocol.encode.MessageEncoderContext.Companion.isForward
 import net.mamoe.mirai.internal.message.protocol.encode.MessageEncoderContext.Companion.originalMessage
+import net.mamoe.mirai.internal.message.protocol.encode.PureMessageEncoder
 import net.mamoe.mirai.internal.message.protocol.serialization.MessageSerializer
 import net.mamoe.mirai.internal.network.protocol.data.proto.ImMsgBody
 import net.mamoe.mirai.message.data.*
@@ -49,8 +50,10 @@ internal class TextProtocol : MessageProtocol() {
         }
     }
 
-    private class Decoder : MessageDecoder {
-        override suspend fun MessageDecoderContext.process(data: ImMsgBody.Elem) {
+    private class Decoder : PureMessageDecoder {
+        override val elemFields: Set<ElemField> = setOf(ElemField.TEXT)
+
+        override fun MessageDecoderContext.decode(data: ImMsgBody.Elem) {
             val text = data.text ?: return
             markAsConsumed()
             if (text.attr6Buf.isEmpty()) {
@@ -70,15 +73,15 @@ internal class TextProtocol : MessageProtocol() {
         }
     }
 
-    private class PlainTextEncoder : MessageEncoder<PlainText> {
-        override suspend fun MessageEncoderContext.process(data: PlainText) {
+    private class PlainTextEncoder : PureMessageEncoder<PlainText> {
+        override fun MessageEncoderContext.encode(data: PlainText) {
             markAsConsumed()
             collect(ImMsgBody.Elem(text = ImMsgBody.Text(str = data.content)))
         }
     }
 
-    private class AtEncoder : MessageEncoder<At> {
-        override suspend fun MessageEncoderContext.process(data: At) {
+    private class AtEncoder : PureMessageEncoder<At> {
+        override fun MessageEncoderContext.encode(data: At) {
             markAsConsumed()
             collected += ImMsgBody.Elem(
                 text = data.toJceData(
@@ -158,8 +161,8 @@ internal class TextProtocol : MessageProtocol() {
         }
     }
 
-    private class AtAllEncoder : MessageEncoder<AtAll> {
-        override suspend fun MessageEncoderContext.process(data: AtAll) {
+    private class AtAllEncoder : PureMessageEncoder<AtAll> {
+        override fun MessageEncoderContext.encode(data: AtAll) {
             markAsConsumed()
             collect(jceData)
         }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -10,10 +10,6 @@
 package net.mamoe.mirai.internal.message.protocol.outgoing
 
 import kotlinx.coroutines.Deferred
-import kotlinx.coroutines.withTimeoutOrNull
-import net.mamoe.mirai.event.EventPriority
-import net.mamoe.mirai.event.GlobalEventChannel
-import net.mamoe.mirai.event.nextEvent
 import net.mamoe.mirai.internal.AbstractBot
 import net.mamoe.mirai.internal.contact.*
 import net.mamoe.mirai.internal.message.source.OnlineMessageSourceToFriendImpl
@@ -22,6 +18,8 @@ import net.mamoe.mirai.internal.network.Packet
 import net.mamoe.mirai.internal.network.QQAndroidClient
 import net.mamoe.mirai.internal.network.component.ComponentKey
 import net.mamoe.mirai.internal.network.components.ClockHolder.Companion.clock
+import net.mamoe.mirai.internal.network.components.MessageReceiptTable
+import net.mamoe.mirai.internal.network.components.awaitReceipt
 import net.mamoe.mirai.internal.network.notice.group.GroupMessageProcessor
 import net.mamoe.mirai.internal.network.notice.priv.PrivateMessageProcessor
 import net.mamoe.mirai.internal.network.protocol.packet.OutgoingPacket
@@ -86,11 +84,10 @@ internal class FriendMessageProtocolStrategy(
         originalMessage: MessageChain,
         fromAppId: Int
     ): OnlineMessageSource.Outgoing {
-        val receipt: PrivateMessageProcessor.SendPrivateMessageReceipt = withTimeoutOrNull(3000) {
-            GlobalEventChannel.parentScope(this).nextEvent(EventPriority.MONITOR) {
-                it.bot === contact.bot && it.fromAppId == fromAppId
-            }
-        } ?: PrivateMessageProcessor.SendPrivateMessageReceipt.EMPTY
+        val receipt: PrivateMessageProcessor.SendPrivateMessageReceipt = awaitReceipt(
+            contact.bot.components[MessageReceiptTable].expectSpecialPrivateReceipt(fromAppId),
+            3000
+        ) ?: PrivateMessageProcessor.SendPrivateMessageReceipt.EMPTY
 
         return OnlineMessageSourceToFriendImpl(
             internalIds = intArrayOf(receipt.messageRandom),
@@ -154,11 +151,10 @@ internal open class GroupMessageProtocolStrategy(
         originalMessage: MessageChain,
         fromAppId: Int
     ): OnlineMessageSource.Outgoing {
-        val receipt: GroupMessageProcessor.SendGroupMessageReceipt = withTimeoutOrNull(3000) {
-            GlobalEventChannel.parentScope(this).nextEvent(EventPriority.MONITOR) {
-                it.bot === contact.bot && it.fromAppId == fromAppId
-            }
-        } ?: GroupMessageProcessor.SendGroupMessageReceipt.EMPTY
+        val receipt: GroupMessageProcessor.SendGroupMessageReceipt = awaitReceipt(
+            contact.bot.components[MessageReceiptTable].expectSpecialGroupReceipt(fromAppId),
+            3000
+        ) ?: GroupMessageProcessor.SendGroupMessageReceipt.EMPTY
 
         return OnlineMessageSourceToGroupImpl(
             contact,
@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -18,13 +18,11 @@ import kotlinx.serialization.Serializable
 import kotlinx.serialization.Transient
 import net.mamoe.mirai.Bot
 import net.mamoe.mirai.contact.*
-import net.mamoe.mirai.event.EventPriority
-import net.mamoe.mirai.event.GlobalEventChannel
-import net.mamoe.mirai.event.syncFromEvent
+import net.mamoe.mirai.internal.asQQAndroidBot
 import net.mamoe.mirai.internal.contact.uin
 import net.mamoe.mirai.internal.message.MessageSourceSerializerImpl
 import net.mamoe.mirai.internal.message.protocol.MessageProtocolFacade
-import net.mamoe.mirai.internal.network.notice.group.GroupMessageProcessor.SendGroupMessageReceipt
+import net.mamoe.mirai.internal.network.components.MessageReceiptTable
 import net.mamoe.mirai.internal.network.protocol.data.proto.ImMsgBody
 import net.mamoe.mirai.internal.network.protocol.data.proto.MsgComm
 import net.mamoe.mirai.internal.network.protocol.data.proto.SourceMsg
@@ -283,27 +281,23 @@ internal class OnlineMessageSourceToGroupImpl(
 }
 
 internal open class MessageSourceSequenceIdAwaiter {
+    /**
+     * Receipts are registered in [MessageReceiptTable] before this function returns, so that they are not missed
+     * if the server responds before the returned [Deferred] starts.
+     */
     open fun getSequenceIdAsync(
         sourceToGroupImpl: OnlineMessageSourceToGroupImpl,
         coroutineScope: CoroutineScope
     ): Deferred<IntArray?> {
-        val multi = mutableMapOf<Int, Int>()
+        val table = sourceToGroupImpl.bot.asQQAndroidBot().components[MessageReceiptTable]
+        val receipts = sourceToGroupImpl.internalIds.map { table.expectGroupReceipt(it) }
         return coroutineScope.async {
-            withTimeoutOrNull(
-                timeMillis = 3000L * sourceToGroupImpl.internalIds.size
-            ) {
-                GlobalEventChannel.parentScope(this)
-                    .syncFromEvent<SendGroupMessageReceipt, IntArray>(EventPriority.MONITOR) { receipt ->
-                        if (receipt.bot !== sourceToGroupImpl.bot) return@syncFromEvent null
-                        if (receipt.messageRandom in sourceToGroupImpl.internalIds) {
-                            multi[receipt.messageRandom] = receipt.sequenceId
-                            if (multi.size == sourceToGroupImpl.internalIds.size) {
-                                IntArray(multi.size) { index ->
-                                    multi[sourceToGroupImpl.internalIds[index]]!!
-                                }
-                            } else null
-                        } else null
-                    }
+            try {
+                withTimeoutOrNull(timeMillis = 3000L * receipts.size) {
+                    IntArray(receipts.size) { index -> receipts[index].await().sequenceId }
+                }
+            } finally {
+                receipts.forEach { it.cancel() } // removes those not received from table
             }
         }
     }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -9,15 +9,18 @@
 
 package net.mamoe.mirai.internal.network
 
+import kotlinx.serialization.KSerializer
 import kotlinx.serialization.Serializable
 import kotlinx.serialization.json.Json
 import kotlinx.serialization.protobuf.ProtoBuf
+import kotlinx.serialization.protobuf.ProtoNumber
 import net.mamoe.mirai.internal.QQAndroidBot
 import net.mamoe.mirai.internal.contact.info.FriendInfoImpl
 import net.mamoe.mirai.internal.contact.info.MemberInfoImpl
 import net.mamoe.mirai.internal.network.protocol.data.jce.StTroopNum
 import net.mamoe.mirai.internal.utils.ScheduledJob
-import net.mamoe.mirai.internal.utils.groupCacheDir
+import net.mamoe.mirai.internal.utils.groupCacheFile
+import net.mamoe.mirai.internal.utils.legacyGroupCacheFile
 import net.mamoe.mirai.utils.*
 
 internal val JsonForCache = Json {
@@ -27,24 +30,28 @@ internal val JsonForCache = Json {
     prettyPrint = true
 }
 
+/**
+ * Format of contact list caches. Classes saved in this format must declare [ProtoNumber]s explicitly,
+ * so that cache files written by older versions can still be read.
+ */
 internal val ProtoBufForCache = ProtoBuf {
     encodeDefaults = true
 }
 
 @Serializable
 internal data class FriendListCache(
-    var friendListSeq: Long = 0,
+    @ProtoNumber(1) var friendListSeq: Long = 0,
     /**
      * 实际上是个序列号, 不是时间
      */
-    var timeStamp: Long = 0,
-    var list: List<FriendInfoImpl> = emptyList(),
+    @ProtoNumber(2) var timeStamp: Long = 0,
+    @ProtoNumber(3) var list: List<FriendInfoImpl> = emptyList(),
 )
 
 @Serializable
 internal data class GroupMemberListCache(
-    var troopMemberNumSeq: Long,
-    var list: List<MemberInfoImpl> = emptyList(),
+    @ProtoNumber(1) var troopMemberNumSeq: Long,
+    @ProtoNumber(2) var list: List<MemberInfoImpl> = emptyList(),
 )
 
 internal fun GroupMemberListCache.isValid(stTroopNum: StTroopNum): Boolean {
@@ -85,20 +92,17 @@ internal class GroupMemberListCaches(
         return ret
     }
 
-    private val cacheDir: MiraiFile by lazy { bot.configuration.groupCacheDir() }
-
-    private fun resolveCacheFile(groupCode: Long): MiraiFile {
-        cacheDir.mkdirs()
-        return cacheDir.resolve("$groupCode.json")
-    }
-
     fun saveGroupCaches() {
         val currentChanged = takeCurrentChangedGroups()
         if (currentChanged.isNotEmpty()) {
             for ((id, cache) in currentChanged) {
-                val file = resolveCacheFile(id)
-                file.createNewFile()
-                file.writeText(JsonForCache.encodeToString(GroupMemberListCache.serializer(), cache))
+                saveContactCache(
+                    bot.configuration.groupCacheFile(id),
+                    bot.configuration.legacyGroupCacheFile(id),
+                    GroupMemberListCache.serializer(),
+                    cache
+                )
+                release(id)
             }
             logger.info { "Saved ${currentChanged.size} groups to local cache." }
         }
@@ -110,25 +114,85 @@ internal class GroupMemberListCaches(
         this.map.keys.retainAll(list)
     }
 
+    /**
+     * Drops the in-memory cache of the group if it has no unsaved changes, so that it does not keep the member list
+     * alive after the group is built. It is loaded again from file on next [get].
+     */
+    fun release(id: Long) {
+        if (id !in changedGroups) map.remove(id)
+    }
+
+    /**
+     * Loads the cache of the group lazily, on its first access.
+     */
     operator fun get(id: Long): GroupMemberListCache {
-        return map.getOrPut(id) {
-            val file = resolveCacheFile(id)
-            if (file.exists() && file.isFile) {
-                try {
-                    val text = file.readText()
-                    if (text.isNotBlank()) {
-                        return JsonForCache.decodeFromString(GroupMemberListCache.serializer(), text)
-                    }
-                } catch (e: Exception) {
-                    logger.warning(
-                        "Exception while loading GroupMemberListCache for group $id, possibly file corrupted. Deleting cache file.",
-                        e
-                    )
-                    file.delete()
-                }
-            }
+        map[id]?.let { return it }
+        val loaded = loadContactCache(
+            bot.configuration.groupCacheFile(id),
+            bot.configuration.legacyGroupCacheFile(id),
+            GroupMemberListCache.serializer(),
+            logger,
+            onMigrated = { reportChanged(id) },
+        ) ?: return GroupMemberListCache(0, emptyList())
+        return map.getOrPut(id) { loaded }
+    }
+}
 
-            GroupMemberListCache(0, emptyList())
+/**
+ * Loads a contact cache saved by [saveContactCache] from [file].
+ *
+ * If [file] does not exist, tries [legacyJsonFile] written by older versions in [JsonForCache],
+ * and calls [onMigrated] so that the caller can save it in the new format.
+ *
+ * Broken files are deleted.
+ */
+internal fun <T> loadContactCache(
+    file: MiraiFile,
+    legacyJsonFile: MiraiFile,
+    serializer: KSerializer<T>,
+    logger: MiraiLogger,
+    onMigrated: () -> Unit,
+): T? {
+    if (file.exists() && file.isFile && file.length != 0L) {
+        try {
+            return ProtoBufForCache.decodeFromByteArray(serializer, file.readBytes())
+        } catch (e: Exception) {
+            logger.warning(
+                "Exception while loading contact cache '${file.name}', possibly file corrupted. Deleting cache file.",
+                e
+            )
+            file.delete()
+            return null
+        }
+    }
+
+    if (legacyJsonFile.exists() && legacyJsonFile.isFile) {
+        try {
+            val text = legacyJsonFile.readText()
+            if (text.isNotBlank()) {
+                return JsonForCache.decodeFromString(serializer, text).also { onMigrated() }
+            }
+        } catch (e: Exception) {
+            logger.warning(
+                "Exception while loading contact cache '${legacyJsonFile.name}', possibly file corrupted. Deleting cache file.",
+                e
+            )
+            legacyJsonFile.delete()
         }
     }
-}
\ No newline at end of file
+    return null
+}
+
+/**
+ * Saves [value] to [file] in [ProtoBufForCache], and deletes [legacyJsonFile] if it exists.
+ */
+internal fun <T> saveContactCache(
+    file: MiraiFile,
+    legacyJsonFile: MiraiFile,
+    serializer: KSerializer<T>,
+    value: T,
+) {
+    file.createFileIfNotExists()
+    file.writeBytes(ProtoBufForCache.encodeToByteArray(serializer, value))
+    if (legacyJsonFile.exists()) legacyJsonFile.delete()
+}
@@ -13,10 +13,12 @@ import kotlinx.serialization.json.Json
 import net.mamoe.mirai.internal.QQAndroidBot
 import net.mamoe.mirai.internal.network.FriendListCache
 import net.mamoe.mirai.internal.network.GroupMemberListCaches
-import net.mamoe.mirai.internal.network.JsonForCache
 import net.mamoe.mirai.internal.network.component.ComponentKey
+import net.mamoe.mirai.internal.network.loadContactCache
+import net.mamoe.mirai.internal.network.saveContactCache
 import net.mamoe.mirai.internal.utils.ScheduledJob
 import net.mamoe.mirai.internal.utils.friendCacheFile
+import net.mamoe.mirai.internal.utils.legacyFriendCacheFile
 import net.mamoe.mirai.utils.*
 
 /**
@@ -59,14 +61,21 @@ internal class ContactCacheServiceImpl(
 
     override val friendListCache: FriendListCache? by lazy {
         if (!configuration.contactListCache.friendListCacheEnabled) return@lazy null
-        val file = configuration.friendCacheFile()
-        val ret = file.loadNotBlankAs(FriendListCache.serializer(), JsonForCache) ?: FriendListCache()
+        var migrated = false
+        val ret = loadContactCache(
+            configuration.friendCacheFile(),
+            configuration.legacyFriendCacheFile(),
+            FriendListCache.serializer(),
+            logger,
+            onMigrated = { migrated = true },
+        ) ?: FriendListCache()
 
         @Suppress("INVISIBLE_MEMBER", "INVISIBLE_REFERENCE")
         bot.eventChannel.parentScope(bot)
             .subscribeAlways<net.mamoe.mirai.event.events.FriendInfoChangeEvent> {
                 friendListSaver?.notice()
             }
+        if (migrated) friendListSaver?.notice()
         ret
     }
 
@@ -87,11 +96,13 @@ internal class ContactCacheServiceImpl(
     override fun saveFriendCache() {
         val friendListCache = friendListCache ?: return
 
-        configuration.friendCacheFile().run {
-            createFileIfNotExists()
-            writeText(JsonForCache.encodeToString(FriendListCache.serializer(), friendListCache))
-            logger.info { "Saved ${friendListCache.list.size} friends to local cache." }
-        }
+        saveContactCache(
+            configuration.friendCacheFile(),
+            configuration.legacyFriendCacheFile(),
+            FriendListCache.serializer(),
+            friendListCache
+        )
+        logger.info { "Saved ${friendListCache.list.size} friends to local cache." }
     }
 
 }
\ No newline at end of file
@@ -27,6 +27,8 @@ import net.mamoe.mirai.internal.contact.friendgroup.FriendGroupImpl
 import net.mamoe.mirai.internal.contact.info.*
 import net.mamoe.mirai.internal.contact.toMiraiFriendInfo
 import net.mamoe.mirai.internal.network.component.ComponentKey
+import net.mamoe.mirai.internal.network.GroupMemberListCache
+import net.mamoe.mirai.internal.network.GroupMemberListCaches
 import net.mamoe.mirai.internal.network.component.ComponentStorage
 import net.mamoe.mirai.internal.network.isValid
 import net.mamoe.mirai.internal.network.notice.NewContactSupport
@@ -37,6 +39,7 @@ import net.mamoe.mirai.internal.network.protocol.data.jce.isValid
 import net.mamoe.mirai.internal.network.protocol.packet.chat.TroopManagement
 import net.mamoe.mirai.internal.network.protocol.packet.list.FriendList
 import net.mamoe.mirai.internal.network.protocol.packet.list.StrangerList
+import net.mamoe.mirai.internal.utils.StringPool
 import net.mamoe.mirai.utils.MiraiLogger
 import net.mamoe.mirai.utils.info
 import net.mamoe.mirai.utils.retryCatching
@@ -222,41 +225,88 @@ internal class ContactUpdaterImpl(
         initFriendGroupOk = true
     }
 
-    private suspend fun addGroupToBot(stTroopNum: StTroopNum, stGroupRankInfo: StGroupRankInfo?) = stTroopNum.run {
-        suspend fun refreshGroupMemberList(): Sequence<MemberInfo> {
+    /**
+     * @param stringPool shared by all groups being loaded, to deduplicate strings of members
+     */
+    private suspend fun addGroupToBot(
+        stTroopNum: StTroopNum,
+        stGroupRankInfo: StGroupRankInfo?,
+        stringPool: StringPool,
+    ): Unit = stTroopNum.run {
+        suspend fun refreshGroupMemberList(): List<MemberInfo> {
+            // The sequence is lazy. Materialize it once, so that the cache and the group share the same objects.
             return Mirai.getRawGroupMemberList(
                 bot,
                 groupUin,
                 groupCode,
                 dwGroupOwnerUin
+            ).toList()
+        }
+
+        val caches = cacheService.groupMemberListCaches
+        val cache = caches?.get(groupCode)
+        if (bot.configuration.loadGroupMembersOnDemand && cache?.isValid(stTroopNum) != true) {
+            bot.groups.delegate.add(
+                GroupImpl(
+                    bot = bot,
+                    parentCoroutineContext = bot.coroutineContext,
+                    id = groupCode,
+                    groupInfo = GroupInfoImpl(stTroopNum, stGroupRankInfo),
+                    ownerId = dwGroupOwnerUin,
+                    fetchMembers = {
+                        refreshGroupMemberList().also { list ->
+                            val pool = StringPool()
+                            for (member in list) {
+                                if (member is MemberInfoImpl) member.deduplicateStrings(pool)
+                            }
+                            if (caches != null) updateGroupMemberListCache(caches, stTroopNum, list)
+                        }
+                    },
+                ),
             )
+            caches?.release(groupCode)
+            return
         }
 
-        val cache = cacheService.groupMemberListCaches?.get(groupCode)
         val members = if (cache != null) {
             if (cache.isValid(stTroopNum)) {
-                cache.list.asSequence().also {
+                cache.list.also {
                     logger.info { "Loaded ${cache.list.size} members from local cache for group $groupName (${groupCode})" }
                 }
-            } else refreshGroupMemberList().also { sequence ->
-                cache.troopMemberNumSeq = dwMemberNumSeq ?: 0
-                cache.list = sequence.mapTo(ArrayList()) { it as MemberInfoImpl }
-                cacheService.groupMemberListCaches!!.map[groupCode] = cache
-                cacheService.groupMemberListCaches!!.reportChanged(groupCode)
+            } else refreshGroupMemberList().also { list ->
+                updateGroupMemberListCache(caches, stTroopNum, list)
             }
         } else {
             refreshGroupMemberList()
         }
 
+        for (member in members) {
+            if (member is MemberInfoImpl) member.deduplicateStrings(stringPool)
+        }
+
         bot.groups.delegate.add(
             GroupImpl(
                 bot = bot,
                 parentCoroutineContext = bot.coroutineContext,
                 id = groupCode,
                 groupInfo = GroupInfoImpl(stTroopNum, stGroupRankInfo),
-                members = members,
+                members = members.asSequence(),
             ),
         )
+        caches?.release(groupCode)
+    }
+
+    private fun updateGroupMemberListCache(
+        caches: GroupMemberListCaches,
+        stTroopNum: StTroopNum,
+        list: List<MemberInfo>,
+    ) {
+        val groupCode = stTroopNum.groupCode
+        caches.map[groupCode] = GroupMemberListCache(
+            troopMemberNumSeq = stTroopNum.dwMemberNumSeq ?: 0,
+            list = list.map { it as MemberInfoImpl },
+        )
+        caches.reportChanged(groupCode)
     }
 
     override suspend fun reloadStrangerList() = strangerListLock.withLock {
@@ -297,13 +347,18 @@ internal class ContactUpdaterImpl(
         val troopListData = bot.network.sendAndExpect(FriendList.GetTroopListSimplify(bot.client), attempts = 5)
 
         val semaphore = Semaphore(30)
+        val stringPool = StringPool()
 
         coroutineScope {
             troopListData.groups.forEach { group ->
                 launch {
                     semaphore.withPermit {
                         retryCatching(5) {
-                            addGroupToBot(group, troopListData.ranks.find { it.dwGroupCode == group.groupCode })
+                            addGroupToBot(
+                                group,
+                                troopListData.ranks.find { it.dwGroupCode == group.groupCode },
+                                stringPool
+                            )
                         }.getOrThrow()
                     }
                 }
@@ -311,6 +366,7 @@ internal class ContactUpdaterImpl(
         }
 
         logger.info { "Successfully loaded group list: ${troopListData.groups.size} in total." }
+        logger.verbose { "Deduplicated member strings to ${stringPool.size} distinct values." }
         cacheService.groupMemberListCaches?.saveGroupCaches()
         initGroupOk = true
     }
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.network.components
+
+import kotlinx.atomicfu.locks.SynchronizedObject
+import kotlinx.atomicfu.locks.synchronized
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.withTimeoutOrNull
+import net.mamoe.mirai.internal.network.component.ComponentKey
+import net.mamoe.mirai.internal.network.notice.group.GroupMessageProcessor.SendGroupMessageReceipt
+import net.mamoe.mirai.internal.network.notice.priv.PrivateMessageProcessor.SendPrivateMessageReceipt
+
+/**
+ * Correlates receipts of messages sent by the bot with the senders waiting for them.
+ *
+ * Senders register before sending. [GroupMessageProcessor][net.mamoe.mirai.internal.network.notice.group.GroupMessageProcessor]
+ * and [PrivateMessageProcessor][net.mamoe.mirai.internal.network.notice.priv.PrivateMessageProcessor]
+ * complete them directly when the server pushes the message back, so matching a receipt costs a map lookup
+ * regardless of how many messages are in flight.
+ *
+ * A returned [Deferred] is removed from the table when it is completed or cancelled. Senders should cancel it if they stop waiting.
+ */
+internal interface MessageReceiptTable {
+    /**
+     * Expects the receipt of a group message identified by [messageRandom].
+     */
+    fun expectGroupReceipt(messageRandom: Int): Deferred<SendGroupMessageReceipt>
+
+    /**
+     * Expects the receipt of a special group message, e.g. music share, which is only identified by [fromAppId].
+     * Receipts with the same [fromAppId] are delivered in registration order.
+     */
+    fun expectSpecialGroupReceipt(fromAppId: Int): Deferred<SendGroupMessageReceipt>
+
+    /**
+     * Private message counterpart of [expectSpecialGroupReceipt].
+     */
+    fun expectSpecialPrivateReceipt(fromAppId: Int): Deferred<SendPrivateMessageReceipt>
+
+    /**
+     * @return `true` if a sender was waiting for [receipt]
+     */
+    fun completeGroupReceipt(receipt: SendGroupMessageReceipt): Boolean
+
+    /**
+     * @return `true` if a sender was waiting for [receipt]
+     */
+    fun completePrivateReceipt(receipt: SendPrivateMessageReceipt): Boolean
+
+    companion object : ComponentKey<MessageReceiptTable>
+}
+
+/**
+ * Awaits [deferred] for at most [timeMillis], and cancels it on timeout so that it is removed from [MessageReceiptTable].
+ */
+internal suspend fun <R> awaitReceipt(deferred: Deferred<R>, timeMillis: Long): R? {
+    return withTimeoutOrNull(timeMillis) { deferred.await() }.also {
+        if (it == null) deferred.cancel()
+    }
+}
+
+internal class MessageReceiptTableImpl : MessageReceiptTable {
+    private val lock = SynchronizedObject()
+    private val groupReceipts = HashMap<Int, CompletableDeferred<SendGroupMessageReceipt>>()
+    private val specialGroupReceipts = HashMap<Int, ArrayDeque<CompletableDeferred<SendGroupMessageReceipt>>>()
+    private val specialPrivateReceipts = HashMap<Int, ArrayDeque<CompletableDeferred<SendPrivateMessageReceipt>>>()
+
+    override fun expectGroupReceipt(messageRandom: Int): Deferred<SendGroupMessageReceipt> {
+        val deferred = CompletableDeferred<SendGroupMessageReceipt>()
+        synchronized(lock) { groupReceipts[messageRandom] = deferred }
+        deferred.invokeOnCompletion {
+            synchronized(lock) {
+                if (groupReceipts[messageRandom] === deferred) groupReceipts.remove(messageRandom)
+            }
+        }
+        return deferred
+    }
+
+    override fun expectSpecialGroupReceipt(fromAppId: Int): Deferred<SendGroupMessageReceipt> =
+        enqueue(specialGroupReceipts, fromAppId)
+
+    override fun expectSpecialPrivateReceipt(fromAppId: Int): Deferred<SendPrivateMessageReceipt> =
+        enqueue(specialPrivateReceipts, fromAppId)
+
+    override fun completeGroupReceipt(receipt: SendGroupMessageReceipt): Boolean {
+        val deferred = synchronized(lock) { groupReceipts.remove(receipt.messageRandom) }
+            ?: synchronized(lock) { specialGroupReceipts[receipt.fromAppId]?.removeFirstOrNull() }
+            ?: return false
+        return deferred.complete(receipt)
+    }
+
+    override fun completePrivateReceipt(receipt: SendPrivateMessageReceipt): Boolean {
+        val deferred = synchronized(lock) { specialPrivateReceipts[receipt.fromAppId]?.removeFirstOrNull() }
+            ?: return false
+        return deferred.complete(receipt)
+    }
+
+    private fun <R> enqueue(
+        queues: HashMap<Int, ArrayDeque<CompletableDeferred<R>>>,
+        fromAppId: Int,
+    ): Deferred<R> {
+        val deferred = CompletableDeferred<R>()
+        synchronized(lock) { queues.getOrPut(fromAppId) { ArrayDeque() }.addLast(deferred) }
+        deferred.invokeOnCompletion {
+            synchronized(lock) {
+                val queue = queues[fromAppId] ?: return@synchronized
+                queue.remove(deferred)
+                if (queue.isEmpty()) queues.remove(fromAppId)
+            }
+        }
+        return deferred
+    }
+
+    override fun toString(): String = synchronized(lock) {
+        "MessageReceiptTableImpl(groupReceipts=${groupReceipts.size}, " +
+                "specialGroupReceipts=${specialGroupReceipts.values.sumOf { it.size }}, " +
+                "specialPrivateReceipts=${specialPrivateReceipts.values.sumOf { it.size }})"
+    }
+}
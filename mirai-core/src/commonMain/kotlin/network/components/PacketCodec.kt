@@ -22,8 +22,9 @@ import net.mamoe.mirai.internal.network.protocol.packet.login.WtLogin
 import net.mamoe.mirai.internal.network.protocol.packet.sso.TRpcRawPacket
 import net.mamoe.mirai.internal.utils.crypto.Ecdh
 import net.mamoe.mirai.internal.utils.crypto.TEA
-import net.mamoe.mirai.internal.utils.io.serialization.readProtoBuf
+import net.mamoe.mirai.internal.utils.io.serialization.loadAs
 import net.mamoe.mirai.utils.*
+import kotlin.time.TimeSource
 
 
 /**
@@ -41,7 +42,27 @@ internal interface PacketCodec {
      * @return decoded
      */
     @Throws(PacketCodecException::class)
-    fun decodeRaw(client: SsoSession, input: ByteReadPacket): RawIncomingPacket
+    fun decodeRaw(client: SsoSession, input: ByteReadPacket): RawIncomingPacket =
+        decodeRaw(client, input.readBytes())
+
+    /**
+     * Decodes a whole frame stored in [input] from [offset] with [length].
+     *
+     * Implementations may decrypt **in place**, so the content of [input] is undefined after this call.
+     * Callers must not reuse it.
+     *
+     * @throws PacketCodecException normal, known errors
+     * @throws Exception unexpected errors
+     * @param input received from sockets.
+     * @return decoded
+     */
+    @Throws(PacketCodecException::class)
+    fun decodeRaw(
+        client: SsoSession,
+        input: ByteArray,
+        offset: Int = 0,
+        length: Int = input.size - offset
+    ): RawIncomingPacket
 
     /**
      * Process [RawIncomingPacket] using [IncomingPacketFactory.decode].
@@ -110,18 +131,29 @@ internal enum class IncomingPacketType(val value: Int) {
 }
 
 internal class PacketCodecImpl : PacketCodec {
+    /**
+     * Statistics of packets passed to [processBody].
+     */
+    val commandStatistics = PacketCommandStatistics()
 
     override fun decodeRaw(
         client: SsoSession,
-        input: ByteReadPacket
-    ): RawIncomingPacket = input.run {
+        input: ByteArray,
+        offset: Int,
+        length: Int
+    ): RawIncomingPacket {
+        input.checkOffsetAndLength(offset, length)
+        val end = offset + length
+        var position = offset
+
         // packet type
-        val packetType = IncomingPacketType.of(readInt())
+        val packetType = IncomingPacketType.of(input.toInt(position))
+        position += 4
 
         PacketLogger.verbose { "开始处理一个包" }
 
-        val encryptMethod = PacketEncryptType.of(readByte().toInt())
-        val flag3 = readByte().toInt()
+        val encryptMethod = PacketEncryptType.of(input[position++].toInt())
+        val flag3 = input[position++].toInt()
         val flag3Exception = if (flag3 != 0) {
             PacketCodecException(
                 "Illegal flag3. Expected 0, whereas got $flag3. packet type=$packetType, encrypt method=$encryptMethod. ",
@@ -129,97 +161,111 @@ internal class PacketCodecImpl : PacketCodec {
             )
         } else null
 
-        readString(readInt() - 4)// uinAccount
-
-        ByteArrayPool.useInstance(this.remaining.toInt()) { buffer ->
-            val size = this.readAvailable(buffer)
-
-            val raw = try {
-                when (encryptMethod) {
-                    PacketEncryptType.Empty -> TEA.decrypt(buffer, DECRYPTER_16_ZERO, size)
-                    PacketEncryptType.D2 -> {
-                        TEA.decrypt(buffer, kotlin.runCatching { client.wLoginSigInfo.d2Key }.getOrElse {
-                            throw PacketCodecException(
-                                "Received packet needed d2Key to decrypt but d2Key doesn't existed, ignoring. Please report to https://github.com/mamoe/mirai/issues/new/choose if you see anything abnormal",
-                                PROTOCOL_UPDATED
-                            )
-                        }, size)
-                    }
+        position += input.toInt(position) // uinAccount, length including itself
 
-                    PacketEncryptType.NoEncrypt -> buffer
-                    else -> throw PacketCodecException("Unknown encrypt type=$encryptMethod", PROTOCOL_UPDATED)
-                }.let { decryptedData ->
-                    PacketLogger.verbose { "Parsing: type=${packetType}: len=${decryptedData.size}, value=${decryptedData.toUHexString()}" }
-
-                    when (packetType) {
-                        IncomingPacketType.Login -> parseSsoFrame(client, decryptedData)
-                        IncomingPacketType.Simple -> parseSsoFrame(
-                            client,
-                            decryptedData
-                        ) // 这里可能是 uni?? 但测试时候发现结构跟 sso 一样.
-                        else -> throw PacketCodecException(
-                            "unknown packet type: ${packetType.value.toUHexString()}",
+        val raw = try {
+            // Decrypt in place so that no intermediate arrays are allocated, see TEA.decryptInPlace
+            val decryptedStart: Int
+            val decryptedEnd: Int
+            when (encryptMethod) {
+                PacketEncryptType.Empty -> {
+                    decryptedStart = TEA.decryptInPlace(input, DECRYPTER_16_ZERO, position, end - position)
+                    decryptedEnd = end - 7
+                }
+
+                PacketEncryptType.D2 -> {
+                    val d2Key = kotlin.runCatching { client.wLoginSigInfo.d2Key }.getOrElse {
+                        throw PacketCodecException(
+                            "Received packet needed d2Key to decrypt but d2Key doesn't existed, ignoring. Please report to https://github.com/mamoe/mirai/issues/new/choose if you see anything abnormal",
                             PROTOCOL_UPDATED
                         )
-                    }.also { pkg ->
-                        PacketLogger.debug {
-                            "result: ${pkg.commandName}, seq=${pkg.sequenceId}, ${
-                                pkg.body.copy()
-                                    .useBytes { data: ByteArray, length: Int -> data.toUHexString(length = length) }
-                            }"
-                        }
                     }
+                    decryptedStart = TEA.decryptInPlace(input, d2Key, position, end - position)
+                    decryptedEnd = end - 7
                 }
-            } catch (e: Exception) {
-                throw e.also {
-                    if (flag3Exception != null) {
-                        it.addSuppressed(flag3Exception)
-                    }
+
+                PacketEncryptType.NoEncrypt -> {
+                    decryptedStart = position
+                    decryptedEnd = end
                 }
+
+                else -> throw PacketCodecException("Unknown encrypt type=$encryptMethod", PROTOCOL_UPDATED)
             }
+            val decryptedLength = decryptedEnd - decryptedStart
 
-            if (flag3 != 0 && flag3Exception != null) {
-                if (raw.commandName == WtLogin.TransEmp.commandName) {
-                    PacketLogger.warning(
-                        "unknown flag3: $flag3 in packet ${WtLogin.TransEmp.commandName}, " +
-                                "which may means protocol is updated.",
-                        flag3Exception
-                    )
-                } else if (raw.commandName.startsWith(TRpcRawPacket.COMMAND_PREFIX)) {
-                    PacketLogger.verbose { "received a trpc native packet: ${raw.commandName}" }
-                } else {
-                    throw flag3Exception
+            PacketLogger.verbose {
+                "Parsing: type=${packetType}: len=${decryptedLength}, value=${
+                    input.toUHexString(offset = decryptedStart, length = decryptedLength)
+                }"
+            }
+
+            when (packetType) {
+                IncomingPacketType.Login -> parseSsoFrame(client, input, decryptedStart, decryptedLength)
+                IncomingPacketType.Simple -> parseSsoFrame(
+                    client,
+                    input, decryptedStart, decryptedLength
+                ) // 这里可能是 uni?? 但测试时候发现结构跟 sso 一样.
+                else -> throw PacketCodecException(
+                    "unknown packet type: ${packetType.value.toUHexString()}",
+                    PROTOCOL_UPDATED
+                )
+            }.also { pkg ->
+                PacketLogger.debug {
+                    "result: ${pkg.commandName}, seq=${pkg.sequenceId}, ${
+                        pkg.body.copy()
+                            .useBytes { data: ByteArray, length: Int -> data.toUHexString(length = length) }
+                    }"
                 }
             }
+        } catch (e: Exception) {
+            throw e.also {
+                if (flag3Exception != null) {
+                    it.addSuppressed(flag3Exception)
+                }
+            }
+        }
 
-            when (encryptMethod) {
-                PacketEncryptType.NoEncrypt,
-                PacketEncryptType.D2 -> RawIncomingPacket(
-                    raw.commandName,
-                    raw.sequenceId,
-                    raw.body.readBytes()
+        if (flag3 != 0 && flag3Exception != null) {
+            if (raw.commandName == WtLogin.TransEmp.commandName) {
+                PacketLogger.warning(
+                    "unknown flag3: $flag3 in packet ${WtLogin.TransEmp.commandName}, " +
+                            "which may means protocol is updated.",
+                    flag3Exception
                 )
+            } else if (raw.commandName.startsWith(TRpcRawPacket.COMMAND_PREFIX)) {
+                PacketLogger.verbose { "received a trpc native packet: ${raw.commandName}" }
+            } else {
+                throw flag3Exception
+            }
+        }
 
-                PacketEncryptType.Empty -> {
-                    RawIncomingPacket(
-                        raw.commandName,
-                        raw.sequenceId,
-                        raw.body.withUse {
-                            if (raw.commandName.startsWith(TRpcRawPacket.COMMAND_PREFIX)) {
-                                readBytes()
-                            } else {
-                                try {
-                                    parseOicqResponse(client, raw.commandName)
-                                } catch (e: Throwable) {
-                                    throw PacketCodecException(e, PacketCodecException.Kind.OTHER)
-                                }
+        return when (encryptMethod) {
+            PacketEncryptType.NoEncrypt,
+            PacketEncryptType.D2 -> RawIncomingPacket(
+                raw.commandName,
+                raw.sequenceId,
+                raw.body.readBytes()
+            )
+
+            PacketEncryptType.Empty -> {
+                RawIncomingPacket(
+                    raw.commandName,
+                    raw.sequenceId,
+                    raw.body.withUse {
+                        if (raw.commandName.startsWith(TRpcRawPacket.COMMAND_PREFIX)) {
+                            readBytes()
+                        } else {
+                            try {
+                                parseOicqResponse(client, raw.commandName)
+                            } catch (e: Throwable) {
+                                throw PacketCodecException(e, PacketCodecException.Kind.OTHER)
                             }
                         }
-                    )
-                }
-
-                else -> error("unreachable")
+                    }
+                )
             }
+
+            else -> error("unreachable")
         }
     }
 
@@ -232,12 +278,17 @@ internal class PacketCodecImpl : PacketCodec {
         val body: ByteReadPacket,
     )
 
-    private fun parseSsoFrame(client: SsoSession, bytes: ByteArray): DecodeResult =
-        bytes.toReadPacket().let { input ->
+    /**
+     * [bytes] is wrapped without copying, and the returned [DecodeResult.body] may share it.
+     */
+    private fun parseSsoFrame(client: SsoSession, bytes: ByteArray, offset: Int, length: Int): DecodeResult =
+        bytes.toReadPacket(offset, length).let { input ->
             val commandName: String
             val ssoSequenceId: Int
             val dataCompressed: Int
-            input.readPacketExact(input.readInt() - 4).withUse {
+            val headLength = input.readInt() // including itself
+            val remainingAfterHead = input.remaining - (headLength - 4)
+            input.run {
                 ssoSequenceId = readInt()
                 PacketLogger.verbose { "sequenceId = $ssoSequenceId" }
 
@@ -271,7 +322,7 @@ internal class PacketCodecImpl : PacketCodec {
                         PacketLogger.verbose {
                             "(sso/inner)extraData = ${extraData.toUHexString()}, result= ${
                                 kotlin.runCatching {
-                                    readProtoBuf(
+                                    extraData.loadAs(
                                         SSOReserveField.ReserveFields.serializer()
                                     ).structureToString()
                                 }.getOrElse { e -> "error: " + e.message }
@@ -286,6 +337,7 @@ internal class PacketCodecImpl : PacketCodec {
                 client.outgoingPacketSessionId = readBytes(readInt() - 4)
 
                 dataCompressed = readInt()
+                discardExact((remaining - remainingAfterHead).toInt()) // unknown trailing fields, if any
             }
 
             val packet = when (dataCompressed) {
@@ -415,6 +467,7 @@ internal class PacketCodecImpl : PacketCodec {
             ?: TRpcRawPacket.takeIf { input.commandName.startsWith(TRpcRawPacket.COMMAND_PREFIX) }
             ?: return null
 
+        val start = TimeSource.Monotonic.markNow()
         return kotlin.runCatching {
             input.body.toReadPacket().use { body ->
                 when (factory) {
@@ -425,6 +478,8 @@ internal class PacketCodecImpl : PacketCodec {
                     is IncomingPacketFactory -> factory.decode(bot, body, input.sequenceId)
                 }
             }
+        }.also {
+            commandStatistics.record(input.commandName, input.body.size, start.elapsedNow().inWholeMicroseconds)
         }.fold(
             onSuccess = { packet ->
                 IncomingPacket(input.commandName, input.sequenceId, packet)
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.network.components
+
+import kotlinx.atomicfu.atomic
+import kotlinx.atomicfu.locks.SynchronizedObject
+import kotlinx.atomicfu.locks.synchronized
+import net.mamoe.mirai.utils.ConcurrentHashMap
+
+/**
+ * Counts packets, their body sizes and processing time for each command name.
+ * Processing time is decoding time for [PacketCodec], and signing latency for [PacketSigner].
+ *
+ * All operations are safe to be called concurrently.
+ */
+internal class PacketCommandStatistics {
+    private class Counter {
+        val packets = atomic(0L)
+        val bytes = atomic(0L)
+        val totalMicros = atomic(0L)
+    }
+
+    private val counters: MutableMap<String, Counter> = ConcurrentHashMap()
+
+    /**
+     * Guards creation of [Counter]s. `getOrPut` of a common [MutableMap] is not atomic,
+     * so two threads recording a new command at the same time could otherwise each put their own counter.
+     */
+    private val createLock = SynchronizedObject()
+
+    fun record(commandName: String, bodySize: Int, micros: Long) {
+        val counter = counters[commandName]
+            ?: synchronized(createLock) { counters.getOrPut(commandName) { Counter() } }
+        counter.packets.incrementAndGet()
+        counter.bytes.addAndGet(bodySize.toLong())
+        counter.totalMicros.addAndGet(micros)
+    }
+
+    /**
+     * @return statistics of all recorded commands, sorted by [CommandSnapshot.bytes] descending.
+     */
+    fun snapshot(): List<CommandSnapshot> {
+        return counters.map { (commandName, counter) ->
+            CommandSnapshot(
+                commandName,
+                packets = counter.packets.value,
+                bytes = counter.bytes.value,
+                totalMicros = counter.totalMicros.value,
+            )
+        }.sortedByDescending { it.bytes }
+    }
+
+    data class CommandSnapshot(
+        val commandName: String,
+        val packets: Long,
+        val bytes: Long,
+        val totalMicros: Long,
+    )
+
+    override fun toString(): String = "PacketCommandStatistics(${snapshot().joinToString()})"
+}
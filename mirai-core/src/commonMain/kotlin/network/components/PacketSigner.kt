@@ -0,0 +1,136 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.network.components
+
+import kotlinx.coroutines.*
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.sync.Semaphore
+import net.mamoe.mirai.internal.network.component.ComponentKey
+import net.mamoe.mirai.internal.spi.EncryptService
+import net.mamoe.mirai.internal.spi.EncryptServiceContext
+import net.mamoe.mirai.utils.childScope
+import net.mamoe.mirai.utils.systemProp
+import kotlin.coroutines.CoroutineContext
+import kotlin.time.TimeMark
+import kotlin.time.TimeSource
+
+/**
+ * Signs outgoing packets with [EncryptService] asynchronously.
+ *
+ * Requests are collected into batches passed to [EncryptService.qSecurityGetSignBatch],
+ * so packets sent concurrently do not wait for each other's round trip to the service.
+ */
+internal interface PacketSigner {
+    /**
+     * Signs [payload], suspending until the result is available.
+     *
+     * @return `null` if [EncryptService] is not available or it does not sign this packet.
+     */
+    suspend fun sign(sequenceId: Int, commandName: String, payload: ByteArray): EncryptService.SignResult?
+
+    /**
+     * Signing latency of each command.
+     */
+    val statistics: PacketCommandStatistics
+
+    companion object : ComponentKey<PacketSigner> {
+        val DEFAULT_MAX_IN_FLIGHT_BATCHES: Int by lazy { systemProp("mirai.encrypt.service.sign.concurrency", 8L).toInt() }
+        val DEFAULT_MAX_BATCH_SIZE: Int by lazy { systemProp("mirai.encrypt.service.sign.batch.size", 16L).toInt() }
+    }
+}
+
+/**
+ * A batch is sent as soon as the previous requests are taken, so batching never delays a request.
+ * Batches grow only when requests arrive faster than the service signs them.
+ *
+ * @param maxInFlightBatches at most this number of batches are being signed at the same time.
+ * @param maxBatchSize max number of requests in a batch.
+ */
+internal class PacketSignerImpl(
+    parentCoroutineContext: CoroutineContext,
+    private val serviceHolder: EncryptServiceHolder,
+    private val botId: Long,
+    private val maxInFlightBatches: Int = PacketSigner.DEFAULT_MAX_IN_FLIGHT_BATCHES,
+    private val maxBatchSize: Int = PacketSigner.DEFAULT_MAX_BATCH_SIZE,
+) : PacketSigner, CoroutineScope by parentCoroutineContext.childScope("PacketSigner") {
+    private class SignRequest(
+        val request: EncryptService.SignRequest,
+        val start: TimeMark,
+    ) {
+        val result = CompletableDeferred<EncryptService.SignResult?>()
+    }
+
+    override val statistics = PacketCommandStatistics()
+
+    private val requests = Channel<SignRequest>(Channel.UNLIMITED)
+    private val inFlight = Semaphore(maxInFlightBatches.coerceAtLeast(1))
+
+    init {
+        launch(CoroutineName("PacketSigner dispatcher")) {
+            for (first in requests) {
+                val batch = mutableListOf(first)
+                while (batch.size < maxBatchSize) {
+                    batch.add(requests.tryReceive().getOrNull() ?: break)
+                }
+                inFlight.acquire()
+                launch {
+                    try {
+                        signBatch(batch)
+                    } finally {
+                        inFlight.release()
+                    }
+                }
+            }
+        }
+        coroutineContext.job.invokeOnCompletion { cause ->
+            requests.close(cause)
+            while (true) {
+                val request = requests.tryReceive().getOrNull() ?: break
+                request.result.completeExceptionally(cause ?: CancellationException("PacketSigner is closed"))
+            }
+        }
+    }
+
+    override suspend fun sign(
+        sequenceId: Int,
+        commandName: String,
+        payload: ByteArray
+    ): EncryptService.SignResult? {
+        if (serviceHolder.serviceOrNull == null) return null
+        val request = SignRequest(
+            EncryptService.SignRequest(sequenceId, commandName, payload),
+            TimeSource.Monotonic.markNow(),
+        )
+        requests.send(request)
+        return request.result.await()
+    }
+
+    private suspend fun signBatch(batch: List<SignRequest>) {
+        val service = serviceHolder.service
+        try {
+            val results = service.qSecurityGetSignBatch(EncryptServiceContext(botId), batch.map { it.request })
+            check(results.size == batch.size) {
+                "$service returned ${results.size} results for ${batch.size} requests in qSecurityGetSignBatch."
+            }
+            batch.forEachIndexed { index, request ->
+                statistics.record(
+                    request.request.commandName,
+                    request.request.payload.size,
+                    request.start.elapsedNow().inWholeMicroseconds
+                )
+                request.result.complete(results[index])
+            }
+        } catch (e: Throwable) {
+            batch.forEach { it.result.completeExceptionally(e) }
+        }
+    }
+
+    override fun toString(): String = "PacketSignerImpl(statistics=$statistics)"
+}
@@ -15,9 +15,11 @@ import net.mamoe.mirai.internal.AbstractBot
 import net.mamoe.mirai.internal.network.QQAndroidClient
 import net.mamoe.mirai.internal.network.component.ComponentKey
 import net.mamoe.mirai.internal.network.protocol.SyncingCacheList
+import net.mamoe.mirai.internal.network.protocol.SyncingCacheList.Companion.syncId
 import net.mamoe.mirai.internal.network.protocol.data.jce.MsgInfo
 import net.mamoe.mirai.internal.network.protocol.data.proto.MsgComm
 import net.mamoe.mirai.internal.network.protocol.data.proto.OnlinePushTrans
+import net.mamoe.mirai.utils.BotConfiguration
 import net.mamoe.mirai.utils.EMPTY_BYTE_ARRAY
 import net.mamoe.mirai.utils.currentTimeSeconds
 import kotlin.jvm.Volatile
@@ -70,7 +72,12 @@ internal fun SyncController.syncOnlinePush(
     time = msgInfo.uMsgTime,
 )
 
-internal class SyncControllerImpl : SyncController {
+/**
+ * @param messageSyncCacheSize size of windows deduplicating message pushes, see [BotConfiguration.messageSyncCacheSize]
+ */
+internal class SyncControllerImpl(
+    messageSyncCacheSize: Int = 50,
+) : SyncController {
     private val _firstNotify: AtomicBoolean = atomic(true)
     override val firstNotify get() = _firstNotify.value
     override fun casFirstNotify(expect: Boolean, update: Boolean): Boolean = _firstNotify.compareAndSet(expect, update)
@@ -90,59 +97,41 @@ internal class SyncControllerImpl : SyncController {
     @Volatile
     override var msgCtrlBuf: ByteArray = EMPTY_BYTE_ARRAY
 
-    private val pbGetMessageCacheList = SyncingCacheList<PbGetMessageSyncId>()
-    private val systemMsgNewGroupCacheList = SyncingCacheList<SystemMsgNewSyncId>(10)
-    private val systemMsgNewFriendCacheList = SyncingCacheList<SystemMsgNewSyncId>(10)
-    private val pbPushTransMsgCacheList = SyncingCacheList<PbPushTransMsgSyncId>(10)
-    private val onlinePushReqPushCacheList = SyncingCacheList<OnlinePushReqPushSyncId>(50)
-    private val pendingGroupMessageReceiptCacheList = SyncingCacheList<PendingGroupMessageReceiptSyncId>(50)
+    private val pbGetMessageCacheList = SyncingCacheList(messageSyncCacheSize)
+    private val systemMsgNewGroupCacheList = SyncingCacheList(10)
+    private val systemMsgNewFriendCacheList = SyncingCacheList(10)
+    private val pbPushTransMsgCacheList = SyncingCacheList(messageSyncCacheSize)
+    private val onlinePushReqPushCacheList = SyncingCacheList(messageSyncCacheSize)
+    private val pendingGroupMessageReceiptCacheList = SyncingCacheList(messageSyncCacheSize)
 
     override fun syncOnlinePush(uid: Long, sequence: Short, time: Long): Boolean =
-        onlinePushReqPushCacheList.addCache(OnlinePushReqPushSyncId(uid, sequence, time))
+        onlinePushReqPushCacheList.addCache(syncId(uid, sequence.toLong(), time))
 
     override fun syncNewFriend(sequence: Long, time: Long): Boolean =
-        systemMsgNewFriendCacheList.addCache(SystemMsgNewSyncId(sequence, time))
+        systemMsgNewFriendCacheList.addCache(syncId(sequence, time))
 
     override fun syncNewGroup(sequence: Long, time: Long): Boolean =
-        systemMsgNewGroupCacheList.addCache(SystemMsgNewSyncId(sequence, time))
+        systemMsgNewGroupCacheList.addCache(syncId(sequence, time))
 
     override fun syncGetMessage(uid: Long, sequence: Int, time: Int): Boolean =
-        pbGetMessageCacheList.addCache(PbGetMessageSyncId(uid, sequence, time))
+        pbGetMessageCacheList.addCache(syncId(uid, sequence.toLong(), time.toLong()))
 
     override fun syncPushTrans(uid: Long, sequence: Int, time: Int): Boolean =
-        pbPushTransMsgCacheList.addCache(PbPushTransMsgSyncId(uid, sequence, time))
+        pbPushTransMsgCacheList.addCache(syncId(uid, sequence.toLong(), time.toLong()))
 
     override fun syncGroupMessageReceipt(messageRandom: Int): Boolean =
-        pendingGroupMessageReceiptCacheList.addCache(PendingGroupMessageReceiptSyncId(messageRandom))
+        pendingGroupMessageReceiptCacheList.addCache(messageRandom.toLong())
 
     override fun containsGroupMessageReceipt(messageRandom: Int): Boolean =
-        pendingGroupMessageReceiptCacheList.contains { it.messageRandom == messageRandom }
-
-    data class PbGetMessageSyncId(
-        val uid: Long,
-        val sequence: Int,
-        val time: Int,
-    )
-
-    data class SystemMsgNewSyncId(
-        val sequence: Long,
-        val time: Long,
-    )
-
-    data class PbPushTransMsgSyncId(
-        val uid: Long,
-        val sequence: Int,
-        val time: Int,
-    )
-
-    data class OnlinePushReqPushSyncId(
-        val uid: Long,
-        val sequence: Short,
-        val time: Long,
-    )
-
-    data class PendingGroupMessageReceiptSyncId(
-        val messageRandom: Int,
-    )
-
-}
\ No newline at end of file
+        messageRandom.toLong() in pendingGroupMessageReceiptCacheList
+
+    override fun toString(): String {
+        return "SyncControllerImpl(" +
+                "pbGetMessage=$pbGetMessageCacheList, " +
+                "systemMsgNewGroup=$systemMsgNewGroupCacheList, " +
+                "systemMsgNewFriend=$systemMsgNewFriendCacheList, " +
+                "pbPushTransMsg=$pbPushTransMsgCacheList, " +
+                "onlinePushReqPush=$onlinePushReqPushCacheList, " +
+                "pendingGroupMessageReceipt=$pendingGroupMessageReceiptCacheList)"
+    }
+}
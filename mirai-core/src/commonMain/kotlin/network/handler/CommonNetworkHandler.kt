@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -12,6 +12,7 @@ package net.mamoe.mirai.internal.network.handler
 import io.ktor.utils.io.core.*
 import kotlinx.coroutines.*
 import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ClosedSendChannelException
 import kotlinx.coroutines.channels.onFailure
 import net.mamoe.mirai.internal.network.components.*
 import net.mamoe.mirai.internal.network.handler.NetworkHandler.Companion.runUnwrapCancellationException
@@ -106,11 +107,32 @@ internal abstract class CommonNetworkHandler<Conn>(
         private val ssoProcessor: SsoProcessor by lazy { context[SsoProcessor] }
 
 
-        private val queue: Channel<ByteReadPacket> = Channel<ByteReadPacket>(Channel.BUFFERED) { undelivered ->
+        private val configuration get() = context.bot.configuration
+
+        /**
+         * Channels of workers processing decoded packets, or `null` if each packet is processed in its own coroutine.
+         *
+         * @see BotConfiguration.packetProcessingWorkers
+         */
+        private val workers: Array<Channel<RawIncomingPacket>>? =
+            configuration.packetProcessingWorkers.takeIf { it > 0 }?.let { count ->
+                Array(count) { index -> createWorker(index) }
+            }
+
+        /**
+         * Called with `true` when decoding is suspended because a worker is full, and with `false` when it resumes.
+         * Transports should stop reading from the connection meanwhile, so that frames do not pile up in [queue].
+         */
+        var onDecodingSuspended: (suspended: Boolean) -> Unit = {}
+
+        // Frames received after decoding is suspended, before the transport stops reading, must not be rejected.
+        private val queue: Channel<ByteArray> = Channel<ByteArray>(
+            if (workers == null) Channel.BUFFERED else Channel.UNLIMITED
+        ) { undelivered ->
             launch { sendQueue(undelivered) }
         }.also { channel -> coroutineContext[Job]!!.invokeOnCompletion { channel.close(it) } }
 
-        private suspend inline fun sendQueue(packet: ByteReadPacket) {
+        private suspend inline fun sendQueue(packet: ByteArray) {
             queue.send(packet)
         }
 
@@ -122,26 +144,78 @@ internal abstract class CommonNetworkHandler<Conn>(
                     result.onFailure { if (it is CancellationException) return@launch }
 
                     result.getOrNull()?.let { packet ->
-                        try {
-                            val decoded = decodePacket(packet)
-                            launch(start = CoroutineStart.UNDISPATCHED) { processBody(decoded) }
+                        val decoded = try {
+                            decodePacket(packet)
                         } catch (e: Throwable) {
                             if (e is CancellationException) return@launch
                             handleExceptionInDecoding(e)
-                            logger.error("Error while decoding packet '${packet}'", e)
+                            logger.error("Error while decoding packet: len=${packet.size}", e)
+                            return@let
                         }
+                        dispatchBody(decoded)
+                    }
+                }
+            }
+        }
+
+        private fun createWorker(index: Int): Channel<RawIncomingPacket> {
+            val channel = Channel<RawIncomingPacket>(
+                capacity = configuration.packetProcessingQueueCapacity,
+                onBufferOverflow = configuration.packetProcessingOverflow,
+                onUndeliveredElement = { raw ->
+                    if (isActive) logger.warning { "Packet processing queue #$index is full, dropped packet ${raw.commandName}" }
+                }
+            )
+            coroutineContext[Job]!!.invokeOnCompletion { channel.close(it) }
+            launch {
+                for (raw in channel) {
+                    try {
+                        processBody(raw)
+                    } catch (e: Throwable) {
+                        if (e is CancellationException) return@launch
+                        logger.error("Error while processing packet ${raw.commandName}", e)
                     }
                 }
             }
+            return channel
         }
 
-        private fun decodePacket(packet: ByteReadPacket): RawIncomingPacket {
+        /**
+         * Packets of the same command are always processed by the same worker, in the order they are received.
+         * With `BufferOverflow.SUSPEND`, decoding is suspended while the target worker is full, see [onDecodingSuspended].
+         *
+         * Responses to pending [sendAndExpect] requests bypass the workers and are processed immediately,
+         * because a processor running in a worker may be the one waiting for them.
+         */
+        private suspend fun dispatchBody(raw: RawIncomingPacket) {
+            val workers = workers
+            if (workers == null || isResponseExpected(raw.commandName, raw.sequenceId)) {
+                launch(start = CoroutineStart.UNDISPATCHED) { processBody(raw) }
+                return
+            }
+            val worker = workers[(raw.commandName.hashCode() and Int.MAX_VALUE) % workers.size]
+            val result = worker.trySend(raw)
+            if (result.isSuccess || result.isClosed) return // closed: pipeline is closing
+
+            onDecodingSuspended(true)
+            try {
+                worker.send(raw)
+            } catch (e: ClosedSendChannelException) {
+                // pipeline is closing
+            } finally {
+                onDecodingSuspended(false)
+            }
+        }
+
+        /**
+         * [packet] is decrypted in place by [PacketCodec.decodeRaw] and must not be used afterwards.
+         */
+        private fun decodePacket(packet: ByteArray): RawIncomingPacket {
             return if (packetLogger.isDebugEnabled) {
-                val bytes = packet.readBytes()
-                logger.verbose { "Decoding: len=${bytes.size}, value=${bytes.toUHexString()}" }
+                logger.verbose { "Decoding: len=${packet.size}, value=${packet.toUHexString()}" }
                 val raw = packetCodec.decodeRaw(
                     ssoProcessor.ssoSession,
-                    bytes.toReadPacket()
+                    packet
                 )
                 logger.verbose { "Decoded: ${raw.commandName}" }
                 raw
@@ -161,11 +235,18 @@ internal abstract class CommonNetworkHandler<Conn>(
             } else collectReceived(result)
         }
 
-        fun send(packet: ByteReadPacket) {
+        /**
+         * Submits a whole frame. Ownership of [packet] is transferred to this pipeline.
+         */
+        fun send(packet: ByteArray) {
             queue.trySend(packet).onFailure {
-                throw it ?: throw IllegalStateException("Internal error: Failed to decode '$packet' without reason.")
+                throw it ?: throw IllegalStateException("Internal error: Failed to decode packet (len=${packet.size}) without reason.")
             }
         }
+
+        fun send(packet: ByteReadPacket) {
+            send(packet.readBytes())
+        }
     }
 
 
@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -11,6 +11,7 @@ package net.mamoe.mirai.internal.network.handler
 
 import kotlinx.atomicfu.locks.SynchronizedObject
 import kotlinx.atomicfu.locks.reentrantLock
+import kotlinx.atomicfu.locks.synchronized
 import kotlinx.atomicfu.locks.withLock
 import kotlinx.coroutines.*
 import kotlinx.coroutines.channels.Channel
@@ -94,13 +95,17 @@ internal abstract class NetworkHandlerSupport(
      * Called when a packet is received.
      */
     internal open fun collectReceived(packet: IncomingPacket) {
-        for (listener in packetListeners) {
-            if (!listener.isExpected(packet)) continue
-            if (packetListeners.remove(listener)) {
-                packet.result.fold(
-                    onLeft = { listener.result.completeExceptionally(it) },
-                    onRight = { listener.result.complete(it) }
-                )
+        val listeners = packetListeners[packet.sequenceId]
+        if (listeners != null) {
+            for (listener in listeners) {
+                if (!listener.isExpected(packet)) continue
+                if (removePacketListener(listener)) {
+                    responseStatistics.onResponse(currentTimeMillis() - listener.sentTime)
+                    packet.result.fold(
+                        onLeft = { listener.result.completeExceptionally(it) },
+                        onRight = { listener.result.complete(it) }
+                    )
+                }
             }
         }
         launch(start = CoroutineStart.UNDISPATCHED) {
@@ -114,12 +119,14 @@ internal abstract class NetworkHandlerSupport(
 
     final override suspend fun <P : Packet?> sendAndExpect(packet: OutgoingPacket, timeout: Long, attempts: Int): P {
         require(attempts >= 1) { "attempts must be at least 1." }
+        packet.build() // may wait for EncryptService, which should not be counted as response latency
         val listener = PacketListener(packet.commandName, packet.sequenceId)
-        packetListeners.add(listener)
+        addPacketListener(listener)
         withExceptionCollector {
             try {
                 repeat(attempts) {
                     context[PacketLoggingStrategy].logSent(logger, packet)
+                    listener.sentTime = currentTimeMillis()
                     sendPacketImpl(packet)
                     try {
                         @Suppress("UNCHECKED_CAST")
@@ -127,12 +134,13 @@ internal abstract class NetworkHandlerSupport(
                             listener.result.await()
                         } as P
                     } catch (e: TimeoutCancellationException) {
+                        responseStatistics.onTimeout()
                         collectException(e)
                     }
                 }
                 throwLast()
             } finally {
-                packetListeners.remove(listener)
+                removePacketListener(listener)
                 if (listener.result.isActive) {
                     listener.result.completeExceptionally(
                         getLast() ?: IllegalStateException("Internal error: sendAndExpect failed without an exception.")
@@ -149,6 +157,7 @@ internal abstract class NetworkHandlerSupport(
     ): P = sendAndExpect(packet as OutgoingPacket, timeout, attempts)
 
     final override suspend fun sendWithoutExpect(packet: OutgoingPacket) {
+        packet.build()
         context[PacketLoggingStrategy].logSent(logger, packet)
         sendPacketImpl(packet)
     }
@@ -165,11 +174,63 @@ internal abstract class NetworkHandlerSupport(
          */
         val result = CompletableDeferred<Packet?>()
 
+        /**
+         * Time when the packet is sent for the last attempt, used by [responseStatistics].
+         */
+        @Volatile
+        var sentTime: Long = 0
+
         fun isExpected(packet: IncomingPacket): Boolean =
             this.commandName == packet.commandName && this.sequenceId == packet.sequenceId
     }
 
-    private val packetListeners = ConcurrentLinkedDeque<PacketListener>()
+    /**
+     * Pending [PacketListener]s indexed by [PacketListener.sequenceId],
+     * so [collectReceived] finds the listener without scanning all requests in flight.
+     *
+     * Sequence ids are unique in practice, but the value is a list so that listeners with the same id are still served.
+     * Lists are copy-on-write and replaced under [packetListenersLock], while [collectReceived] reads without locking.
+     */
+    private val packetListeners: MutableMap<Int, List<PacketListener>> = ConcurrentHashMap()
+    private val packetListenersLock = SynchronizedObject()
+
+    /**
+     * In-flight count and response latencies of [sendAndExpect].
+     */
+    internal val responseStatistics = PacketResponseStatistics()
+
+    /**
+     * @return `true` if a [sendAndExpect] call is waiting for the packet with [commandName] and [sequenceId]
+     */
+    protected fun isResponseExpected(commandName: String, sequenceId: Int): Boolean {
+        val listeners = packetListeners[sequenceId] ?: return false
+        return listeners.any { it.commandName == commandName }
+    }
+
+    private fun addPacketListener(listener: PacketListener) {
+        synchronized(packetListenersLock) {
+            val existing = packetListeners[listener.sequenceId]
+            packetListeners[listener.sequenceId] = if (existing == null) listOf(listener) else existing + listener
+        }
+        responseStatistics.onRequest()
+    }
+
+    /**
+     * @return `true` if [listener] was pending and is removed by this call
+     */
+    private fun removePacketListener(listener: PacketListener): Boolean {
+        synchronized(packetListenersLock) {
+            val existing = packetListeners[listener.sequenceId] ?: return false
+            if (listener !in existing) return false
+            if (existing.size == 1) {
+                packetListeners.remove(listener.sequenceId)
+            } else {
+                packetListeners[listener.sequenceId] = existing - listener
+            }
+        }
+        responseStatistics.onRequestFinished()
+        return true
+    }
 
     ///////////////////////////////////////////////////////////////////////////
     // state impl
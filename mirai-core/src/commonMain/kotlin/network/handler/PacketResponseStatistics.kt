@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.network.handler
+
+import kotlinx.atomicfu.AtomicLongArray
+import kotlinx.atomicfu.atomic
+
+/**
+ * Counts requests of [NetworkHandler.sendAndExpect] that are waiting for responses,
+ * and records the latency of each response into a fixed-bucket histogram.
+ *
+ * All operations are lock-free and safe to be called concurrently.
+ */
+internal class PacketResponseStatistics {
+    private val inFlight = atomic(0)
+    private val timeouts = atomic(0L)
+    private val latencyBuckets = AtomicLongArray(LATENCY_BUCKET_BOUNDS.size + 1)
+
+    fun onRequest() {
+        inFlight.incrementAndGet()
+    }
+
+    fun onRequestFinished() {
+        inFlight.decrementAndGet()
+    }
+
+    fun onTimeout() {
+        timeouts.incrementAndGet()
+    }
+
+    fun onResponse(latencyMillis: Long) {
+        var index = 0
+        while (index < LATENCY_BUCKET_BOUNDS.size && latencyMillis > LATENCY_BUCKET_BOUNDS[index]) index++
+        latencyBuckets[index].incrementAndGet()
+    }
+
+    fun snapshot(): Snapshot = Snapshot(
+        inFlight = inFlight.value,
+        timeouts = timeouts.value,
+        latencyHistogram = List(LATENCY_BUCKET_BOUNDS.size + 1) { latencyBuckets[it].value },
+    )
+
+    /**
+     * @property latencyHistogram response counts, where the element at `i` counts latencies
+     * not greater than `LATENCY_BUCKET_BOUNDS[i]` (and greater than the previous bound).
+     * The last element counts latencies greater than all bounds.
+     */
+    data class Snapshot(
+        val inFlight: Int,
+        val timeouts: Long,
+        val latencyHistogram: List<Long>,
+    ) {
+        val responses: Long get() = latencyHistogram.sum()
+
+        override fun toString(): String = buildString {
+            append("PacketResponseStatistics(inFlight=$inFlight, responses=$responses, timeouts=$timeouts, latency={")
+            latencyHistogram.forEachIndexed { index, count ->
+                if (index != 0) append(", ")
+                if (index < LATENCY_BUCKET_BOUNDS.size) {
+                    append("<=").append(LATENCY_BUCKET_BOUNDS[index]).append("ms")
+                } else {
+                    append(">").append(LATENCY_BUCKET_BOUNDS.last()).append("ms")
+                }
+                append('=').append(count)
+            }
+            append("})")
+        }
+    }
+
+    companion object {
+        /**
+         * Upper bounds (inclusive) in milliseconds of latency buckets.
+         */
+        val LATENCY_BUCKET_BOUNDS = longArrayOf(10, 50, 100, 200, 500, 1000, 2000, 5000, 10000)
+    }
+}
@@ -60,7 +60,7 @@ internal object Highway {
         fallbackSession: (Throwable) -> BdhSession = { throw IllegalStateException("Failed to get bdh session", it) },
         resultChecker: (CSDataHighwayHead.RspDataHighwayHead) -> Boolean = { it.errorCode == 0 },
         createConnection: suspend (ip: String, port: Int) -> HighwayProtocolChannel = { ip, port ->
-            PlatformSocket.connect(ip, port)
+            bot.components.getOrNull(HighwayConnectionPool)?.borrow(ip, port) ?: PlatformSocket.connect(ip, port)
         },
         callback: ProgressionCallback? = null,
         dataFlag: Int = 4096,
@@ -333,12 +333,18 @@ internal suspend fun ChunkedFlowSession<ByteReadPacket>.sendConcurrently(
     repeat(coroutines) {
         launch(CoroutineName("Worker $it")) {
             val socket = createConnection()
-            while (isActive) {
-                val next = channel.receiveCatching().getOrNull() ?: return@launch // concurrent-safe receive
-                val result = next.withUse {
-                    socket.sendReceiveHighway(next, resultChecker)
+            var reusable = false
+            try {
+                while (isActive) {
+                    val next = channel.receiveCatching().getOrNull() ?: break // concurrent-safe receive
+                    val result = next.withUse {
+                        socket.sendReceiveHighway(next, resultChecker)
+                    }
+                    respCallback(result)
                 }
-                respCallback(result)
+                reusable = true
+            } finally {
+                releaseHighwayConnection(socket, reusable)
             }
         }
     }
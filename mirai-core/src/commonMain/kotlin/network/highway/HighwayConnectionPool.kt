@@ -0,0 +1,210 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.network.highway
+
+import io.ktor.utils.io.core.*
+import kotlinx.atomicfu.atomic
+import kotlinx.coroutines.*
+import net.mamoe.mirai.internal.network.component.ComponentKey
+import net.mamoe.mirai.internal.utils.PlatformSocket
+import net.mamoe.mirai.utils.*
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * Keeps highway connections alive between uploads, so that uploading does not pay TCP setup for every resource.
+ *
+ * Connections are borrowed by [sendConcurrently] and returned by [releaseHighwayConnection].
+ */
+internal interface HighwayConnectionPool {
+    /**
+     * Borrows an idle connection to `ip:port`, or connects a new one.
+     */
+    suspend fun borrow(ip: String, port: Int): HighwayProtocolChannel
+
+    /**
+     * Number of idle connections for all addresses.
+     */
+    val idleCount: Int
+
+    /**
+     * Closes all idle connections.
+     */
+    fun evictAll()
+
+    companion object : ComponentKey<HighwayConnectionPool>
+}
+
+/**
+ * Returns [channel] to the pool it is borrowed from, or closes it if it is not pooled.
+ *
+ * @param reusable `false` if [channel] is in an unknown state, e.g. after an exception, so it must be closed.
+ */
+internal fun releaseHighwayConnection(channel: HighwayProtocolChannel, reusable: Boolean) {
+    when (channel) {
+        is HighwayConnectionPoolImpl.PooledConnection -> channel.release(reusable)
+        is Closeable -> channel.close()
+    }
+}
+
+/**
+ * @param maxIdlePerAddress max idle connections kept for each address, extra connections are closed when released.
+ * @param idleTimeoutMillis idle connections are closed after this time, before the server does.
+ */
+internal class HighwayConnectionPoolImpl(
+    parentCoroutineContext: CoroutineContext,
+    private val maxIdlePerAddress: () -> Int,
+    private val idleTimeoutMillis: Long = 30_000,
+    private val connect: suspend (ip: String, port: Int) -> PlatformSocket = { ip, port ->
+        PlatformSocket.connect(ip, port)
+    },
+) : HighwayConnectionPool, CoroutineScope by parentCoroutineContext.childScope("HighwayConnectionPool") {
+    private class IdleConnection(
+        val socket: PlatformSocket,
+        val idleSince: Long,
+    )
+
+    private val idle: MutableMap<String, MutableDeque<IdleConnection>> = ConcurrentHashMap()
+    private val evictionJobStarted = atomic(false)
+
+    init {
+        coroutineContext.job.invokeOnCompletion { evictAll() }
+    }
+
+    override val idleCount: Int get() = idle.values.sumOf { it.size }
+
+    override suspend fun borrow(ip: String, port: Int): HighwayProtocolChannel {
+        val address = "$ip:$port"
+        val queue = idle[address]
+        if (queue != null) {
+            while (true) {
+                val connection = queue.poll() ?: break
+                if (connection.isExpired(currentTimeMillis()) || !connection.socket.isOpen) {
+                    connection.socket.close()
+                    continue
+                }
+                return PooledConnection(ip, port, connection.socket, reused = true)
+            }
+        }
+        return PooledConnection(ip, port, connect(ip, port), reused = false)
+    }
+
+    private fun IdleConnection.isExpired(now: Long) = now - idleSince >= idleTimeoutMillis
+
+    private fun offer(address: String, socket: PlatformSocket) {
+        if (!isActive || !socket.isOpen) {
+            socket.close()
+            return
+        }
+        val queue = idle.getOrPut(address) { ConcurrentLinkedDeque() }
+        if (queue.size >= maxIdlePerAddress()) {
+            socket.close()
+            return
+        }
+        queue.addFirst(IdleConnection(socket, currentTimeMillis())) // most recently used first
+        startEvictionJob()
+    }
+
+    private fun startEvictionJob() {
+        if (!evictionJobStarted.compareAndSet(expect = false, update = true)) return
+        launch(CoroutineName("HighwayConnectionPool eviction")) {
+            try {
+                while (isActive && idleCount != 0) {
+                    delay(idleTimeoutMillis)
+                    evictExpired()
+                }
+            } finally {
+                evictionJobStarted.value = false
+            }
+        }
+    }
+
+    private fun evictExpired() {
+        val now = currentTimeMillis()
+        for (queue in idle.values) {
+            queue.removeAll { connection ->
+                connection.isExpired(now).also { expired -> if (expired) connection.socket.close() }
+            }
+        }
+    }
+
+    override fun evictAll() {
+        for (queue in idle.values) {
+            while (true) {
+                (queue.poll() ?: break).socket.close()
+            }
+        }
+    }
+
+    /**
+     * A borrowed connection.
+     *
+     * The server may have closed a [reused] connection without being noticed.
+     * If the first exchange on such a connection fails, it is retried once on a new connection.
+     */
+    inner class PooledConnection(
+        private val ip: String,
+        private val port: Int,
+        private var socket: PlatformSocket,
+        private var reused: Boolean,
+    ) : HighwayProtocolChannel {
+        private var pending: ByteReadPacket? = null
+        private val released = atomic(false)
+
+        override suspend fun send(packet: ByteReadPacket) {
+            if (!reused) return socket.send(packet)
+
+            pending = packet.copy()
+            try {
+                socket.send(packet)
+            } catch (e: Exception) {
+                reconnectAndResend(e)
+            }
+        }
+
+        override suspend fun read(): ByteReadPacket {
+            if (!reused) return socket.read()
+
+            var result = try {
+                socket.read()
+            } catch (e: Exception) {
+                reconnectAndResend(e)
+                socket.read()
+            }
+            if (result.isEmpty && pending != null) {
+                // end of stream: the server has closed the connection
+                result.release()
+                reconnectAndResend(IllegalStateException("Highway connection to $ip:$port is closed by server"))
+                result = socket.read()
+            }
+            // Connection is verified to be alive.
+            reused = false
+            pending?.release()
+            pending = null
+            return result
+        }
+
+        private suspend fun reconnectAndResend(cause: Exception) {
+            if (cause is CancellationException) throw cause
+            val packet = pending ?: throw cause
+            pending = null
+            reused = false
+            socket.close()
+            socket = connect(ip, port)
+            socket.send(packet)
+        }
+
+        fun release(reusable: Boolean) {
+            if (!released.compareAndSet(expect = false, update = true)) return
+            pending?.release()
+            pending = null
+            if (reusable) offer("$ip:$port", socket) else socket.close()
+        }
+    }
+}
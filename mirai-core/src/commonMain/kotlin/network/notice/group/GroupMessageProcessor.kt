@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2021 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  *  此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  *  Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -11,8 +11,6 @@ package net.mamoe.mirai.internal.network.notice.group
 
 import net.mamoe.mirai.Bot
 import net.mamoe.mirai.contact.Member
-import net.mamoe.mirai.event.AbstractEvent
-import net.mamoe.mirai.event.Event
 import net.mamoe.mirai.event.broadcast
 import net.mamoe.mirai.event.events.GroupMessageEvent
 import net.mamoe.mirai.event.events.GroupMessageSyncEvent
@@ -24,6 +22,7 @@ import net.mamoe.mirai.internal.message.RefineContextKey
 import net.mamoe.mirai.internal.message.SimpleRefineContext
 import net.mamoe.mirai.internal.message.toMessageChainOnline
 import net.mamoe.mirai.internal.network.Packet
+import net.mamoe.mirai.internal.network.components.MessageReceiptTable
 import net.mamoe.mirai.internal.network.components.NoticePipelineContext
 import net.mamoe.mirai.internal.network.components.SimpleNoticeProcessor
 import net.mamoe.mirai.internal.network.components.SyncController.Companion.syncController
@@ -49,7 +48,7 @@ internal class GroupMessageProcessor(
         val messageRandom: Int,
         val sequenceId: Int,
         val fromAppId: Int,
-    ) : Packet, Event, Packet.NoLog, AbstractEvent() {
+    ) : Packet, Packet.NoLog {
         override fun toString(): String {
             return "OnlinePush.PbPushGroupMsg.SendGroupMessageReceipt(messageRandom=$messageRandom, sequenceId=$sequenceId)"
         }
@@ -83,7 +82,9 @@ internal class GroupMessageProcessor(
                 // 3116=group music share
                 // 2021=group file
                 // message sent by bot
-                collect(SendGroupMessageReceipt(bot, messageRandom, msgHead.msgSeq, msgHead.fromAppid))
+                val receipt = SendGroupMessageReceipt(bot, messageRandom, msgHead.msgSeq, msgHead.fromAppid)
+                bot.components[MessageReceiptTable].completeGroupReceipt(receipt)
+                collect(receipt)
                 return
             }
             // else: sync form other device
@@ -92,7 +93,16 @@ internal class GroupMessageProcessor(
         if (msgHead.groupInfo == null) return
 
         val group = bot.getGroup(msgHead.groupInfo.groupCode) as GroupImpl? ?: return // 机器人还正在进群
+        withMembersLoaded(group, data) { processGroupMessage(data, group, msgHead.groupInfo) }
+    }
 
+    private suspend fun NoticePipelineContext.processGroupMessage(
+        data: MsgOnlinePush.PbPushMsg,
+        group: GroupImpl,
+        groupInfo: MsgComm.GroupInfo,
+    ) {
+        val msgHead = data.msg.msgHead
+        val isFromSelfAccount = msgHead.fromUin == bot.id
 
         // fragmented message
         val msgs = group.groupPkgMsgParsingCache.tryMerge(data).ifEmpty { return }
@@ -141,7 +151,7 @@ internal class GroupMessageProcessor(
                 logger.warning { "Failed to find member ${msgHead.fromUin} in group ${group.id}" }
                 return
             }
-            nameCard = findSenderName(extraInfo, msgHead.groupInfo) ?: sender.generateMemberNickFromMember()
+            nameCard = findSenderName(extraInfo, groupInfo) ?: sender.generateMemberNickFromMember()
         }
 
         sender.info?.castOrNull<MemberInfoImpl>()?.run {
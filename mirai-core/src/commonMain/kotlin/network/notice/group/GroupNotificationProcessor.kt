@@ -18,6 +18,7 @@ import net.mamoe.mirai.internal.QQAndroidBot
 import net.mamoe.mirai.internal.contact.GroupImpl
 import net.mamoe.mirai.internal.contact.checkIsGroupImpl
 import net.mamoe.mirai.internal.contact.checkIsMemberImpl
+import net.mamoe.mirai.internal.contact.withMembersLoaded
 import net.mamoe.mirai.internal.network.Packet
 import net.mamoe.mirai.internal.network.components.MixedNoticeProcessor
 import net.mamoe.mirai.internal.network.components.NoticePipelineContext
@@ -155,7 +156,7 @@ internal class GroupNotificationProcessor(
     // MsgType0x2DC
     ///////////////////////////////////////////////////////////////////////////
 
-    override suspend fun NoticePipelineContext.processImpl(data: MsgType0x2DC) {
+    override suspend fun NoticePipelineContext.processImpl(data: MsgType0x2DC) = withMembersLoaded(data.group, data) {
         when (data.kind) {
             0x0C -> processMute(data)
             0x0E -> processAllowAnonymousChat(data)
@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -10,8 +10,6 @@
 package net.mamoe.mirai.internal.network.notice.priv
 
 import net.mamoe.mirai.Bot
-import net.mamoe.mirai.event.AbstractEvent
-import net.mamoe.mirai.event.Event
 import net.mamoe.mirai.event.events.*
 import net.mamoe.mirai.internal.contact.*
 import net.mamoe.mirai.internal.getGroupByUinOrCode
@@ -19,6 +17,7 @@ import net.mamoe.mirai.internal.message.RefineContextKey
 import net.mamoe.mirai.internal.message.SimpleRefineContext
 import net.mamoe.mirai.internal.message.toMessageChainOnline
 import net.mamoe.mirai.internal.network.Packet
+import net.mamoe.mirai.internal.network.components.MessageReceiptTable
 import net.mamoe.mirai.internal.network.components.NoticePipelineContext
 import net.mamoe.mirai.internal.network.components.NoticePipelineContext.Companion.KEY_FROM_SYNC
 import net.mamoe.mirai.internal.network.components.NoticePipelineContext.Companion.fromSync
@@ -52,7 +51,7 @@ internal class PrivateMessageProcessor : SimpleNoticeProcessor<MsgComm.Msg>(type
         val messageRandom: Int,
         val sequenceId: Int,
         val fromAppId: Int,
-    ) : Packet, Event, Packet.NoLog, AbstractEvent() {
+    ) : Packet, Packet.NoLog {
         override fun toString(): String {
             return "OnlinePush.PbC2CMsgSync.SendPrivateMessageReceipt(messageRandom=$messageRandom, sequenceId=$sequenceId)"
         }
@@ -115,7 +114,9 @@ internal class PrivateMessageProcessor : SimpleNoticeProcessor<MsgComm.Msg>(type
             -> {
                 val tmpHead = msgHead.c2cTmpMsgHead ?: return
                 val group = bot.getGroupByUinOrCode(tmpHead.groupUin) ?: return
-                handlePrivateMessage(data, group[senderUin] ?: return)
+                withMembersLoaded(group, data) {
+                    handlePrivateMessage(data, group[senderUin] ?: return@withMembersLoaded)
+                }
             }
 
             else -> markNotConsumed()
@@ -169,10 +170,8 @@ internal class PrivateMessageProcessor : SimpleNoticeProcessor<MsgComm.Msg>(type
         fromAppId: Int,
     ) = data.context {
         val messageRandom = data.msgBody.richText.attr?.random ?: return
-        collect(
-            SendPrivateMessageReceipt(
-                bot, messageRandom, data.msgHead.msgSeq, fromAppId
-            )
-        )
+        val receipt = SendPrivateMessageReceipt(bot, messageRandom, data.msgHead.msgSeq, fromAppId)
+        bot.components[MessageReceiptTable].completePrivateReceipt(receipt)
+        collect(receipt)
     }
 }
\ No newline at end of file
@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -8,32 +8,108 @@
  */
 package net.mamoe.mirai.internal.network.protocol
 
-import net.mamoe.mirai.utils.LinkedList
-import kotlin.jvm.Synchronized
+import kotlinx.atomicfu.atomic
+import kotlinx.atomicfu.locks.SynchronizedObject
+import kotlinx.atomicfu.locks.synchronized
 
-internal class SyncingCacheList<E>(private val size: Int = 50) {
-    private val packetIdList = LinkedList<E>()
+/**
+ * A size-bounded window of recently seen sync ids, used to drop packets that the server pushes more than once.
+ *
+ * Ids are primitive [Long] keys, see [syncId] for combining multiple fields.
+ * The window is split into stripes by key, each is a ring buffer guarded by its own lock,
+ * so concurrent pushes rarely contend and no object is allocated per id.
+ * A key always falls in the same stripe, thus [addCache] is atomic for each key.
+ *
+ * @param size approximate number of most recent ids remembered
+ */
+internal class SyncingCacheList(
+    size: Int = 50,
+    stripeCount: Int = defaultStripeCount(size),
+) {
+    init {
+        require(size > 0) { "size must be positive, but was $size" }
+        require(stripeCount in 1..size) { "stripeCount must be in 1..$size, but was $stripeCount" }
+    }
+
+    private val stripes = Array(stripeCount) { Stripe((size + stripeCount - 1) / stripeCount) }
+
+    private val _hits = atomic(0L)
+    private val _misses = atomic(0L)
+
+    /**
+     * Count of [addCache] calls that found a duplicate.
+     */
+    val hits: Long get() = _hits.value
+
+    /**
+     * Count of [addCache] calls that added a new id.
+     */
+    val misses: Long get() = _misses.value
+
+    /**
+     * Adds [key] to the window.
+     *
+     * @return `false` if [key] is already in the window (duplicate), `true` otherwise.
+     */
+    fun addCache(key: Long): Boolean {
+        val stripe = stripeOf(key)
+        val added = synchronized(stripe) { stripe.add(key) }
+        if (added) _misses.incrementAndGet() else _hits.incrementAndGet()
+        return added
+    }
 
-    @Synchronized // faster than suspending Mutex
-    fun addCache(element: E): Boolean {
-        if (packetIdList.contains(element)) return false // duplicate
-        packetIdList.add(element)
-        if (packetIdList.size >= size) packetIdList.removeFirst()
-        return true
+    operator fun contains(key: Long): Boolean {
+        val stripe = stripeOf(key)
+        return synchronized(stripe) { stripe.indexOf(key) != -1 }
     }
 
-    @Synchronized
-    fun removeFirst(condition: (E) -> Boolean): Boolean {
-        val itr = packetIdList.listIterator()
-        for (element in itr) {
-            if (element.let(condition)) {
-                itr.remove()
-                return true
+    private fun stripeOf(key: Long): Stripe {
+        if (stripes.size == 1) return stripes[0]
+        val hash = (key xor (key ushr 32)).toInt()
+        return stripes[(hash and Int.MAX_VALUE) % stripes.size]
+    }
+
+    override fun toString(): String = "SyncingCacheList(hits=$hits, misses=$misses)"
+
+    private class Stripe(capacity: Int) : SynchronizedObject() {
+        private val keys = LongArray(capacity)
+        private var count = 0
+        private var next = 0
+
+        fun indexOf(key: Long): Int {
+            for (i in 0 until count) {
+                if (keys[i] == key) return i
             }
+            return -1
+        }
+
+        fun add(key: Long): Boolean {
+            if (indexOf(key) != -1) return false
+            keys[next] = key // overrides the oldest one when full
+            next = (next + 1) % keys.size
+            if (count < keys.size) count++
+            return true
         }
-        return false
     }
 
-    @Synchronized
-    fun contains(condition: (E) -> Boolean): Boolean = packetIdList.any(condition)
-}
\ No newline at end of file
+    companion object {
+        /**
+         * One stripe for each 16 ids, at most 8 stripes. Small windows are not striped.
+         */
+        fun defaultStripeCount(size: Int): Int = (size / 16).coerceIn(1, 8)
+
+        /**
+         * Combines fields of a sync id into a single key.
+         *
+         * The result is a 64-bit hash, so distinct ids collide with a negligible probability
+         * within a window of hundreds of ids.
+         */
+        fun syncId(a: Long, b: Long, c: Long = 0): Long {
+            var h = a * -0x61c8864680b583ebL + b // 0x9e3779b97f4a7c15
+            h = h * -0x61c8864680b583ebL + c
+            h = (h xor (h ushr 33)) * -0xae502812aa7333L // 0xff51afd7ed558ccd
+            h = (h xor (h ushr 33)) * -0x3b314601e57a13adL // 0xc4ceb9fe1a85ec53
+            return h xor (h ushr 33)
+        }
+    }
+}
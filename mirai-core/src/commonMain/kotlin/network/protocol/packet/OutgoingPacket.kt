@@ -11,12 +11,16 @@ package net.mamoe.mirai.internal.network.protocol.packet
 
 
 import io.ktor.utils.io.core.*
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import kotlinx.serialization.encodeToByteArray
 import kotlinx.serialization.protobuf.ProtoBuf
 import net.mamoe.mirai.internal.QQAndroidBot
 import net.mamoe.mirai.internal.network.*
 import net.mamoe.mirai.internal.network.components.EcdhInitialPublicKeyUpdater
+import net.mamoe.mirai.internal.network.components.PacketSigner
 import net.mamoe.mirai.internal.network.components.encryptServiceOrNull
+import net.mamoe.mirai.internal.network.handler.NetworkHandler
 import net.mamoe.mirai.internal.network.protocol.data.proto.SSOReserveField
 import net.mamoe.mirai.internal.network.protocol.packet.sso.TRpcRawPacket
 import net.mamoe.mirai.internal.spi.EncryptService
@@ -27,24 +31,76 @@ import net.mamoe.mirai.internal.utils.io.writeHex
 import net.mamoe.mirai.internal.utils.io.writeIntLVPacket
 import net.mamoe.mirai.utils.*
 import net.mamoe.mirai.utils.Either.Companion.fold
+import kotlin.jvm.Volatile
 import kotlin.random.Random
 
 @Suppress("unused")
-internal class OutgoingPacketWithRespType<R : Packet?> constructor(
-    remark: String?,
-    commandName: String,
-    sequenceId: Int,
-    delegate: ByteReadPacket
-) : OutgoingPacket(remark, commandName, sequenceId, delegate)
+internal class OutgoingPacketWithRespType<R : Packet?> : OutgoingPacket {
+    constructor(
+        remark: String?,
+        commandName: String,
+        sequenceId: Int,
+        delegate: ByteReadPacket
+    ) : super(remark, commandName, sequenceId, delegate)
+
+    constructor(
+        remark: String?,
+        commandName: String,
+        sequenceId: Int,
+        builder: suspend () -> ByteReadPacket
+    ) : super(remark, commandName, sequenceId, builder)
+}
 
-internal open class OutgoingPacket constructor(
+internal open class OutgoingPacket private constructor(
     remark: String?,
     val commandName: String,
     val sequenceId: Int,
-    delegate: ByteReadPacket
+    delegate: ByteArray?,
+    private var builder: (suspend () -> ByteReadPacket)?,
 ) {
-    val delegate = delegate.readBytes()
+    constructor(
+        remark: String?,
+        commandName: String,
+        sequenceId: Int,
+        delegate: ByteReadPacket
+    ) : this(remark, commandName, sequenceId, delegate.readBytes(), null)
+
+    /**
+     * Creates a packet whose content is built by [builder] when it is about to be sent,
+     * e.g. after its body is signed by [PacketSigner].
+     */
+    constructor(
+        remark: String?,
+        commandName: String,
+        sequenceId: Int,
+        builder: suspend () -> ByteReadPacket
+    ) : this(remark, commandName, sequenceId, null, builder)
+
+    @Volatile
+    private var built: ByteArray? = delegate
+    private val buildLock: Mutex? = if (builder == null) null else Mutex()
+
+    /**
+     * Content to be written to the socket. Available after [build].
+     */
+    val delegate: ByteArray
+        get() = built ?: error("OutgoingPacket $displayName is not built yet.")
+
     val displayName: String = if (remark == null) commandName else "$commandName($remark)"
+
+    /**
+     * Builds [delegate] if this packet is created with a builder. Does nothing if it is already built.
+     *
+     * Called by [NetworkHandler] before sending.
+     */
+    suspend fun build() {
+        if (built != null) return
+        buildLock!!.withLock {
+            if (built != null) return
+            built = builder!!().readBytes()
+            builder = null
+        }
+    }
 }
 
 internal class IncomingPacket private constructor(
@@ -109,7 +165,10 @@ internal enum class PacketEncryptType(val value: Int) {
 }
 
 
-@Suppress("DuplicatedCode")
+/**
+ * If [EncryptService] is available, the body is signed by [PacketSigner] when the packet is about to be sent,
+ * so that building packets does not block on the service.
+ */
 internal fun <R : Packet?> buildRawUniPacket(
     client: QQAndroidClient,
     encryptMethod: PacketEncryptType = PacketEncryptType.D2,
@@ -121,56 +180,84 @@ internal fun <R : Packet?> buildRawUniPacket(
     sequenceId: Int = client.nextSsoSequenceId(),
     body: BytePacketBuilder.(sequenceId: Int) -> Unit
 ): OutgoingPacketWithRespType<R> {
+    val bodyBytes = buildPacket { body(sequenceId) }.readBytes()
+    if (client.bot.encryptServiceOrNull == null) {
+        return OutgoingPacketWithRespType(
+            remark, commandName, sequenceId,
+            buildUniPacket(client, encryptMethod, commandName, key, extraData, uin, sequenceId, bodyBytes, null)
+        )
+    }
 
-    return OutgoingPacketWithRespType(remark, commandName, sequenceId, buildPacket {
-        writeIntLVPacket(lengthOffset = { it + 4 }) {
-            writeInt(0x0B) // req type simple
-            writeByte(encryptMethod.codec)
-            writeInt(sequenceId)
-            writeByte(0)
-            uin.let {
-                writeInt(it.length + 4)
-                writeText(it)
-            }
-            val encryptWorker = client.bot.encryptServiceOrNull
-            val bodyBytes = buildPacket { body(sequenceId) }.readBytes()
-            val signDataPacket = if (encryptWorker != null) {
+    return OutgoingPacketWithRespType(remark, commandName, sequenceId) {
+        val signResult = client.bot.components[PacketSigner].sign(sequenceId, commandName, bodyBytes)
+        buildUniPacket(client, encryptMethod, commandName, key, extraData, uin, sequenceId, bodyBytes, signResult)
+    }
+}
 
-                val signResult = encryptWorker.qSecurityGetSign(
-                    EncryptServiceContext(client.uin),
-                    sequenceId,
-                    commandName,
-                    bodyBytes
+@Suppress("DuplicatedCode")
+private fun buildUniPacket(
+    client: QQAndroidClient,
+    encryptMethod: PacketEncryptType,
+    commandName: String,
+    key: ByteArray,
+    extraData: ByteReadPacket,
+    uin: String,
+    sequenceId: Int,
+    bodyBytes: ByteArray,
+    signResult: EncryptService.SignResult?,
+): ByteReadPacket = buildPacket {
+    writeIntLVPacket(lengthOffset = { it + 4 }) {
+        writeInt(0x0B) // req type simple
+        writeByte(encryptMethod.codec)
+        writeInt(sequenceId)
+        writeByte(0)
+        uin.let {
+            writeInt(it.length + 4)
+            writeText(it)
+        }
+        val signDataPacket = if (signResult != null) {
+            buildPacket {
+                writeProtoBuf(
+                    SSOReserveField.ReserveFields.serializer(),
+                    SSOReserveField.ReserveFields(
+                        flag = 0,
+                        qimei = client.qimei16?.toByteArray() ?: EMPTY_BYTE_ARRAY,
+                        newconnFlag = 0,
+                        uid = client.uin.toString(),
+                        imsi = 0,
+                        networkType = 1,
+                        ipStackType = 1,
+                        messageType = 0,
+                        secInfo = SSOReserveField.SsoSecureInfo(
+                            secSig = signResult.sign,
+                            secDeviceToken = signResult.token,
+                            secExtra = signResult.extra
+                        ),
+                        ssoIpOrigin = 0,
+                    )
                 )
-                if (signResult != null)
-                    buildPacket {
-                        writeProtoBuf(
-                            SSOReserveField.ReserveFields.serializer(),
-                            SSOReserveField.ReserveFields(
-                                flag = 0,
-                                qimei = client.qimei16?.toByteArray() ?: EMPTY_BYTE_ARRAY,
-                                newconnFlag = 0,
-                                uid = client.uin.toString(),
-                                imsi = 0,
-                                networkType = 1,
-                                ipStackType = 1,
-                                messageType = 0,
-                                secInfo = SSOReserveField.SsoSecureInfo(
-                                    secSig = signResult.sign,
-                                    secDeviceToken = signResult.token,
-                                    secExtra = signResult.extra
-                                ),
-                                ssoIpOrigin = 0,
-                            )
-                        )
-                    } else BRP_STUB
-            } else BRP_STUB
-
-            if (signDataPacket != BRP_STUB && (extraData != BRP_STUB && extraData.remaining != 0L)) {
-                throw IllegalStateException("$commandName cmd needs sign but has extraData!")
             }
+        } else BRP_STUB
+
+        if (signDataPacket != BRP_STUB && (extraData != BRP_STUB && extraData.remaining != 0L)) {
+            throw IllegalStateException("$commandName cmd needs sign but has extraData!")
+        }
 
-            if (encryptMethod === PacketEncryptType.NoEncrypt) {
+        if (encryptMethod === PacketEncryptType.NoEncrypt) {
+            writeUniPacket(
+                commandName,
+                client.outgoingPacketSessionId,
+                if (signDataPacket == BRP_STUB) {
+                    extraData
+                } else {
+                    signDataPacket
+                },
+                (client.qimei16?.encodeToByteArray() ?: EMPTY_BYTE_ARRAY)
+            ) {
+                writeFully(bodyBytes)
+            }
+        } else {
+            encryptAndWrite(key) {
                 writeUniPacket(
                     commandName,
                     client.outgoingPacketSessionId,
@@ -183,24 +270,9 @@ internal fun <R : Packet?> buildRawUniPacket(
                 ) {
                     writeFully(bodyBytes)
                 }
-            } else {
-                encryptAndWrite(key) {
-                    writeUniPacket(
-                        commandName,
-                        client.outgoingPacketSessionId,
-                        if (signDataPacket == BRP_STUB) {
-                            extraData
-                        } else {
-                            signDataPacket
-                        },
-                        (client.qimei16?.encodeToByteArray() ?: EMPTY_BYTE_ARRAY)
-                    ) {
-                        writeFully(bodyBytes)
-                    }
-                }
             }
         }
-    })
+    }
 }
 
 @Suppress("DuplicatedCode", "NOTHING_TO_INLINE")
@@ -201,8 +201,18 @@ internal object KnownPacketFactories {
     // MessageSvcPushReaded 电脑阅读了别人的消息, 告知手机
     // OnlinePush.PbC2CMsgSync 电脑发消息给别人, 同步给手机
 
-    fun findPacketFactory(commandName: String): PacketFactory<*>? {
-        return OutgoingFactories.firstOrNull { it.receivingCommandName == commandName }
-            ?: IncomingFactories.firstOrNull { it.receivingCommandName == commandName }
+    /**
+     * Index of [OutgoingFactories] and [IncomingFactories] by [PacketFactory.receivingCommandName].
+     * If a command name is registered more than once, the first factory wins, outgoing factories first.
+     */
+    private val factoriesByCommandName: Map<String, PacketFactory<*>> = buildMap {
+        for (factory in OutgoingFactories) {
+            if (!containsKey(factory.receivingCommandName)) put(factory.receivingCommandName, factory)
+        }
+        for (factory in IncomingFactories) {
+            if (!containsKey(factory.receivingCommandName)) put(factory.receivingCommandName, factory)
+        }
     }
+
+    fun findPacketFactory(commandName: String): PacketFactory<*>? = factoriesByCommandName[commandName]
 }
@@ -67,6 +67,33 @@ public interface EncryptService {
         payload: ByteArray
     ): SignResult?
 
+    /**
+     * Signs multiple packets at once. Services backed by a remote signer may override this to sign them in one round trip.
+     *
+     * Outgoing packets are signed by this function asynchronously, with requests collected into batches.
+     * The default implementation calls [qSecurityGetSign] for each request in a blocking IO context.
+     *
+     * @return results in the same order as [requests]
+     * @since 2.17
+     */
+    public suspend fun qSecurityGetSignBatch(
+        context: EncryptServiceContext,
+        requests: List<SignRequest>,
+    ): List<SignResult?> = runBIO {
+        requests.map { request ->
+            qSecurityGetSign(context, request.sequenceId, request.commandName, request.payload)
+        }
+    }
+
+    /**
+     * @since 2.17
+     */
+    public class SignRequest(
+        public val sequenceId: Int,
+        public val commandName: String,
+        public val payload: ByteArray,
+    )
+
     public class SignResult(
         public val sign: ByteArray = EMPTY_BYTE_ARRAY,
         public val token: ByteArray = EMPTY_BYTE_ARRAY,
@@ -29,9 +29,10 @@ internal expect val BotConfiguration.cacheDirPath: String
 
 internal fun BotConfiguration.actualCacheDir(): MiraiFile = MiraiFile.create(workingDirPath).resolveMkdir(cacheDirPath)
 internal fun BotConfiguration.contactCacheDir(): MiraiFile = actualCacheDir().resolveMkdir("contacts")
-internal fun BotConfiguration.friendCacheFile(): MiraiFile = contactCacheDir().resolveCreateFile("friends.json")
+internal fun BotConfiguration.friendCacheFile(): MiraiFile = contactCacheDir().resolve("friends.bin")
+internal fun BotConfiguration.legacyFriendCacheFile(): MiraiFile = contactCacheDir().resolve("friends.json")
 internal fun BotConfiguration.groupCacheDir(): MiraiFile = contactCacheDir().resolveMkdir("groups")
-internal fun BotConfiguration.groupCacheFile(groupId: Long): MiraiFile =
-    groupCacheDir().resolveCreateFile("$groupId.json")
+internal fun BotConfiguration.groupCacheFile(groupId: Long): MiraiFile = groupCacheDir().resolve("$groupId.bin")
+internal fun BotConfiguration.legacyGroupCacheFile(groupId: Long): MiraiFile = groupCacheDir().resolve("$groupId.json")
 
 internal fun BotConfiguration.accountSecretsFile(): MiraiFile = actualCacheDir().resolve("account.secrets")
\ No newline at end of file
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.utils
+
+import net.mamoe.mirai.utils.ConcurrentHashMap
+
+/**
+ * Deduplicates equal strings, so that only one instance is kept alive.
+ *
+ * The pool itself holds every distinct string, so it should only live while a batch of objects is being built,
+ * e.g. member lists of all groups, where a user has the same nick in every group.
+ *
+ * Thread-safe. Under contention, an equal string may occasionally be returned as a different instance.
+ */
+internal class StringPool {
+    private val strings: MutableMap<String, String> = ConcurrentHashMap()
+
+    operator fun get(string: String): String {
+        if (string.isEmpty()) return ""
+        return strings.getOrPut(string) { string }
+    }
+
+    val size: Int get() = strings.size
+}
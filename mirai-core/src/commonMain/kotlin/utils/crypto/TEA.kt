@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -11,10 +11,7 @@ package net.mamoe.mirai.internal.utils.crypto
 
 import io.ktor.utils.io.core.*
 import net.mamoe.mirai.utils.ByteArrayPool
-import net.mamoe.mirai.utils.toByteArray
 import net.mamoe.mirai.utils.toUHexString
-import kotlin.experimental.and
-import kotlin.experimental.xor
 import kotlin.jvm.JvmStatic
 import kotlin.random.Random
 
@@ -36,19 +33,21 @@ internal object TEA {
      * 在 [ByteArrayPool] 缓存 [this], 然后使用 [key] 加密.
      *
      * @param key 长度至少为 16
-     * @consumer 由于缓存需要被回收, 需在方法内执行解密后明文的消耗过程
-     * @throws DecryptionFailedException 解密错误时
+     * @param offset 跳过 [receiver] 中的前 [offset] 字节
+     * @consumer 由于缓存需要被回收, 需在方法内执行加密后密文的消耗过程. 参数为加密结果, 其中只有前 [encryptedLength] 字节有效.
      */
     inline fun encrypt(
         receiver: ByteReadPacket,
         key: ByteArray,
         offset: Int = 0,
         length: Int = receiver.remaining.toInt() - offset,
-        consumer: (ByteArray) -> Unit,
+        consumer: (data: ByteArray, length: Int) -> Unit,
     ) {
-        ByteArrayPool.useInstance(length) {
-            receiver.readFully(it, offset, length)
-            consumer(encrypt(it, key, length = length))
+        val encryptedLength = encryptedLength(length)
+        ByteArrayPool.useInstance(encryptedLength) {
+            receiver.discardExact(offset)
+            receiver.readFully(it, plaintextOffset(length), length)
+            consumer(it, encryptInPlace(it, key, 0, length))
         }
     }
 
@@ -74,258 +73,197 @@ internal object TEA {
         }.also { receiver.close() }
     }
 
-    private const val UINT32_MASK = 0xffffffffL
-
-    private fun doOption(data: ByteArray, key: ByteArray, length: Int, encrypt: Boolean): ByteArray {
-        lateinit var mOutput: ByteArray
-        lateinit var mInBlock: ByteArray
-        var mIndexPos: Int
-        lateinit var mIV: ByteArray
-        var mOutPos = 0
-        var mPreOutPos = 0
-        var isFirstBlock = true
-
-        val mKey = LongArray(4)
-
-        for (i in 0..3) {
-            mKey[i] = key.pack(i * 4, 4)
-        }
-
-        fun rand(): Int = Random.Default.nextInt()
-
-
-        fun encode(bytes: ByteArray): ByteArray {
-            var v0 = bytes.pack(0, 4)
-            var v1 = bytes.pack(4, 4)
-            var sum: Long = 0
-            val delta = 0x9e3779b9L
-            for (i in 0..15) {
-                sum = sum + delta and UINT32_MASK
-                v0 += (v1 shl 4) + mKey[0] xor v1 + sum xor v1.ushr(5) + mKey[1]
-                v0 = v0 and UINT32_MASK
-                v1 += (v0 shl 4) + mKey[2] xor v0 + sum xor v0.ushr(5) + mKey[3]
-                v1 = v1 and UINT32_MASK
-            }
+    private fun fail(): Nothing = throw DecryptionFailedException()
 
-            return v0.toInt().toByteArray() + v1.toInt().toByteArray()
-        }
+    /**
+     * 加密 [length] 字节明文后密文的长度.
+     */
+    @JvmStatic
+    fun encryptedLength(length: Int): Int = length + 10 + padding(length)
 
-        fun decode(bytes: ByteArray, offset: Int): ByteArray {
-            var v0 = bytes.pack(offset, 4)
-            var v1 = bytes.pack(offset + 4, 4)
-            val delta = 0x9e3779b9L
-            var sum = delta shl 4 and UINT32_MASK
-            for (i in 0..15) {
-                v1 -= (v0 shl 4) + mKey[2] xor v0 + sum xor v0.ushr(5) + mKey[3]
-                v1 = v1 and UINT32_MASK
-                v0 -= (v1 shl 4) + mKey[0] xor v1 + sum xor v1.ushr(5) + mKey[1]
-                v0 = v0 and UINT32_MASK
-                sum = sum - delta and UINT32_MASK
-            }
-            return v0.toInt().toByteArray() + v1.toInt().toByteArray()
-        }
+    /**
+     * 原地加密时明文相对于密文起始位置的偏移量, 见 [encryptInPlace].
+     */
+    @JvmStatic
+    fun plaintextOffset(length: Int): Int = padding(length) + 3
 
-        fun encodeOneBlock() {
-            mIndexPos = 0
-            while (mIndexPos < 8) {
-                mInBlock[mIndexPos] = if (isFirstBlock)
-                    mInBlock[mIndexPos]
-                else
-                    (mInBlock[mIndexPos] xor mOutput[mPreOutPos + mIndexPos])
-                mIndexPos++
-            }
+    private fun padding(length: Int): Int = (8 - (length + 10) % 8) % 8
 
-            encode(mInBlock).copyInto(mOutput, mOutPos, 0, 8)
-            mIndexPos = 0
-            while (mIndexPos < 8) {
-                val outPos = mOutPos + mIndexPos
-                mOutput[outPos] = (mOutput[outPos] xor mIV[mIndexPos])
-                mIndexPos++
-            }
-            mInBlock.copyInto(mIV, 0, 0, 8)
-            mPreOutPos = mOutPos
-            mOutPos += 8
-            mIndexPos = 0
-            isFirstBlock = false
+    /**
+     * 使用 [key] 在 [data] 上原地加密, 不分配新的数组.
+     *
+     * 调用前明文需位于 `data[offset + plaintextOffset(length), offset + plaintextOffset(length) + length)`,
+     * 且 [data] 中从 [offset] 起至少有 [encryptedLength] 字节空间. 加密后密文位于 `data[offset, offset + encryptedLength(length))`.
+     *
+     * @param key 长度至少为 16
+     * @param length 明文长度
+     * @return 密文长度, 即 [encryptedLength]
+     */
+    @JvmStatic
+    fun encryptInPlace(data: ByteArray, key: ByteArray, offset: Int, length: Int): Int {
+        val size = encryptedLength(length)
+        val header = plaintextOffset(length)
+        data[offset] = (Random.nextInt() and 0xf8 or padding(length)).toByte()
+        for (i in offset + 1 until offset + header) {
+            data[i] = Random.nextInt().toByte()
         }
-
-        fun decodeOneBlock(ciphertext: ByteArray, offset: Int, len: Int): Boolean {
-            mIndexPos = 0
-            while (mIndexPos < 8) {
-                if (mOutPos + mIndexPos < len) {
-                    mIV[mIndexPos] = (mIV[mIndexPos] xor ciphertext[mOutPos + offset + mIndexPos])
-                    mIndexPos++
-                    continue
-                }
-                return true
+        data.fill(0, offset + header + length, offset + size)
+
+        val k0 = key.readIntAt(0)
+        val k1 = key.readIntAt(4)
+        val k2 = key.readIntAt(8)
+        val k3 = key.readIntAt(12)
+
+        // x_i = P_i ^ C_{i-1}, C_i = E(x_i) ^ x_{i-1}
+        var prevX0 = 0
+        var prevX1 = 0
+        var prevC0 = 0
+        var prevC1 = 0
+        var pos = offset
+        val end = offset + size
+        while (pos < end) {
+            val x0 = data.readIntAt(pos) xor prevC0
+            val x1 = data.readIntAt(pos + 4) xor prevC1
+
+            var v0 = x0
+            var v1 = x1
+            var sum = 0
+            repeat(16) {
+                sum += TEA_DELTA
+                v0 += (v1 shl 4) + k0 xor v1 + sum xor (v1 ushr 5) + k1
+                v1 += (v0 shl 4) + k2 xor v0 + sum xor (v0 ushr 5) + k3
             }
-
-            mIV = decode(mIV, 0)
-            mOutPos += 8
-            mIndexPos = 0
-            return true
-
+            prevC0 = v0 xor prevX0
+            prevC1 = v1 xor prevX1
+            prevX0 = x0
+            prevX1 = x1
+
+            data.writeIntAt(pos, prevC0)
+            data.writeIntAt(pos + 4, prevC1)
+            pos += 8
         }
+        return size
+    }
 
-        @Suppress("NAME_SHADOWING")
-        fun encrypt(plaintext: ByteArray, offset: Int, len: Int): ByteArray {
-            var len = len
-            var offset = offset
-            mInBlock = ByteArray(8)
-            mIV = ByteArray(8)
-            mOutPos = 0
-            mPreOutPos = 0
-            isFirstBlock = true
-            mIndexPos = (len + 10) % 8
-            if (mIndexPos != 0) {
-                mIndexPos = 8 - mIndexPos
-            }
-            mOutput = ByteArray(mIndexPos + len + 10)
-            mInBlock[0] = (rand() and 0xf8 or mIndexPos).toByte()
-            for (i in 1..mIndexPos) {
-                mInBlock[i] = (rand() and 0xff).toByte()
-            }
-            ++mIndexPos
-            for (i in 0..7) {
-                mIV[i] = 0
-            }
-
-            var g = 0
-            while (g < 2) {
-                if (mIndexPos < 8) {
-                    mInBlock[mIndexPos++] = (rand() and 0xff).toByte()
-                    ++g
-                }
-                if (mIndexPos == 8) {
-                    encodeOneBlock()
-                }
-            }
+    /**
+     * 使用 [key] 加密 [source] 中 [sourceOffset] 起长度为 [length] 的明文, 写入 [output] 的 [outputOffset] 处. 不分配新的数组.
+     *
+     * [output] 可以与 [source] 为同一数组.
+     *
+     * @param key 长度至少为 16
+     * @return 密文长度, 即 [encryptedLength]
+     */
+    @JvmStatic
+    fun encrypt(
+        source: ByteArray,
+        sourceOffset: Int,
+        length: Int,
+        key: ByteArray,
+        output: ByteArray,
+        outputOffset: Int,
+    ): Int {
+        source.copyInto(output, outputOffset + plaintextOffset(length), sourceOffset, sourceOffset + length)
+        return encryptInPlace(output, key, outputOffset, length)
+    }
 
-            while (len > 0) {
-                if (mIndexPos < 8) {
-                    mInBlock[mIndexPos++] = plaintext[offset++]
-                }
-                if (mIndexPos == 8) {
-                    encodeOneBlock()
-                }
-                len--
-            }
-            g = 0
-            while (g < 7) {
-                if (mIndexPos < 8) {
-                    mInBlock[mIndexPos++] = 0.toByte()
-                }
-                if (mIndexPos == 8) {
-                    encodeOneBlock()
-                }
-                g++
-            }
-            return mOutput
+    /**
+     * 使用 [key] 在 [data] 上原地解密 [offset] 起长度为 [length] 的密文, 不分配新的数组.
+     *
+     * 解密后明文位于 `data[返回值, offset + length - 7)`, 即明文长度为 `offset + length - 7 - 返回值`.
+     *
+     * @param key 长度至少为 16
+     * @return 明文在 [data] 中的起始位置
+     * @throws DecryptionFailedException 解密错误时
+     */
+    @JvmStatic
+    fun decryptInPlace(data: ByteArray, key: ByteArray, offset: Int = 0, length: Int = data.size - offset): Int {
+        if (length % 8 != 0 || length < 16) {
+            throw DecryptionFailedException("data must len % 8 == 0 && len >= 16 but given (length=$length)")
         }
-
-        fun decrypt(cipherText: ByteArray, offset: Int, len: Int): ByteArray {
-            require(!(len % 8 != 0 || len < 16)) { "data must len % 8 == 0 && len >= 16 but given $len" }
-            mIV = decode(cipherText, offset)
-            mIndexPos = (mIV[0] and 7).toInt()
-            var plen = len - mIndexPos - 10
-            isFirstBlock = true
-            if (plen < 0) {
-                fail()
-            }
-            mOutput = ByteArray(plen)
-            mPreOutPos = 0
-            mOutPos = 8
-            ++mIndexPos
-            var g = 0
-            while (g < 2) {
-                if (mIndexPos < 8) {
-                    ++mIndexPos
-                    ++g
-                }
-                if (mIndexPos == 8) {
-                    isFirstBlock = false
-                    if (!decodeOneBlock(cipherText, offset, len)) {
-                        fail()
-                    }
-                }
-            }
-
-            var outpos = 0
-            while (plen != 0) {
-                if (mIndexPos < 8) {
-                    mOutput[outpos++] = if (isFirstBlock)
-                        mIV[mIndexPos]
-                    else
-                        (cipherText[mPreOutPos + offset + mIndexPos] xor mIV[mIndexPos])
-                    ++mIndexPos
-                }
-                if (mIndexPos == 8) {
-                    mPreOutPos = mOutPos - 8
-                    isFirstBlock = false
-                    if (!decodeOneBlock(cipherText, offset, len)) {
-                        fail()
-                    }
-                }
-                plen--
+        val k0 = key.readIntAt(0)
+        val k1 = key.readIntAt(4)
+        val k2 = key.readIntAt(8)
+        val k3 = key.readIntAt(12)
+
+        // x_i = D(C_i ^ x_{i-1}), P_i = x_i ^ C_{i-1}
+        var x0 = 0
+        var x1 = 0
+        var prev0 = 0
+        var prev1 = 0
+        var pos = offset
+        val end = offset + length
+        while (pos < end) {
+            val c0 = data.readIntAt(pos)
+            val c1 = data.readIntAt(pos + 4)
+
+            var v0 = c0 xor x0
+            var v1 = c1 xor x1
+            var sum = TEA_DELTA shl 4
+            repeat(16) {
+                v1 -= (v0 shl 4) + k2 xor v0 + sum xor (v0 ushr 5) + k3
+                v0 -= (v1 shl 4) + k0 xor v1 + sum xor (v1 ushr 5) + k1
+                sum -= TEA_DELTA
             }
-            g = 0
-            while (g < 7) {
-                if (mIndexPos < 8) {
-                    if (cipherText[mPreOutPos + offset + mIndexPos].xor(mIV[mIndexPos]).toInt() != 0) {
-                        fail()
-                    } else {
-                        ++mIndexPos
-                    }
-                }
-
-                if (mIndexPos == 8) {
-                    mPreOutPos = mOutPos
-                    if (!decodeOneBlock(cipherText, offset, len)) {
-                        fail()
-                    }
-                }
-                g++
-            }
-            return mOutput
+            x0 = v0
+            x1 = v1
+
+            data.writeIntAt(pos, x0 xor prev0)
+            data.writeIntAt(pos + 4, x1 xor prev1)
+            prev0 = c0
+            prev1 = c1
+            pos += 8
         }
 
-        return if (encrypt) {
-            encrypt(data, 0, length)
-        } else {
-            decrypt(data, 0, length)
+        val start = offset + (data[offset].toInt() and 7) + 3
+        if (start > end - 7) fail()
+        for (i in end - 7 until end) {
+            if (data[i].toInt() != 0) fail()
         }
+        return start
     }
 
-    private fun fail(): Nothing = throw DecryptionFailedException()
+    private const val TEA_DELTA = -0x61c88647 // 0x9e3779b9
+
+    @Suppress("NOTHING_TO_INLINE")
+    private inline fun ByteArray.readIntAt(index: Int): Int =
+        (this[index].toInt() and 0xff shl 24) or
+                (this[index + 1].toInt() and 0xff shl 16) or
+                (this[index + 2].toInt() and 0xff shl 8) or
+                (this[index + 3].toInt() and 0xff)
+
+    @Suppress("NOTHING_TO_INLINE")
+    private inline fun ByteArray.writeIntAt(index: Int, value: Int) {
+        this[index] = (value ushr 24).toByte()
+        this[index + 1] = (value ushr 16).toByte()
+        this[index + 2] = (value ushr 8).toByte()
+        this[index + 3] = value.toByte()
+    }
 
     /**
      * 使用 [key] 加密 [source]
      *
      * @param key 长度至少为 16
-     * @throws DecryptionFailedException 解密错误时
      */
     @JvmStatic
-    fun encrypt(source: ByteArray, key: ByteArray, length: Int = source.size): ByteArray =
-        doOption(source, key, length, true)
+    fun encrypt(source: ByteArray, key: ByteArray, length: Int = source.size): ByteArray {
+        val output = ByteArray(encryptedLength(length))
+        encrypt(source, 0, length, key, output, 0)
+        return output
+    }
 
     /**
-     * 使用 [key] 解密 [source]
+     * 使用 [key] 解密 [source]. 不会修改 [source].
      *
      * @param key 长度至少为 16
      * @throws DecryptionFailedException 解密错误时
      */
     @JvmStatic
     fun decrypt(source: ByteArray, key: ByteArray, length: Int = source.size): ByteArray =
-        doOption(source, key, length, false)
-
-    private fun ByteArray.pack(offset: Int, len: Int): Long {
-        var result: Long = 0
-        val maxOffset = if (len > 8) offset + 8 else offset + len
-        for (index in offset until maxOffset) {
-            result = result shl 8 or (this[index].toLong() and 0xffL)
+        ByteArrayPool.useInstance(length) { buffer ->
+            source.copyInto(buffer, 0, 0, length)
+            val start = decryptInPlace(buffer, key, 0, length)
+            buffer.copyOfRange(start, length - 7)
         }
-        return result shr 32 or (result and UINT32_MASK)
-    }
 }
 
 @Suppress("NOTHING_TO_INLINE")
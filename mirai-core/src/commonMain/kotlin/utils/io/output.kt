@@ -85,4 +85,4 @@ internal fun BytePacketBuilder.writeHex(uHex: String) {
 internal inline fun BytePacketBuilder.encryptAndWrite(
     key: ByteArray,
     crossinline encoder: BytePacketBuilder.() -> Unit
-) = TEA.encrypt(buildPacket(encoder), key) { decrypted -> writeFully(decrypted) }
\ No newline at end of file
+) = TEA.encrypt(buildPacket(encoder), key) { encrypted, length -> writeFully(encrypted, 0, length) }
\ No newline at end of file
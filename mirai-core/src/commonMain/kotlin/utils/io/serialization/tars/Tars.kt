@@ -36,9 +36,7 @@ internal class Tars(
     private val old = TarsOld(charset)
 
     fun <T> dumpTo(serializer: SerializationStrategy<T>, ojb: T, output: Output) {
-        old.dumpAsPacket(serializer, ojb).use {
-            output.writePacket(it)
-        }
+        old.dumpTo(serializer, ojb, output)
     }
 
     fun <T> load(deserializer: DeserializationStrategy<T>, input: Input, debugLogger: DebugLogger? = null): T {
@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -20,7 +20,6 @@ import kotlinx.serialization.encoding.CompositeDecoder
 import kotlinx.serialization.internal.TaggedDecoder
 import kotlinx.serialization.modules.SerializersModule
 import net.mamoe.mirai.internal.utils.io.serialization.tars.Tars
-import net.mamoe.mirai.internal.utils.io.serialization.tars.TarsId
 import net.mamoe.mirai.utils.MiraiLogger
 
 internal class DebugLogger(
@@ -48,21 +47,8 @@ internal class TarsDecoder(
     val debugLogger: DebugLogger,
 ) : TaggedDecoder<TarsTag>() {
     override fun SerialDescriptor.getTag(index: Int): TarsTag {
-        val annotations = this.getElementAnnotations(index)
-
-        val id = annotations.filterIsInstance<TarsId>().single().id
-        // ?: error("cannot find @TarsId or @ProtoNumber for ${this.getElementName(index)} in ${this.serialName}")
-        //debugLogger.println("getTag: ${this.getElementName(index)}=$id")
-
-        return TarsTagCommon(id)
-    }
-
-    private fun SerialDescriptor.getTarsTagId(index: Int): Int {
-        // higher performance, don't use filterIsInstance
-        val annotation = getElementAnnotations(index).firstOrNull { it is TarsId }
-            ?: error("missing @TarsId for ${getElementName(index)} in ${this.serialName}")
-        return (annotation as TarsId).id
-
+        //debugLogger.println("getTag: ${this.getElementName(index)}")
+        return TarsTagCommon(TarsTagTable.of(this).idOf(index))
     }
 
     private val SimpleByteArrayReader: SimpleByteArrayReaderImpl = SimpleByteArrayReaderImpl()
@@ -277,8 +263,9 @@ internal class TarsDecoder(
                 return input.skipToHeadAndUseIfPossibleOrFail(tag.id) { TarsHead ->
                     TarsHead.checkType(Tars.STRUCT_BEGIN, "beginStructure", tag, descriptor)
 
+                    val tags = TarsTagTable.of(descriptor)
                     repeat(descriptor.elementsCount) {
-                        pushTag(descriptor.getTag(descriptor.elementsCount - it - 1)) // better performance
+                        pushTag(TarsTagCommon(tags.idOf(descriptor.elementsCount - it - 1))) // better performance
                     }
                     this // independent tag stack
                 }
@@ -299,22 +286,17 @@ internal class TarsDecoder(
         }
 
         debugLogger.println { "decodeElementIndex: ${input.currentHead}" }
+        val tags = TarsTagTable.of(descriptor)
         while (!input.input.endOfInput) {
             if (tarsHead.type == Tars.STRUCT_END) {
                 debugLogger.println { "decodeElementIndex: ${input.currentHead}" }
                 return CompositeDecoder.DECODE_DONE
             }
 
-            repeat(descriptor.elementsCount) {
-                val tag = descriptor.getTarsTagId(it)
-                if (tag == tarsHead.tag) {
-                    debugLogger.println {
-                        "name=" + descriptor.getElementName(
-                            it
-                        )
-                    }
-                    return it
-                }
+            val index = tags.indexOf(tarsHead.tag)
+            if (index != -1) {
+                debugLogger.println { "name=" + descriptor.getElementName(index) }
+                return index
             }
 
             input.skipField(tarsHead.type)
@@ -38,19 +38,6 @@ import net.mamoe.mirai.internal.utils.io.serialization.tars.Tars.Companion.STRUC
 import net.mamoe.mirai.internal.utils.io.serialization.tars.Tars.Companion.STRUCT_END
 import net.mamoe.mirai.internal.utils.io.serialization.tars.Tars.Companion.Tars_MAX_STRING_LENGTH
 import net.mamoe.mirai.internal.utils.io.serialization.tars.Tars.Companion.ZERO_TYPE
-import net.mamoe.mirai.internal.utils.io.serialization.tars.TarsId
-
-@OptIn(ExperimentalSerializationApi::class)
-internal inline fun <reified A : Annotation> SerialDescriptor.findAnnotation(elementIndex: Int): A? {
-    val candidates = getElementAnnotations(elementIndex).filterIsInstance<A>()
-    return when (candidates.size) {
-        0 -> null
-        1 -> candidates[0]
-        else -> throw IllegalStateException("There are duplicate annotations of type ${A::class} in the descriptor $this")
-    }
-}
-
-internal fun getSerialId(desc: SerialDescriptor, index: Int): Int? = desc.findAnnotation<TarsId>(index)?.id
 
 //@Suppress("DEPRECATION_ERROR")
 @OptIn(InternalSerializationApi::class, ExperimentalSerializationApi::class)
@@ -60,24 +47,27 @@ internal class TarsOld internal constructor(
 ) :
     SerialFormat, BinaryFormat {
 
+    /**
+     * Writes elements directly into the output of [parentEncoder].
+     * [count] is known in advance, so the list head is written before the elements, without buffering them.
+     */
     private inner class ListWriter(
-        private val count: Int,
-        private val tag: Int,
-        private val parentEncoder: TarsEncoder,
-    ) : TarsEncoder(BytePacketBuilder()) {
-        override fun SerialDescriptor.getTag(index: Int): Int {
-            return 0
+        count: Int,
+        tag: Int,
+        parentEncoder: TarsEncoder,
+    ) : TarsEncoder(parentEncoder.output) {
+        init {
+            parentEncoder.writeHead(LIST, tag)
+            parentEncoder.encodeTaggedInt(0, count)
         }
 
-        override fun endEncode(descriptor: SerialDescriptor) {
-            parentEncoder.writeHead(LIST, this.tag)
-            parentEncoder.encodeTaggedInt(0, count)
-            parentEncoder.output.writePacket(this.output.build())
+        override fun SerialDescriptor.getTag(index: Int): Int {
+            return 0
         }
     }
 
     private inner class TarsMapWriter(
-        output: BytePacketBuilder,
+        output: Output,
     ) : TarsEncoder(output) {
         override fun SerialDescriptor.getTag(index: Int): Int {
             return if (index % 2 == 0) 0 else 1
@@ -98,12 +88,12 @@ internal class TarsOld internal constructor(
      */
     @Suppress("unused", "MemberVisibilityCanBePrivate")
     private open inner class TarsEncoder(
-        val output: BytePacketBuilder,
+        val output: Output,
     ) : TaggedEncoder<Int>() {
         override val serializersModule get() = this@TarsOld.serializersModule
 
         override fun SerialDescriptor.getTag(index: Int): Int {
-            return getSerialId(this, index) ?: error("cannot find @SerialId")
+            return TarsTagTable.of(this).idOf(index)
         }
 
         /**
@@ -305,11 +295,12 @@ internal class TarsOld internal constructor(
                 ?: "<unnamed class>"
     }
 
+    fun <T> dumpTo(serializer: SerializationStrategy<T>, obj: T, output: Output) {
+        TarsEncoder(output).encodeSerializableValue(serializer, obj)
+    }
+
     fun <T> dumpAsPacket(serializer: SerializationStrategy<T>, obj: T): ByteReadPacket {
-        val encoder = BytePacketBuilder()
-        val dumper = TarsEncoder(encoder)
-        dumper.encodeSerializableValue(serializer, obj)
-        return encoder.build()
+        return buildPacket { dumpTo(serializer, obj, this) }
     }
 
     override fun <T> encodeToByteArray(serializer: SerializationStrategy<T>, value: T): ByteArray {
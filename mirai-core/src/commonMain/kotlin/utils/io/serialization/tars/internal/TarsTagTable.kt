@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.utils.io.serialization.tars.internal
+
+import kotlinx.serialization.ExperimentalSerializationApi
+import kotlinx.serialization.descriptors.SerialDescriptor
+import net.mamoe.mirai.internal.utils.io.serialization.tars.TarsId
+import net.mamoe.mirai.utils.ConcurrentHashMap
+
+/**
+ * [TarsId]s of the elements of a [SerialDescriptor], read once per descriptor
+ * so that encoding and decoding do not scan element annotations for every field.
+ *
+ * Use [TarsTagTable.of] to get the cached table of a descriptor.
+ */
+@OptIn(ExperimentalSerializationApi::class)
+internal class TarsTagTable private constructor(
+    private val descriptor: SerialDescriptor,
+) {
+    /**
+     * [TarsId.id] of each element, or `-1` if the element is not annotated.
+     */
+    private val ids = IntArray(descriptor.elementsCount) { index ->
+        val candidates = descriptor.getElementAnnotations(index).filterIsInstance<TarsId>()
+        when (candidates.size) {
+            0 -> -1
+            1 -> candidates[0].id
+            else -> throw IllegalStateException("There are duplicate annotations of type ${TarsId::class} in the descriptor $descriptor")
+        }
+    }
+
+    /**
+     * Element index of each tag id, or `-1` if no element has that id.
+     */
+    private val indexes = IntArray((ids.maxOrNull() ?: -1) + 1) { -1 }.also { indexes ->
+        // the first element wins, as did the linear scan this table replaces
+        for (index in ids.indices.reversed()) {
+            val id = ids[index]
+            if (id >= 0) indexes[id] = index
+        }
+    }
+
+    /**
+     * @return [TarsId.id] of the element at [index]
+     */
+    fun idOf(index: Int): Int {
+        val id = ids[index]
+        if (id < 0) error("missing @TarsId for ${descriptor.getElementName(index)} in ${descriptor.serialName}")
+        return id
+    }
+
+    /**
+     * @return index of the element annotated with [TarsId] of [id], or `-1` if there is none
+     */
+    fun indexOf(id: Int): Int = if (id in indexes.indices) indexes[id] else -1
+
+    companion object {
+        // Descriptors of Tars structs are static and few, so they are cached for the lifetime of the process.
+        private val tables: MutableMap<SerialDescriptor, TarsTagTable> = ConcurrentHashMap()
+
+        fun of(descriptor: SerialDescriptor): TarsTagTable =
+            tables.getOrPut(descriptor) { TarsTagTable(descriptor) }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.contact
+
+import net.mamoe.mirai.contact.MemberPermission
+import net.mamoe.mirai.internal.network.framework.AbstractCommonNHTest
+import net.mamoe.mirai.internal.notice.processors.GroupExtensions
+import kotlin.test.*
+
+internal class ContactListTest : AbstractCommonNHTest(), GroupExtensions {
+
+    @Test
+    fun `get finds contacts by id`() {
+        val group = bot.addGroup(1, 2)
+        val member = group.addMember(3, permission = MemberPermission.MEMBER)
+
+        assertSame(group, bot.groups[1])
+        assertSame(member, group.members[3])
+        assertNull(group.members[4])
+        assertTrue { member in group.members }
+    }
+
+    @Test
+    fun `remove by id updates index`() {
+        val group = bot.addGroup(1, 2)
+        val member = group.addMember(3, permission = MemberPermission.MEMBER)
+
+        assertTrue { group.members.remove(3) }
+        assertNull(group.members[3])
+        assertFalse { member in group.members }
+        assertFalse { group.members.remove(3) }
+    }
+
+    @Test
+    fun `remove by iterator updates index`() {
+        val group = bot.addGroup(1, 2)
+        group.addMember(3, permission = MemberPermission.MEMBER)
+        val remaining = group.addMember(4, permission = MemberPermission.MEMBER)
+
+        group.members.delegate.removeAll { it.id == 3L }
+        assertNull(group.members[3])
+        assertSame(remaining, group.members[4])
+        assertEquals(listOf(4L), group.members.map { it.id })
+    }
+
+    @Test
+    fun `first contact wins for duplicate ids`() {
+        val group = bot.addGroup(1, 2)
+        val first = group.addMember(3, permission = MemberPermission.MEMBER)
+        val second = group.addMember(3, permission = MemberPermission.ADMINISTRATOR)
+
+        assertSame(first, group.members[3])
+        group.members.delegate.remove(first)
+        assertSame(second, group.members[3])
+        assertTrue { second in group.members }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.contact
+
+import kotlinx.atomicfu.atomic
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.yield
+import net.mamoe.mirai.contact.MemberPermission
+import net.mamoe.mirai.data.MemberInfo
+import net.mamoe.mirai.internal.contact.info.MemberInfoImpl
+import net.mamoe.mirai.internal.network.framework.AbstractCommonNHTest
+import net.mamoe.mirai.internal.notice.processors.GroupExtensions
+import net.mamoe.mirai.internal.test.runBlockingUnit
+import kotlin.test.*
+
+internal class GroupMemberListLoaderTest : AbstractCommonNHTest(), GroupExtensions {
+    private val fetchCount = atomic(0)
+
+    private fun createGroup(
+        id: Long,
+        ownerId: Long,
+        fetch: suspend () -> List<MemberInfo>,
+    ): GroupImpl = GroupImpl(
+        bot, bot.coroutineContext, id,
+        GroupInfo(id, ownerId, id, name = "Test Group"),
+        ownerId,
+    ) {
+        fetchCount.incrementAndGet()
+        fetch()
+    }.also { bot.addGroup(it) }
+
+    private suspend fun GroupImpl.loadMembers() {
+        memberListLoader!!.load()?.await()
+    }
+
+    private fun members(vararg members: Pair<Long, MemberPermission>): List<MemberInfo> =
+        members.map { (id, permission) -> MemberInfoImpl(uin = id, nick = "user$id", permission = permission) }
+
+    @Test
+    fun `members are not fetched until accessed`() = runBlockingUnit {
+        val groups = List(1000) { index ->
+            createGroup(index + 1L, 2) { members(2L to MemberPermission.OWNER) }
+        }
+        assertEquals(0, fetchCount.value)
+
+        val group = groups.first()
+        group.loadMembers()
+        assertEquals(1, fetchCount.value)
+        assertNotNull(group[2])
+    }
+
+    @Test
+    fun `concurrent loads share one request`() = runBlockingUnit {
+        val gate = CompletableDeferred<Unit>()
+        val group = createGroup(1, 2) {
+            gate.await()
+            members(2L to MemberPermission.OWNER, 3L to MemberPermission.MEMBER)
+        }
+
+        val waiters = List(10) { async { group.loadMembers() } }
+        group.members // access from another path
+        yield()
+        gate.complete(Unit)
+        waiters.awaitAll()
+
+        assertEquals(1, fetchCount.value)
+        assertEquals(setOf(2L, 3L), group.members.map { it.id }.toSet())
+        assertEquals(2, group.owner.id)
+    }
+
+    @Test
+    fun `bot placeholder is updated in place and owner is replaced`() = runBlockingUnit {
+        val group = createGroup(1, 2) {
+            members(2L to MemberPermission.OWNER, bot.id to MemberPermission.ADMINISTRATOR)
+        }
+        val botAsMember = group.botAsMember
+        assertEquals(MemberPermission.MEMBER, group.botPermission)
+        assertEquals(2, group.owner.id)
+
+        group.loadMembers()
+        assertSame(botAsMember, group.botAsMember)
+        assertEquals(MemberPermission.ADMINISTRATOR, group.botPermission)
+        assertEquals(2, group.owner.id)
+        assertSame(group[2], group.owner)
+    }
+
+    @Test
+    fun `members added before loading are kept`() = runBlockingUnit {
+        val gate = CompletableDeferred<Unit>()
+        val group = createGroup(1, 2) {
+            gate.await()
+            members(2L to MemberPermission.OWNER, 3L to MemberPermission.MEMBER)
+        }
+        val joined = group.addMember(3, permission = MemberPermission.MEMBER)
+        gate.complete(Unit)
+        group.loadMembers()
+
+        assertSame(joined, group[3])
+        assertEquals(2, group.members.size)
+    }
+
+    @Test
+    fun `failed load is not retried before delay`() = runBlockingUnit {
+        val loader = GroupMemberListLoader(
+            scope = bot,
+            logger = bot.logger,
+            fetch = {
+                fetchCount.incrementAndGet()
+                error("Test failure")
+            },
+            onLoaded = {},
+            retryDelay = { Long.MAX_VALUE / 2 },
+        )
+
+        assertEquals(false, loader.load()!!.await()) // failure is logged
+        assertFalse(loader.isLoaded)
+        assertNull(loader.load())
+        assertFalse(loader.defer { fail() }) // processed with members known so far
+        assertEquals(1, fetchCount.value)
+    }
+
+    @Test
+    fun `failed load is retried after delay`() = runBlockingUnit {
+        var fail = true
+        val failures = mutableListOf<Int>()
+        val loader = GroupMemberListLoader(
+            scope = bot,
+            logger = bot.logger,
+            fetch = {
+                fetchCount.incrementAndGet()
+                if (fail) error("Test failure")
+                members(2L to MemberPermission.OWNER)
+            },
+            onLoaded = {},
+            retryDelay = { failures.add(it); 0L },
+        )
+
+        assertEquals(false, loader.load()!!.await()) // failure is logged
+        fail = false
+        assertEquals(true, loader.load()!!.await())
+        assertTrue(loader.isLoaded)
+        assertEquals(listOf(1), failures)
+        assertEquals(2, fetchCount.value)
+    }
+
+    @Test
+    fun `retry delay grows exponentially`() {
+        assertEquals(1000, GroupMemberListLoader.defaultRetryDelay(1))
+        assertEquals(2000, GroupMemberListLoader.defaultRetryDelay(2))
+        assertEquals(8000, GroupMemberListLoader.defaultRetryDelay(4))
+        assertEquals(5 * 60 * 1000, GroupMemberListLoader.defaultRetryDelay(100))
+    }
+
+    @Test
+    fun `deferred blocks run in order after loading`() = runBlockingUnit {
+        val gate = CompletableDeferred<Unit>()
+        val group = createGroup(1, 2) {
+            gate.await()
+            members(2L to MemberPermission.OWNER, 3L to MemberPermission.MEMBER)
+        }
+        val loader = group.memberListLoader!!
+        val processed = mutableListOf<Int>()
+        val done = CompletableDeferred<Unit>()
+
+        // Processing does not wait for the member list.
+        assertTrue(loader.defer {
+            assertNotNull(group[3])
+            processed.add(1)
+        })
+        assertTrue(loader.defer {
+            processed.add(2)
+            // deferred while running deferred blocks, still after them
+            assertTrue(loader.defer {
+                processed.add(4)
+                done.complete(Unit)
+            })
+        })
+        assertTrue(loader.defer { processed.add(3) })
+        assertEquals(emptyList(), processed)
+
+        gate.complete(Unit)
+        done.await()
+        assertEquals(listOf(1, 2, 3, 4), processed)
+        assertFalse(loader.defer { fail() })
+    }
+}
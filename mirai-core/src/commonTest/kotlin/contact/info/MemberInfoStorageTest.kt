@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.contact.info
+
+import net.mamoe.mirai.contact.MemberPermission
+import net.mamoe.mirai.data.GroupHonorType
+import net.mamoe.mirai.internal.network.GroupMemberListCache
+import net.mamoe.mirai.internal.network.ProtoBufForCache
+import net.mamoe.mirai.internal.test.AbstractTest
+import net.mamoe.mirai.internal.utils.StringPool
+import kotlin.test.*
+
+internal class MemberInfoStorageTest : AbstractTest() {
+
+    @Test
+    fun `MemberHonors add and remove`() {
+        val honors = MemberHonors()
+        assertTrue { honors.isEmpty() }
+        assertTrue { honors.add(GroupHonorType.TALKATIVE) }
+        assertFalse { honors.add(GroupHonorType.TALKATIVE) }
+        honors += GroupHonorType.LEGEND
+        assertEquals(setOf(GroupHonorType.TALKATIVE, GroupHonorType.LEGEND), honors)
+
+        assertTrue { honors.remove(GroupHonorType.TALKATIVE) }
+        assertFalse { honors.remove(GroupHonorType.TALKATIVE) }
+        assertEquals(setOf(GroupHonorType.LEGEND), honors)
+    }
+
+    @Test
+    fun `MemberHonors iterator removes from set`() {
+        val honors = MemberHonors(listOf(GroupHonorType.TALKATIVE, GroupHonorType.LEGEND))
+        val iterator = honors.iterator()
+        while (iterator.hasNext()) {
+            if (iterator.next() == GroupHonorType.TALKATIVE) iterator.remove()
+        }
+        assertEquals(setOf(GroupHonorType.LEGEND), honors)
+    }
+
+    @Test
+    fun `honors are decoded as MemberHonors`() {
+        val cache = GroupMemberListCache(
+            troopMemberNumSeq = 1,
+            list = listOf(
+                MemberInfoImpl(
+                    uin = 1,
+                    nick = "owner",
+                    permission = MemberPermission.OWNER,
+                    honors = mutableSetOf(GroupHonorType.TALKATIVE),
+                )
+            )
+        )
+        val bytes = ProtoBufForCache.encodeToByteArray(GroupMemberListCache.serializer(), cache)
+        val honors = ProtoBufForCache.decodeFromByteArray(GroupMemberListCache.serializer(), bytes).list.single().honors
+        assertIs<MemberHonors>(honors)
+        assertEquals(setOf(GroupHonorType.TALKATIVE), honors)
+    }
+
+    @Test
+    fun `deduplicateStrings shares equal strings`() {
+        fun newString(value: String) = buildString { append(value) }
+
+        val pool = StringPool()
+        val first = MemberInfoImpl(1, newString("nick"), MemberPermission.MEMBER, nameCard = newString("card"))
+        val second = MemberInfoImpl(2, newString("nick"), MemberPermission.MEMBER, nameCard = newString("card"))
+        assertNotSame(first.nick, second.nick)
+
+        first.deduplicateStrings(pool)
+        second.deduplicateStrings(pool)
+        assertSame(first.nick, second.nick)
+        assertSame(first.nameCard, second.nameCard)
+        assertEquals("nick", second.nick)
+        assertEquals(2, pool.size)
+    }
+}
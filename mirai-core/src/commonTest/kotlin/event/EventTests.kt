@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -17,6 +17,7 @@ import net.mamoe.mirai.utils.childScope
 import kotlin.coroutines.EmptyCoroutineContext
 import kotlin.test.AfterTest
 import kotlin.test.Test
+import kotlin.test.assertEquals
 import kotlin.test.assertTrue
 
 class TestEvent : AbstractEvent() {
@@ -189,6 +190,60 @@ internal class EventTests : AbstractEventTest() {
         }
     }
 
+    @Test
+    fun `dispatch index is updated when listeners change`() {
+        resetEventListeners()
+        runBlocking {
+            val parentCalled = AtomicInteger(0)
+            val childCalled = AtomicInteger(0)
+            val parent = globalEventChannel().subscribeAlways<ParentEvent> { parentCalled.getAndIncrement() }
+
+            ChildEvent().broadcast()
+            ParentEvent().broadcast()
+            assertEquals(2, parentCalled.value)
+
+            val child = globalEventChannel().subscribeAlways<ChildEvent> { childCalled.getAndIncrement() }
+            ChildChildEvent().broadcast()
+            ChildEvent().broadcast()
+            ParentEvent().broadcast()
+            assertEquals(5, parentCalled.value)
+            assertEquals(2, childCalled.value)
+
+            parent.complete()
+            ChildEvent().broadcast()
+            assertEquals(5, parentCalled.value)
+            assertEquals(3, childCalled.value)
+            child.complete()
+        }
+    }
+
+    @Test
+    fun `listeners added after indexing keep registration order`() {
+        resetEventListeners()
+        runBlocking {
+            val called = mutableListOf<String>()
+            val listeners = mutableListOf<Listener<*>>()
+            listeners += globalEventChannel().subscribeAlways<ParentEvent> { called.add("a") }
+            ChildEvent().broadcast()
+
+            // type not seen by the ChildEvent entry yet, resolved on the next broadcast
+            listeners += globalEventChannel().subscribeAlways<ChildEvent> { called.add("b") }
+            // type already seen, added to the entry directly
+            listeners += globalEventChannel().subscribeAlways<ParentEvent> { called.add("c") }
+
+            called.clear()
+            ChildEvent().broadcast()
+            assertEquals(listOf("a", "b", "c"), called)
+
+            listeners[1].complete()
+            called.clear()
+            ChildEvent().broadcast()
+            assertEquals(listOf("a", "c"), called)
+
+            listeners.forEach { it.complete() }
+        }
+    }
+
     open class PriorityTestEvent : AbstractEvent()
 
     private fun singleThreaded(step: StepUtil, invoke: suspend EventChannel<Event>.() -> Unit) {
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.event
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import net.mamoe.mirai.event.GlobalEventChannel
+import net.mamoe.mirai.event.broadcast
+import net.mamoe.mirai.event.events.GroupMuteAllEvent
+import net.mamoe.mirai.internal.network.framework.AbstractCommonNHTest
+import net.mamoe.mirai.internal.notice.processors.GroupExtensions
+import net.mamoe.mirai.internal.test.runBlockingUnit
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+internal class SubjectEventChannelTest : AbstractCommonNHTest(), GroupExtensions {
+    private val scope = CoroutineScope(SupervisorJob())
+
+    @Test
+    fun `listeners only receive events of their subject`() = runBlockingUnit {
+        val group1 = bot.addGroup(1, 3)
+        val group2 = bot.addGroup(2, 3)
+
+        val received = mutableListOf<String>()
+        val channel = GlobalEventChannel.parentScope(scope).filterIsInstance<GroupMuteAllEvent>()
+        channel.subscribeAlways<GroupMuteAllEvent> { received.add("all ${it.group.id}") }
+        channel.filterBySubject(1).subscribeAlways<GroupMuteAllEvent> { received.add("1 ${it.group.id}") }
+        channel.filterBySubject(2).subscribeAlways<GroupMuteAllEvent> { received.add("2 ${it.group.id}") }
+        channel.subscribeAlways<GroupMuteAllEvent> { received.add("all2 ${it.group.id}") }
+
+        GroupMuteAllEvent(origin = false, new = true, group = group1, operator = null).broadcast()
+        assertEquals(listOf("all 1", "1 1", "all2 1"), received)
+
+        received.clear()
+        GroupMuteAllEvent(origin = false, new = true, group = group2, operator = null).broadcast()
+        assertEquals(listOf("all 2", "2 2", "all2 2"), received)
+
+        scope.cancel()
+    }
+
+    @Test
+    fun `subject filter is preserved by context`() = runBlockingUnit {
+        val group1 = bot.addGroup(1, 3)
+        val group2 = bot.addGroup(2, 3)
+
+        val received = mutableListOf<Long>()
+        GlobalEventChannel.filterBySubject(2).parentScope(scope)
+            .subscribeAlways<GroupMuteAllEvent> { received.add(it.group.id) }
+
+        GroupMuteAllEvent(origin = false, new = true, group = group1, operator = null).broadcast()
+        GroupMuteAllEvent(origin = false, new = true, group = group2, operator = null).broadcast()
+        assertEquals(listOf(2L), received)
+
+        scope.cancel()
+    }
+}
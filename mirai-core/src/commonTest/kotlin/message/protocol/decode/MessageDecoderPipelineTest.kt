@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.message.protocol.decode
+
+import net.mamoe.mirai.internal.network.protocol.data.proto.ImMsgBody
+import net.mamoe.mirai.internal.test.AbstractTest
+import net.mamoe.mirai.message.data.Face
+import net.mamoe.mirai.message.data.MessageChainBuilder
+import net.mamoe.mirai.utils.TestOnly
+import net.mamoe.mirai.utils.TypeSafeMap
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+@OptIn(TestOnly::class)
+internal class MessageDecoderPipelineTest : AbstractTest() {
+    private val pipeline = MessageDecoderPipelineImpl()
+    private val called = mutableListOf<Int>()
+
+    private val text = ImMsgBody.Elem(text = ImMsgBody.Text("text"))
+    private val face = ImMsgBody.Elem(face = ImMsgBody.Face(1))
+    private val video = ImMsgBody.Elem(videoFile = ImMsgBody.VideoFile())
+
+    private var traceLoggingEnabled = false
+
+    @BeforeTest
+    fun beforeEach() {
+        traceLoggingEnabled = MessageDecoderPipelineImpl.defaultTraceLogging.isEnabled
+        MessageDecoderPipelineImpl.defaultTraceLogging.disable()
+    }
+
+    @AfterTest
+    fun afterEach() {
+        if (traceLoggingEnabled) {
+            MessageDecoderPipelineImpl.defaultTraceLogging.enable()
+        }
+    }
+
+    private inner class TestDecoder(
+        private val id: Int,
+        override val elemFields: Set<ElemField>?,
+        private val consume: Boolean = false,
+    ) : PureMessageDecoder {
+        override fun MessageDecoderContext.decode(data: ImMsgBody.Elem) {
+            called.add(id)
+            if (consume) markAsConsumed()
+            collect(Face(id))
+        }
+    }
+
+    private inner class SuspendingTestDecoder(private val id: Int) : MessageDecoder {
+        override suspend fun MessageDecoderContext.process(data: ImMsgBody.Elem) {
+            called.add(id)
+            collect(Face(id))
+        }
+    }
+
+    private fun decode(vararg elements: ImMsgBody.Elem): List<Int> {
+        val builder = MessageChainBuilder()
+        pipeline.decode(elements.toList(), TypeSafeMap.EMPTY, builder)
+        return builder.map { (it as Face).id }
+    }
+
+    @Test
+    fun `decoders are dispatched by elem field`() {
+        pipeline.registerProcessor(MessageDecoderProcessor(TestDecoder(1, setOf(ElemField.TEXT))))
+        pipeline.registerProcessor(MessageDecoderProcessor(TestDecoder(2, null)))
+        pipeline.registerProcessor(MessageDecoderProcessor(TestDecoder(3, setOf(ElemField.FACE, ElemField.TEXT))))
+
+        assertEquals(listOf(1, 2, 3, 2, 3, 2), decode(text, face, video))
+        assertEquals(listOf(1, 2, 3, 2, 3, 2), called)
+    }
+
+    @Test
+    fun `decoding stops when consumed`() {
+        pipeline.registerProcessor(MessageDecoderProcessor(TestDecoder(1, setOf(ElemField.TEXT), consume = true)))
+        pipeline.registerProcessor(MessageDecoderProcessor(TestDecoder(2, null)))
+
+        assertEquals(listOf(1, 2), decode(text, face))
+    }
+
+    @Test
+    fun `elem with several fields is passed to all accepting decoders`() {
+        pipeline.registerProcessor(MessageDecoderProcessor(TestDecoder(1, setOf(ElemField.TEXT))))
+        pipeline.registerProcessor(MessageDecoderProcessor(TestDecoder(2, setOf(ElemField.VIDEO_FILE))))
+        pipeline.registerProcessor(MessageDecoderProcessor(TestDecoder(3, setOf(ElemField.FACE))))
+
+        assertEquals(
+            listOf(1, 3),
+            decode(ImMsgBody.Elem(text = ImMsgBody.Text("text"), face = ImMsgBody.Face(1)))
+        )
+    }
+
+    @Test
+    fun `dispatch follows registration changes`() {
+        pipeline.registerProcessor(MessageDecoderProcessor(TestDecoder(1, setOf(ElemField.TEXT))))
+        assertEquals(listOf(1), decode(text))
+
+        val registry = pipeline.registerBefore(MessageDecoderProcessor(TestDecoder(2, setOf(ElemField.TEXT))))
+        assertEquals(listOf(2, 1), decode(text))
+
+        registry.dispose()
+        assertEquals(listOf(1), decode(text))
+
+        pipeline.processors.first().value = MessageDecoderProcessor(TestDecoder(3, setOf(ElemField.FACE)))
+        assertEquals(listOf(3), decode(text, face))
+    }
+
+    @Test
+    fun `suspending decoders are supported`() {
+        pipeline.registerProcessor(MessageDecoderProcessor(SuspendingTestDecoder(1)))
+        pipeline.registerProcessor(MessageDecoderProcessor(TestDecoder(2, setOf(ElemField.TEXT))))
+
+        assertEquals(listOf(1, 2, 1), decode(text, face))
+    }
+
+    @Test
+    fun `trace logging path gives same results`() {
+        pipeline.registerProcessor(MessageDecoderProcessor(TestDecoder(1, setOf(ElemField.TEXT), consume = true)))
+        pipeline.registerProcessor(MessageDecoderProcessor(TestDecoder(2, setOf(ElemField.FACE))))
+        pipeline.registerProcessor(MessageDecoderProcessor(TestDecoder(3, null)))
+        val expected = decode(text, face, video)
+
+        MessageDecoderPipelineImpl.defaultTraceLogging.enable()
+        assertEquals(expected, decode(text, face, video))
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.message.protocol.encode
+
+import net.mamoe.mirai.internal.network.protocol.data.proto.ImMsgBody
+import net.mamoe.mirai.internal.pipeline.ProcessorPipeline
+import net.mamoe.mirai.internal.test.AbstractTest
+import net.mamoe.mirai.message.data.*
+import net.mamoe.mirai.utils.TestOnly
+import net.mamoe.mirai.utils.TypeSafeMap
+import kotlin.reflect.KClass
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+@OptIn(TestOnly::class)
+internal class MessageEncoderPipelineTest : AbstractTest() {
+    private val pipeline = MessageEncoderPipelineImpl()
+    private val chain = messageChainOf(PlainText("text"), Face(1), AtAll)
+
+    private var traceLoggingEnabled = false
+
+    @BeforeTest
+    fun beforeEach() {
+        traceLoggingEnabled = MessageEncoderPipelineImpl.defaultTraceLogging.isEnabled
+        MessageEncoderPipelineImpl.defaultTraceLogging.disable()
+    }
+
+    @AfterTest
+    fun afterEach() {
+        if (traceLoggingEnabled) {
+            MessageEncoderPipelineImpl.defaultTraceLogging.enable()
+        }
+    }
+
+    private class TestEncoder<T : SingleMessage>(
+        private val id: Int,
+        private val consume: Boolean,
+    ) : PureMessageEncoder<T> {
+        override fun MessageEncoderContext.encode(data: T) {
+            if (consume) markAsConsumed()
+            collect(ImMsgBody.Elem(text = ImMsgBody.Text(str = id.toString())))
+        }
+    }
+
+    private class SuspendingTestEncoder(private val id: Int) : MessageEncoder<SingleMessage> {
+        override suspend fun MessageEncoderContext.process(data: SingleMessage) {
+            collect(ImMsgBody.Elem(text = ImMsgBody.Text(str = id.toString())))
+        }
+    }
+
+    private fun <T : SingleMessage> register(
+        type: KClass<T>,
+        id: Int,
+        consume: Boolean = false,
+    ): ProcessorPipeline.DisposableRegistry =
+        pipeline.registerProcessor(MessageEncoderProcessor(TestEncoder(id, consume), type))
+
+    private fun encode(chain: MessageChain = this.chain): List<Int> {
+        val output = mutableListOf<ImMsgBody.Elem>()
+        pipeline.encode(chain, TypeSafeMap.EMPTY, output)
+        return output.map { it.text!!.str.toInt() }
+    }
+
+    @Test
+    fun `encoders are dispatched by message class`() {
+        register(PlainText::class, 1)
+        pipeline.registerProcessor(MessageEncoderProcessor(SuspendingTestEncoder(2), SingleMessage::class))
+        register(Face::class, 3)
+        register(MessageContent::class, 4)
+
+        assertEquals(listOf(1, 2, 4, 2, 3, 4, 2, 4), encode())
+    }
+
+    @Test
+    fun `encoding stops when consumed`() {
+        register(PlainText::class, 1, consume = true)
+        register(Face::class, 2, consume = true)
+        register(SingleMessage::class, 3)
+
+        assertEquals(listOf(1, 2, 3), encode())
+    }
+
+    @Test
+    fun `dispatch follows registration changes`() {
+        register(PlainText::class, 1)
+        assertEquals(listOf(1), encode())
+
+        val registry = pipeline.registerBefore(MessageEncoderProcessor(TestEncoder(2, false), PlainText::class))
+        assertEquals(listOf(2, 1), encode())
+
+        registry.dispose()
+        assertEquals(listOf(1), encode())
+
+        pipeline.processors.first().value = MessageEncoderProcessor(TestEncoder(3, false), Face::class)
+        assertEquals(listOf(3), encode())
+    }
+
+    @Test
+    fun `trace logging path gives same results`() {
+        register(PlainText::class, 1, consume = true)
+        pipeline.registerProcessor(MessageEncoderProcessor(SuspendingTestEncoder(2), SingleMessage::class))
+        register(Face::class, 3, consume = true)
+        register(MessageContent::class, 4)
+        val expected = encode()
+
+        MessageEncoderPipelineImpl.defaultTraceLogging.enable()
+        assertEquals(expected, encode())
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -122,6 +122,23 @@ internal abstract class AbstractMessageProtocolTest : AbstractMockNetworkHandler
             MessageProtocolFacade.INSTANCE.encode(),
             message = "Failed to check with all protocols"
         )
+
+        // trace logging is enabled in tests, check also the dispatched path
+        MessageEncoderPipelineImpl.defaultTraceLogging.disable()
+        try {
+            asserter.assertEquals(
+                expectedStruct,
+                facadeOf(*protocols).encode(),
+                message = "Failed to check single Protocol without trace logging"
+            )
+            asserter.assertEquals(
+                expectedStruct,
+                MessageProtocolFacade.INSTANCE.encode(),
+                message = "Failed to check with all protocols without trace logging"
+            )
+        } finally {
+            MessageEncoderPipelineImpl.defaultTraceLogging.enable()
+        }
     }
 
     var asserter: EqualityAsserter = EqualityAsserter.OrdinaryThenStructural
@@ -149,6 +166,23 @@ internal abstract class AbstractMessageProtocolTest : AbstractMockNetworkHandler
             MessageProtocolFacade.INSTANCE.decode().toList(),
             message = "Failed to check with all protocols"
         )
+
+        // trace logging is enabled in tests, check also the dispatched path
+        MessageDecoderPipelineImpl.defaultTraceLogging.disable()
+        try {
+            asserter.assertEquals(
+                expectedChain.toList(),
+                facadeOf(*protocols).decode().toList(),
+                message = "Failed to check single Protocol without trace logging"
+            )
+            asserter.assertEquals(
+                expectedChain.toList(),
+                MessageProtocolFacade.INSTANCE.decode().toList(),
+                message = "Failed to check with all protocols without trace logging"
+            )
+        } finally {
+            MessageDecoderPipelineImpl.defaultTraceLogging.enable()
+        }
     }
 
     protected fun doEncoderChecks(
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.network
+
+import net.mamoe.mirai.contact.MemberPermission
+import net.mamoe.mirai.data.GroupHonorType
+import net.mamoe.mirai.internal.contact.info.FriendInfoImpl
+import net.mamoe.mirai.internal.contact.info.MemberInfoImpl
+import net.mamoe.mirai.internal.test.AbstractTest
+import net.mamoe.mirai.utils.hexToBytes
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+internal class ContactListCacheTest : AbstractTest() {
+
+    @Test
+    fun `GroupMemberListCache can be saved in ProtoBufForCache`() {
+        val cache = GroupMemberListCache(
+            troopMemberNumSeq = 123,
+            list = listOf(
+                MemberInfoImpl(
+                    uin = 1,
+                    nick = "owner",
+                    permission = MemberPermission.OWNER,
+                    nameCard = "card",
+                    joinTimestamp = 1650000000,
+                    honors = mutableSetOf(GroupHonorType.TALKATIVE, GroupHonorType.LEGEND),
+                ),
+                MemberInfoImpl(
+                    uin = 2,
+                    nick = "member",
+                    permission = MemberPermission.MEMBER,
+                    anonymousId = "anonymous",
+                    joinTimestamp = 1650000001,
+                ),
+            )
+        )
+        val bytes = ProtoBufForCache.encodeToByteArray(GroupMemberListCache.serializer(), cache)
+        val decoded = ProtoBufForCache.decodeFromByteArray(GroupMemberListCache.serializer(), bytes)
+        assertEquals(cache, decoded)
+    }
+
+    @Test
+    fun `FriendListCache can be saved in ProtoBufForCache`() {
+        val cache = FriendListCache(
+            friendListSeq = 1,
+            timeStamp = 2,
+            list = listOf(FriendInfoImpl(1, "nick", "remark", 3), FriendInfoImpl(2, "", "")),
+        )
+        val bytes = ProtoBufForCache.encodeToByteArray(FriendListCache.serializer(), cache)
+        assertEquals(cache, ProtoBufForCache.decodeFromByteArray(FriendListCache.serializer(), bytes))
+    }
+
+    @Test
+    fun `GroupMemberListCache field numbers are stable`() {
+        // troopMemberNumSeq = 123, list = [{ uin = 2, nick = "a", permission = OWNER, nameCard = "b" }]
+        val bytes = "08 7B 12 0A 08 02 12 01 61 18 02 2A 01 62".hexToBytes()
+        val decoded = ProtoBufForCache.decodeFromByteArray(GroupMemberListCache.serializer(), bytes)
+        assertEquals(123L, decoded.troopMemberNumSeq)
+        val member = decoded.list.single()
+        assertEquals(2L, member.uin)
+        assertEquals("a", member.nick)
+        assertEquals(MemberPermission.OWNER, member.permission)
+        assertEquals("b", member.nameCard)
+    }
+
+    @Test
+    fun `FriendListCache field numbers are stable`() {
+        // friendListSeq = 1, timeStamp = 2, list = [{ uin = 1, nick = "a", remark = "b", friendGroupId = 3 }]
+        val bytes = "08 01 10 02 1A 0A 08 01 12 01 61 1A 01 62 20 03".hexToBytes()
+        assertEquals(
+            FriendListCache(friendListSeq = 1, timeStamp = 2, list = listOf(FriendInfoImpl(1, "a", "b", 3))),
+            ProtoBufForCache.decodeFromByteArray(FriendListCache.serializer(), bytes)
+        )
+    }
+}
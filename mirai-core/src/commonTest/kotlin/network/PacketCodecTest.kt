@@ -1,16 +1,100 @@
 /*
- * Copyright 2019-2021 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
- *  此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
- *  Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
  *
- *  https://github.com/mamoe/mirai/blob/master/LICENSE
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
  */
 
 package net.mamoe.mirai.internal.network
 
+import io.ktor.utils.io.core.*
+import net.mamoe.mirai.internal.network.components.PacketCodecImpl
+import net.mamoe.mirai.internal.network.components.SsoSession
+import net.mamoe.mirai.internal.network.protocol.packet.PacketEncryptType
+import net.mamoe.mirai.internal.network.protocol.packet.sso.TRpcRawPacket
 import net.mamoe.mirai.internal.test.AbstractTest
+import net.mamoe.mirai.internal.utils.crypto.TEA
+import net.mamoe.mirai.internal.utils.io.writeIntLVPacket
+import net.mamoe.mirai.utils.KEY_16_ZEROS
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
 
-internal class PacketCodecTest : AbstractCodecTest()
+internal class PacketCodecTest : AbstractCodecTest() {
+    private val codec = PacketCodecImpl()
+    private val session = object : SsoSession {
+        override var outgoingPacketSessionId: ByteArray = byteArrayOf(1, 2, 3, 4)
+        override var loginState: Int = 0
+        override var wLoginSigInfo: WLoginSigInfo
+            get() = error("Not logged in")
+            set(_) {}
+        override val randomKey: ByteArray = ByteArray(16)
+    }
 
-internal abstract class AbstractCodecTest : AbstractTest()
\ No newline at end of file
+    // TRPC command so that the OICQ response parser, which needs a logged-in bot, is not involved.
+    private val commandName = TRpcRawPacket.COMMAND_PREFIX + "test"
+
+    private fun buildFrame(
+        type: PacketEncryptType,
+        sequenceId: Int,
+        body: ByteArray,
+        trailingHeadFields: ByteArray = byteArrayOf(),
+    ): ByteArray {
+        val sso = buildPacket {
+            writeIntLVPacket(lengthOffset = { it + 4 }) {
+                writeInt(sequenceId)
+                writeInt(0) // return code
+                writeInt(4) // empty extra data
+                writeInt(commandName.length + 4)
+                writeText(commandName)
+                writeInt(4 + 4)
+                writeFully(byteArrayOf(5, 6, 7, 8)) // session id
+                writeInt(0) // not compressed
+                writeFully(trailingHeadFields)
+            }
+            writeInt(body.size + 4)
+            writeFully(body)
+        }.readBytes()
+
+        return buildPacket {
+            writeInt(0x0B) // simple
+            writeByte(type.value.toByte())
+            writeByte(0) // flag3
+            val uin = "123456789"
+            writeInt(uin.length + 4)
+            writeText(uin)
+            writeFully(if (type == PacketEncryptType.NoEncrypt) sso else TEA.encrypt(sso, KEY_16_ZEROS))
+        }.readBytes()
+    }
+
+    private fun assertDecodes(type: PacketEncryptType, trailingHeadFields: ByteArray = byteArrayOf()) {
+        val body = Random(1).nextBytes(100)
+        val packet = codec.decodeRaw(session, buildFrame(type, 123, body, trailingHeadFields))
+
+        assertEquals(commandName, packet.commandName)
+        assertEquals(123, packet.sequenceId)
+        assertContentEquals(body, packet.body)
+        assertContentEquals(byteArrayOf(5, 6, 7, 8), session.outgoingPacketSessionId)
+    }
+
+    @Test
+    fun `can decode raw unencrypted frame`() {
+        assertDecodes(PacketEncryptType.NoEncrypt)
+    }
+
+    @Test
+    fun `can decode raw frame encrypted with zero key`() {
+        assertDecodes(PacketEncryptType.Empty)
+    }
+
+    @Test
+    fun `unknown trailing head fields are skipped`() {
+        assertDecodes(PacketEncryptType.NoEncrypt, trailingHeadFields = byteArrayOf(1, 2, 3, 4, 5))
+        assertDecodes(PacketEncryptType.Empty, trailingHeadFields = byteArrayOf(1, 2, 3, 4, 5))
+    }
+}
+
+internal abstract class AbstractCodecTest : AbstractTest()
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.network.component
+
+import net.mamoe.mirai.internal.network.components.MessageReceiptTableImpl
+import net.mamoe.mirai.internal.network.components.awaitReceipt
+import net.mamoe.mirai.internal.network.notice.group.GroupMessageProcessor.SendGroupMessageReceipt
+import net.mamoe.mirai.internal.network.notice.priv.PrivateMessageProcessor.SendPrivateMessageReceipt
+import net.mamoe.mirai.internal.test.AbstractTest
+import net.mamoe.mirai.internal.test.runBlockingUnit
+import kotlin.test.*
+
+internal class MessageReceiptTableTest : AbstractTest() {
+    private val table = MessageReceiptTableImpl()
+
+    private fun groupReceipt(messageRandom: Int, sequenceId: Int = messageRandom + 1, fromAppId: Int = 0) =
+        SendGroupMessageReceipt(null, messageRandom, sequenceId, fromAppId)
+
+    @Test
+    fun `group receipts are matched by messageRandom`() = runBlockingUnit {
+        val receipts = List(1000) { table.expectGroupReceipt(it) }
+
+        for (random in 999 downTo 0) {
+            assertTrue(table.completeGroupReceipt(groupReceipt(random)))
+        }
+        receipts.forEachIndexed { random, deferred ->
+            assertEquals(random + 1, deferred.await().sequenceId)
+        }
+        assertFalse(table.completeGroupReceipt(groupReceipt(0)))
+    }
+
+    @Test
+    fun `unexpected receipts are ignored`() {
+        assertFalse(table.completeGroupReceipt(groupReceipt(1)))
+        assertFalse(table.completePrivateReceipt(SendPrivateMessageReceipt(null, 1, 2, 3116)))
+    }
+
+    @Test
+    fun `special receipts are delivered in order`() = runBlockingUnit {
+        val first = table.expectSpecialGroupReceipt(3116)
+        val second = table.expectSpecialGroupReceipt(3116)
+        val file = table.expectSpecialGroupReceipt(2021)
+
+        assertTrue(table.completeGroupReceipt(groupReceipt(10, fromAppId = 3116)))
+        assertTrue(table.completeGroupReceipt(groupReceipt(20, fromAppId = 3116)))
+        assertFalse(file.isCompleted)
+        assertTrue(table.completeGroupReceipt(groupReceipt(30, fromAppId = 2021)))
+
+        assertEquals(10, first.await().messageRandom)
+        assertEquals(20, second.await().messageRandom)
+        assertEquals(30, file.await().messageRandom)
+    }
+
+    @Test
+    fun `timed out receipts are removed`() = runBlockingUnit {
+        assertNull(awaitReceipt(table.expectGroupReceipt(1), 10))
+        assertNull(awaitReceipt(table.expectSpecialPrivateReceipt(3116), 10))
+
+        assertFalse(table.completeGroupReceipt(groupReceipt(1)))
+        assertFalse(table.completePrivateReceipt(SendPrivateMessageReceipt(null, 1, 2, 3116)))
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.network.component
+
+import io.ktor.utils.io.core.*
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.cancel
+import net.mamoe.mirai.internal.network.components.EncryptServiceHolder
+import net.mamoe.mirai.internal.network.components.PacketSignerImpl
+import net.mamoe.mirai.internal.network.protocol.packet.OutgoingPacket
+import net.mamoe.mirai.internal.spi.EncryptService
+import net.mamoe.mirai.internal.test.AbstractTest
+import net.mamoe.mirai.internal.test.runBlockingUnit
+import net.mamoe.mirai.utils.md5
+import network.framework.components.LocalStubEncryptService
+import kotlin.test.*
+
+internal class PacketSignerTest : AbstractTest() {
+    private val job = SupervisorJob()
+
+    private class Holder(override val serviceOrNull: EncryptService?) : EncryptServiceHolder {
+        override val isAvailable: Boolean get() = serviceOrNull != null
+        override val service: EncryptService get() = serviceOrNull ?: error("Encrypt Service not available")
+    }
+
+    @AfterTest
+    fun afterTest() {
+        job.cancel()
+    }
+
+    @Test
+    fun `concurrent requests are signed in batches`() = runBlockingUnit {
+        val service = LocalStubEncryptService(latencyMillis = 50)
+        val signer = PacketSignerImpl(job, Holder(service), 1, maxInFlightBatches = 2, maxBatchSize = 4)
+
+        val payloads = List(20) { byteArrayOf(it.toByte()) }
+        val results = payloads.mapIndexed { index, payload ->
+            async { signer.sign(index, "cmd${index % 2}", payload) }
+        }.awaitAll()
+
+        payloads.zip(results).forEach { (payload, result) ->
+            assertNotNull(result)
+            assertContentEquals(payload.md5(), result.sign)
+        }
+        assertTrue { service.batches in 5..20 }
+        assertTrue { service.maxInFlight <= 2 }
+        assertEquals(
+            listOf(10L, 10L),
+            signer.statistics.snapshot().sortedBy { it.commandName }.map { it.packets }
+        )
+    }
+
+    @Test
+    fun `sign returns null without service`() = runBlockingUnit {
+        val signer = PacketSignerImpl(job, Holder(null), 1)
+        assertNull(signer.sign(1, "cmd", byteArrayOf(1)))
+    }
+
+    @Test
+    fun `outgoing packet is built before sending`() = runBlockingUnit {
+        val packet = OutgoingPacket(null, "cmd", 1) { ByteReadPacket(byteArrayOf(1, 2)) }
+        assertFailsWith<IllegalStateException> { packet.delegate }
+        packet.build()
+        assertContentEquals(byteArrayOf(1, 2), packet.delegate)
+        packet.build()
+        assertContentEquals(byteArrayOf(1, 2), packet.delegate)
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package network.framework.components
+
+import kotlinx.atomicfu.atomic
+import kotlinx.coroutines.delay
+import net.mamoe.mirai.internal.spi.EncryptService
+import net.mamoe.mirai.internal.spi.EncryptServiceContext
+import net.mamoe.mirai.utils.md5
+
+/**
+ * Signs packets locally with a fixed [latencyMillis] for each batch, simulating a remote signing service.
+ *
+ * The signature of a packet is the MD5 of its payload.
+ */
+internal class LocalStubEncryptService(
+    private val latencyMillis: Long = 0,
+) : EncryptService {
+    private val _batches = atomic(0)
+    private val _inFlight = atomic(0)
+    private val _maxInFlight = atomic(0)
+
+    val batches: Int get() = _batches.value
+    val maxInFlight: Int get() = _maxInFlight.value
+
+    override fun initialize(context: EncryptServiceContext) {
+    }
+
+    override fun encryptTlv(context: EncryptServiceContext, tlvType: Int, payload: ByteArray): ByteArray? = null
+
+    override fun qSecurityGetSign(
+        context: EncryptServiceContext,
+        sequenceId: Int,
+        commandName: String,
+        payload: ByteArray
+    ): EncryptService.SignResult = EncryptService.SignResult(sign = payload.md5())
+
+    override suspend fun qSecurityGetSignBatch(
+        context: EncryptServiceContext,
+        requests: List<EncryptService.SignRequest>
+    ): List<EncryptService.SignResult?> {
+        _batches.incrementAndGet()
+        val inFlight = _inFlight.incrementAndGet()
+        while (true) {
+            val max = _maxInFlight.value
+            if (inFlight <= max || _maxInFlight.compareAndSet(max, inFlight)) break
+        }
+        try {
+            if (latencyMillis > 0) delay(latencyMillis)
+            return requests.map { qSecurityGetSign(context, it.sequenceId, it.commandName, it.payload) }
+        } finally {
+            _inFlight.decrementAndGet()
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.network.impl.common
+
+import io.ktor.utils.io.core.*
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.withTimeout
+import net.mamoe.mirai.internal.QQAndroidBot
+import net.mamoe.mirai.internal.network.Packet
+import net.mamoe.mirai.internal.network.components.PacketCodec
+import net.mamoe.mirai.internal.network.components.RawIncomingPacket
+import net.mamoe.mirai.internal.network.components.SsoSession
+import net.mamoe.mirai.internal.network.framework.AbstractCommonNHTest
+import net.mamoe.mirai.internal.network.protocol.packet.IncomingPacket
+import net.mamoe.mirai.internal.network.protocol.packet.OutgoingPacket
+import net.mamoe.mirai.internal.test.runBlockingUnit
+import net.mamoe.mirai.utils.toReadPacket
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+internal class PacketProcessingWorkersTest : AbstractCommonNHTest() {
+    private val processed = Channel<String>(Channel.UNLIMITED)
+
+    private fun frame(commandName: String, sequenceId: Int): ByteArray =
+        buildPacket {
+            writeInt(sequenceId)
+            writeText(commandName)
+        }.readBytes()
+
+    /**
+     * Processing `push` sends a request and waits for its response,
+     * like processors fetching contact information while handling a message.
+     */
+    private val codec = object : PacketCodec {
+        override fun decodeRaw(client: SsoSession, input: ByteArray, offset: Int, length: Int): RawIncomingPacket =
+            input.toReadPacket(offset, length).use { packet ->
+                val sequenceId = packet.readInt()
+                RawIncomingPacket(packet.readText(), sequenceId, byteArrayOf())
+            }
+
+        override suspend fun processBody(bot: QQAndroidBot, input: RawIncomingPacket): IncomingPacket {
+            if (input.commandName == "push") {
+                network.sendAndExpect<Packet?>(
+                    OutgoingPacket("request", "request", 2, ByteReadPacket.Empty),
+                    timeout = 60_000,
+                    attempts = 1
+                )
+            }
+            processed.send(input.commandName)
+            return IncomingPacket(input.commandName, input.sequenceId, object : Packet {})
+        }
+    }
+
+    @Test
+    fun `processor in a worker can wait for a response`() = runBlockingUnit {
+        setComponent(PacketCodec, codec)
+        bot.configuration.packetProcessingWorkers = 1
+        network.setStateOK(conn)
+
+        val pipeline = network.PacketDecodePipeline(network.coroutineContext)
+        network.addPacketReplier { packet ->
+            if (packet.commandName == "request") pipeline.send(frame("request", packet.sequenceId))
+        }
+
+        pipeline.send(frame("push", 1))
+        withTimeout(10_000) {
+            assertEquals("request", processed.receive())
+            assertEquals("push", processed.receive())
+        }
+    }
+}
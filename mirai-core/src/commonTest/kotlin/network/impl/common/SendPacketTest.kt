@@ -20,6 +20,8 @@ import net.mamoe.mirai.internal.network.protocol.packet.OutgoingPacket
 import net.mamoe.mirai.internal.test.runBlockingUnit
 import net.mamoe.mirai.utils.AtomicBoolean
 import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
 import kotlin.test.assertNotNull
 import kotlin.test.assertTrue
 
@@ -59,4 +61,32 @@ internal class SendPacketTest : AbstractCommonNHTest() {
         yield()
         assertTrue(job.isCompleted)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `response is matched by sequence id and counted`() = runBlockingUnit(singleThreadDispatcher) {
+        network.setStateOK(conn)
+
+        val job1 = launch(singleThreadDispatcher, start = CoroutineStart.UNDISPATCHED) {
+            assertNotNull(network.sendAndExpect(OutgoingPacket("name", "cmd", 1, ByteReadPacket.Empty)))
+        }
+        val job2 = launch(singleThreadDispatcher, start = CoroutineStart.UNDISPATCHED) {
+            assertNotNull(network.sendAndExpect(OutgoingPacket("name", "cmd", 2, ByteReadPacket.Empty)))
+        }
+        assertEquals(2, network.responseStatistics.snapshot().inFlight)
+
+        network.collectReceived(IncomingPacket("another", 2, object : Packet {})) // command name mismatch
+        network.collectReceived(IncomingPacket("cmd", 2, object : Packet {}))
+        yield()
+        assertTrue(job2.isCompleted)
+        assertFalse(job1.isCompleted)
+        assertEquals(1, network.responseStatistics.snapshot().inFlight)
+
+        network.collectReceived(IncomingPacket("cmd", 1, object : Packet {}))
+        yield()
+        assertTrue(job1.isCompleted)
+        network.responseStatistics.snapshot().run {
+            assertEquals(0, inFlight)
+            assertEquals(2L, responses)
+        }
+    }
+}
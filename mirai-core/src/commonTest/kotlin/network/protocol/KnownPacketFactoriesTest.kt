@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.network.protocol
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import net.mamoe.mirai.internal.network.components.PacketCommandStatistics
+import net.mamoe.mirai.internal.network.protocol.packet.KnownPacketFactories
+import net.mamoe.mirai.internal.test.AbstractTest
+import net.mamoe.mirai.internal.test.runBlockingUnit
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+
+internal class KnownPacketFactoriesTest : AbstractTest() {
+
+    @Test
+    fun `all factories can be found by command name`() {
+        val factories = KnownPacketFactories.OutgoingFactories + KnownPacketFactories.IncomingFactories
+        for (factory in factories) {
+            val expected = factories.first { it.receivingCommandName == factory.receivingCommandName }
+            assertSame(expected, KnownPacketFactories.findPacketFactory(factory.receivingCommandName))
+        }
+        assertNull(KnownPacketFactories.findPacketFactory("Unknown.Command"))
+    }
+
+    @Test
+    fun `command statistics are accumulated`() {
+        val statistics = PacketCommandStatistics()
+        statistics.record("a", 10, 1)
+        statistics.record("b", 100, 2)
+        statistics.record("a", 20, 3)
+
+        assertEquals(
+            listOf(
+                PacketCommandStatistics.CommandSnapshot("b", packets = 1, bytes = 100, totalMicros = 2),
+                PacketCommandStatistics.CommandSnapshot("a", packets = 2, bytes = 30, totalMicros = 4),
+            ),
+            statistics.snapshot()
+        )
+    }
+
+    @Test
+    fun `concurrent first records are not lost`() = runBlockingUnit {
+        val statistics = PacketCommandStatistics()
+        coroutineScope {
+            repeat(100) { round ->
+                repeat(8) {
+                    launch(Dispatchers.Default) { statistics.record("command$round", 1, 1) }
+                }
+            }
+        }
+
+        val snapshot = statistics.snapshot()
+        assertEquals(100, snapshot.size)
+        snapshot.forEach { assertEquals(8, it.packets) }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.network.protocol
+
+import net.mamoe.mirai.internal.network.protocol.SyncingCacheList.Companion.syncId
+import net.mamoe.mirai.internal.test.AbstractTest
+import kotlin.test.*
+
+internal class SyncingCacheListTest : AbstractTest() {
+
+    @Test
+    fun `duplicates are detected and counted`() {
+        val list = SyncingCacheList(10)
+        assertTrue { list.addCache(1) }
+        assertTrue { list.addCache(2) }
+        assertFalse { list.addCache(1) }
+        assertTrue { 2L in list }
+        assertFalse { 3L in list }
+        assertEquals(1L, list.hits)
+        assertEquals(2L, list.misses)
+    }
+
+    @Test
+    fun `oldest ids are evicted when full`() {
+        val list = SyncingCacheList(size = 4, stripeCount = 1)
+        for (i in 1L..5L) assertTrue { list.addCache(i) }
+        assertFalse { 1L in list }
+        for (i in 2L..5L) assertTrue { i in list }
+        assertTrue { list.addCache(1) }
+        assertFalse { 2L in list }
+    }
+
+    @Test
+    fun `striped list remembers ids`() {
+        val list = SyncingCacheList(size = 256, stripeCount = 8)
+        val ids = (0L until 100L).map { syncId(123456789L, it, 1650000000L + it) }
+        for (id in ids) assertTrue { list.addCache(id) }
+        for (id in ids) assertFalse { list.addCache(id) }
+        assertEquals(100L, list.hits)
+    }
+
+    @Test
+    fun `syncId distinguishes fields`() {
+        assertNotEquals(syncId(1, 2, 3), syncId(1, 3, 2))
+        assertNotEquals(syncId(1, 2, 3), syncId(2, 1, 3))
+        assertNotEquals(syncId(1, 2), syncId(1, 2, 1))
+        assertEquals(syncId(1, 2, 3), syncId(1, 2, 3))
+    }
+}
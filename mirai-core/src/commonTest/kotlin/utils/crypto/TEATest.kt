@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.utils.crypto
+
+import net.mamoe.mirai.utils.currentTimeMillis
+import net.mamoe.mirai.utils.hexToBytes
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+internal class TEATest {
+    private val random = Random(currentTimeMillis())
+
+    @Test
+    fun `can decrypt in place`() {
+        repeat(100) {
+            val key = random.nextBytes(16)
+            val plain = random.nextBytes(random.nextInt(0, 200))
+            val encrypted = TEA.encrypt(plain, key)
+
+            val offset = random.nextInt(0, 8)
+            val buffer = ByteArray(offset + encrypted.size + 3)
+            encrypted.copyInto(buffer, offset)
+
+            val start = TEA.decryptInPlace(buffer, key, offset, encrypted.size)
+            assertContentEquals(plain, buffer.copyOfRange(start, offset + encrypted.size - 7))
+            assertContentEquals(plain, TEA.decrypt(encrypted, key))
+        }
+    }
+
+    @Test
+    fun `can decrypt ciphertext of previous implementation`() {
+        val key = ByteArray(16) { it.toByte() }
+        val encrypted = "cae4d2927f832446f31bcbf473f4e61dc33eac64c0194d0731290cd3493b7a790e33b696963684e0".hexToBytes()
+        assertContentEquals("mirai TEA compatibility".encodeToByteArray(), TEA.decrypt(encrypted, key))
+    }
+
+    @Test
+    fun `can encrypt into buffer`() {
+        repeat(100) {
+            val key = random.nextBytes(16)
+            val plain = random.nextBytes(random.nextInt(0, 200))
+
+            val offset = random.nextInt(0, 8)
+            val output = ByteArray(offset + TEA.encryptedLength(plain.size) + 3)
+            val size = TEA.encrypt(plain, 0, plain.size, key, output, offset)
+            assertEquals(TEA.encryptedLength(plain.size), size)
+            assertEquals(0, size % 8)
+            assertContentEquals(plain, TEA.decrypt(output.copyOfRange(offset, offset + size), key))
+
+            // in place
+            val buffer = ByteArray(size)
+            plain.copyInto(buffer, TEA.plaintextOffset(plain.size))
+            TEA.encryptInPlace(buffer, key, 0, plain.size)
+            assertContentEquals(plain, TEA.decrypt(buffer, key))
+        }
+    }
+
+    @Test
+    fun `decrypt in place fails with wrong key`() {
+        val key = random.nextBytes(16)
+        val encrypted = TEA.encrypt(random.nextBytes(64), key)
+        assertFailsWith<DecryptionFailedException> {
+            TEA.decryptInPlace(encrypted, key.reversedArray())
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.utils.io.serialization.tars.internal
+
+import kotlinx.serialization.Serializable
+import net.mamoe.mirai.internal.test.AbstractTest
+import net.mamoe.mirai.internal.utils.io.JceStruct
+import net.mamoe.mirai.internal.utils.io.serialization.loadAs
+import net.mamoe.mirai.internal.utils.io.serialization.tars.TarsId
+import net.mamoe.mirai.internal.utils.io.serialization.toByteArray
+import net.mamoe.mirai.utils.toUHexString
+import kotlin.test.*
+
+internal class TarsTagTableTest : AbstractTest() {
+
+    @Serializable
+    data class Item(
+        @TarsId(0) val id: Int,
+        @TarsId(1) val name: String,
+    ) : JceStruct
+
+    @Serializable
+    data class Struct(
+        @TarsId(3) val items: List<Item>,
+        @TarsId(1) val ints: List<Int>,
+        @TarsId(20) val map: Map<String, Item> = emptyMap(),
+        @TarsId(5) val bytes: ByteArray = byteArrayOf(),
+        @TarsId(7) val nested: List<List<Int>> = emptyList(),
+    ) : JceStruct {
+        override fun equals(other: Any?): Boolean {
+            if (this === other) return true
+            if (other !is Struct) return false
+            return items == other.items && ints == other.ints && map == other.map
+                    && bytes.contentEquals(other.bytes) && nested == other.nested
+        }
+
+        override fun hashCode(): Int = items.hashCode()
+    }
+
+    @Serializable
+    data class Simple(
+        @TarsId(0) val int: Int,
+        @TarsId(1) val ints: List<Int>,
+    ) : JceStruct
+
+    @Test
+    fun `tag table maps ids and indexes`() {
+        val table = TarsTagTable.of(Struct.serializer().descriptor)
+        assertSame(table, TarsTagTable.of(Struct.serializer().descriptor))
+
+        assertEquals(3, table.idOf(0))
+        assertEquals(20, table.idOf(2))
+        assertEquals(0, table.indexOf(3))
+        assertEquals(2, table.indexOf(20))
+        assertEquals(-1, table.indexOf(0))
+        assertEquals(-1, table.indexOf(21))
+    }
+
+    @Test
+    fun `lists are written with head and count`() {
+        assertEquals(
+            "00 01 19 00 02 00 02 01 01 2C",
+            Simple(1, listOf(2, 300)).toByteArray(Simple.serializer()).toUHexString()
+        )
+    }
+
+    @Test
+    fun `can encode and decode nested structures`() {
+        val original = Struct(
+            items = listOf(Item(1, "a"), Item(100000, "b".repeat(300))),
+            ints = listOf(1, 2, 3),
+            map = mapOf("x" to Item(2, "c"), "y" to Item(3, "d")),
+            bytes = byteArrayOf(1, 2, 3),
+            nested = listOf(listOf(1), emptyList(), listOf(2, 3)),
+        )
+        val bytes = original.toByteArray(Struct.serializer())
+        assertEquals(original, bytes.loadAs(Struct.serializer()))
+    }
+}
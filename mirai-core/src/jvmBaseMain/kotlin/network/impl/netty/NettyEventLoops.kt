@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.network.impl.netty
+
+import io.netty.channel.EventLoopGroup
+import io.netty.channel.nio.NioEventLoopGroup
+import io.netty.channel.socket.SocketChannel
+import io.netty.channel.socket.nio.NioSocketChannel
+import io.netty.util.concurrent.DefaultThreadFactory
+import kotlinx.coroutines.job
+import net.mamoe.mirai.internal.QQAndroidBot
+import net.mamoe.mirai.utils.BotConfiguration
+import net.mamoe.mirai.utils.MiraiLogger
+import net.mamoe.mirai.utils.systemProp
+import net.mamoe.mirai.utils.verbose
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ThreadFactory
+
+/**
+ * An [EventLoopGroup] with the [SocketChannel] implementation matching its transport.
+ */
+internal class NettyTransport(
+    val group: EventLoopGroup,
+    val channelClass: Class<out SocketChannel>,
+) {
+    override fun toString(): String = "NettyTransport(group=${group.javaClass.simpleName}, channel=${channelClass.simpleName})"
+}
+
+/**
+ * Provides [NettyTransport]s for [NettyNetworkHandler]s.
+ *
+ * By default, all bots in the JVM share one [EventLoopGroup] ([shared]), so that reconnections never create threads.
+ * A bot may use a dedicated one by [BotConfiguration.networkEventLoopThreads], which is shut down when the bot is closed.
+ *
+ * The groups only do channel I/O. Decoding and processing of packets run in the bot's coroutine context,
+ * so that a busy bot does not delay reads and writes of the other bots sharing a group.
+ *
+ * System properties:
+ * - `mirai.network.netty.threads`: thread count of the shared group, `0` for Netty's default (2 * CPU cores).
+ * - `mirai.network.netty.transport`: `auto` (default), `nio` or `epoll`.
+ *   `auto` uses epoll if `netty-transport-native-epoll` is present and available, otherwise NIO.
+ */
+internal object NettyEventLoops {
+    private val logger by lazy { MiraiLogger.Factory.create(NettyEventLoops::class, "NettyEventLoops") }
+
+    private val SHARED_THREADS = systemProp("mirai.network.netty.threads", 0L).toInt()
+    private val TRANSPORT = systemProp("mirai.network.netty.transport", "auto")
+
+    /**
+     * The process-wide transport. Its threads are daemons and live as long as the JVM.
+     */
+    val shared: NettyTransport by lazy { create(SHARED_THREADS, "mirai-netty") }
+
+    private val dedicated = ConcurrentHashMap<QQAndroidBot, NettyTransport>()
+
+    fun forBot(bot: QQAndroidBot): NettyTransport {
+        val threads = bot.configuration.networkEventLoopThreads
+        if (threads <= 0) return shared
+
+        dedicated[bot]?.let { return it }
+        val created = create(threads, "mirai-netty-${bot.id}")
+        dedicated.putIfAbsent(bot, created)?.let { existing ->
+            created.group.shutdownGracefully()
+            return existing
+        }
+        bot.coroutineContext.job.invokeOnCompletion {
+            dedicated.remove(bot)
+            created.group.shutdownGracefully()
+        }
+        return created
+    }
+
+    fun create(threads: Int, name: String): NettyTransport {
+        val threadFactory = DefaultThreadFactory(name, true)
+        val transport = when (TRANSPORT) {
+            "nio" -> null
+            "epoll" -> createEpollOrNull(threads, threadFactory)
+                ?: error("Epoll transport is requested by 'mirai.network.netty.transport' but is not available.")
+
+            else -> createEpollOrNull(threads, threadFactory)
+        } ?: NettyTransport(NioEventLoopGroup(threads, threadFactory), NioSocketChannel::class.java)
+        logger.verbose { "Created $transport for '$name' with ${if (threads == 0) "default" else threads} threads" }
+        return transport
+    }
+
+    /**
+     * Loaded reflectively because `netty-transport-native-epoll` is an optional runtime dependency.
+     */
+    private fun createEpollOrNull(threads: Int, threadFactory: ThreadFactory): NettyTransport? {
+        return kotlin.runCatching {
+            val epoll = Class.forName("io.netty.channel.epoll.Epoll")
+            if (epoll.getMethod("isAvailable").invoke(null) != true) return null
+
+            val group = Class.forName("io.netty.channel.epoll.EpollEventLoopGroup")
+                .getConstructor(Int::class.javaPrimitiveType, ThreadFactory::class.java)
+                .newInstance(threads, threadFactory) as EventLoopGroup
+            val channelClass = Class.forName("io.netty.channel.epoll.EpollSocketChannel")
+                .asSubclass(SocketChannel::class.java)
+            NettyTransport(group, channelClass)
+        }.getOrNull()
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2019-2022 Mamoe Technologies and contributors.
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
  *
  * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
  * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
@@ -11,14 +11,12 @@ package net.mamoe.mirai.internal.network.impl.netty
 
 import io.netty.bootstrap.Bootstrap
 import io.netty.buffer.ByteBuf
+import io.netty.buffer.ByteBufUtil
 import io.netty.channel.*
-import io.netty.channel.nio.NioEventLoopGroup
 import io.netty.channel.socket.SocketChannel
-import io.netty.channel.socket.nio.NioSocketChannel
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder
 import io.netty.handler.codec.MessageToByteEncoder
 import kotlinx.coroutines.CompletableDeferred
-import kotlinx.coroutines.asCoroutineDispatcher
 import kotlinx.coroutines.job
 import net.mamoe.mirai.internal.network.handler.CommonNetworkHandler
 import net.mamoe.mirai.internal.network.handler.NetworkHandler.State
@@ -32,6 +30,10 @@ import io.netty.channel.Channel as NettyChannel
 internal open class NettyNetworkHandler(
     context: NetworkHandlerContext,
     address: SocketAddress,
+    /**
+     * Shared by connections, and possibly by other bots. Must not be shut down by this handler.
+     */
+    private val transport: NettyTransport = NettyEventLoops.forBot(context.bot),
 ) : CommonNetworkHandler<NettyChannel>(context, address.cast()) {
     override fun toString(): String {
         return "NettyNetworkHandler(context=$context, address=$address)"
@@ -54,7 +56,8 @@ internal open class NettyNetworkHandler(
         private val decodePipeline: PacketDecodePipeline,
     ) : SimpleChannelInboundHandler<ByteBuf>(ByteBuf::class.java) {
         override fun channelRead0(ctx: ChannelHandlerContext, msg: ByteBuf) {
-            decodePipeline.send(msg.toReadPacket())
+            // The only copy of the frame. It is then decrypted in place by PacketCodec.
+            decodePipeline.send(ByteBufUtil.getBytes(msg))
         }
     }
 
@@ -84,22 +87,22 @@ internal open class NettyNetworkHandler(
         packetLogger.debug { "Connecting to $address" }
 
         val contextResult = CompletableDeferred<NettyChannel>()
-        val eventLoopGroup = NioEventLoopGroup()
-        val decodePipeline = PacketDecodePipeline(
-            this@NettyNetworkHandler.coroutineContext
-                .plus(eventLoopGroup.asCoroutineDispatcher())
-        )
+        val eventLoopGroup = transport.group
+        // Decoding and packet processing run in the bot's own context (Dispatchers.Default if it has no dispatcher),
+        // never on the event loops, which may be shared with other bots and must only do channel I/O.
+        val decodePipeline = PacketDecodePipeline(this@NettyNetworkHandler.coroutineContext)
 
         val future = Bootstrap().group(eventLoopGroup)
-            .channel(NioSocketChannel::class.java)
+            .channel(transport.channelClass)
             .option(ChannelOption.SO_KEEPALIVE, true)
             .handler(object : ChannelInitializer<SocketChannel>() {
                 override fun initChannel(ch: SocketChannel) {
+                    // Stop reading while packet processing workers are full.
+                    decodePipeline.onDecodingSuspended = { suspended -> ch.config().isAutoRead = !suspended }
                     setupChannelPipeline(ch.pipeline(), decodePipeline)
                     ch.pipeline()
                         .addLast(object : ChannelInboundHandlerAdapter() {
                             override fun channelInactive(ctx: ChannelHandlerContext?) {
-                                eventLoopGroup.shutdownGracefully()
                                 contextResult.cancel()
                             }
                         })
@@ -110,7 +113,6 @@ internal open class NettyNetworkHandler(
             .runCatching {
                 awaitKt()
             }.onFailure {
-                eventLoopGroup.shutdownGracefully()
                 contextResult.cancel()
             }.getOrElse { error ->
                 throw NettyChannelException(cause = error, message = "Failed to connect $address")
@@ -120,7 +122,6 @@ internal open class NettyNetworkHandler(
 
         coroutineContext.job.invokeOnCompletion {
             future.channel().close()
-            eventLoopGroup.shutdownGracefully()
         }
 
         future.channel().closeFuture().addListener {
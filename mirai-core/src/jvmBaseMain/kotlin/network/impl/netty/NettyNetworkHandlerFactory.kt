@@ -15,7 +15,7 @@ import net.mamoe.mirai.internal.network.handler.SocketAddress
 
 internal object NettyNetworkHandlerFactory : NetworkHandlerFactory<NettyNetworkHandler> {
     override fun create(context: NetworkHandlerContext, address: SocketAddress): NettyNetworkHandler {
-        return NettyNetworkHandler(context, address)
+        return NettyNetworkHandler(context, address, NettyEventLoops.forBot(context.bot))
     }
 
 }
\ No newline at end of file
@@ -15,8 +15,7 @@ import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.Deferred
 import net.mamoe.mirai.utils.ExternalResource
 import net.mamoe.mirai.utils.MiraiInternalApi
-import net.mamoe.mirai.utils.md5
-import net.mamoe.mirai.utils.sha1
+import net.mamoe.mirai.utils.resourceDigests
 import java.io.InputStream
 import java.io.SequenceInputStream
 import java.util.Collections
@@ -35,8 +34,9 @@ internal class CombinedExternalResource(
     override val isAutoClose: Boolean = true
 
     override val size: Long = inputs.sumOf { it.size }
-    override val md5: ByteArray by lazy { combine().md5() }
-    override val sha1: ByteArray by lazy { combine().sha1() }
+    private val digests by lazy { combine().resourceDigests() }
+    override val md5: ByteArray by lazy { digests.md5 }
+    override val sha1: ByteArray by lazy { digests.sha1 }
 
     override val formatName: String = ""
 
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019-2023 Mamoe Technologies and contributors.
+ *
+ * 此源代码的使用受 GNU AFFERO GENERAL PUBLIC LICENSE version 3 许可证的约束, 可以在以下链接找到该许可证.
+ * Use of this source code is governed by the GNU AGPLv3 license that can be found through the following link.
+ *
+ * https://github.com/mamoe/mirai/blob/dev/LICENSE
+ */
+
+package net.mamoe.mirai.internal.network.highway
+
+import io.ktor.utils.io.core.*
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import net.mamoe.mirai.internal.test.AbstractTest
+import net.mamoe.mirai.internal.test.runBlockingUnit
+import java.net.ServerSocket
+import java.net.Socket
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+internal class HighwayConnectionPoolTest : AbstractTest() {
+    private val accepted = AtomicInteger()
+    private val clients = CopyOnWriteArrayList<Socket>()
+
+    /**
+     * Echoes every received chunk.
+     */
+    private val server = ServerSocket(0).also { server ->
+        thread(isDaemon = true, name = "FakeHighwayServer") {
+            while (!server.isClosed) {
+                val client = kotlin.runCatching { server.accept() }.getOrNull() ?: break
+                accepted.incrementAndGet()
+                clients.add(client)
+                thread(isDaemon = true) {
+                    kotlin.runCatching {
+                        val buffer = ByteArray(1024)
+                        while (true) {
+                            val read = client.getInputStream().read(buffer)
+                            if (read == -1) break
+                            client.getOutputStream().write(buffer, 0, read)
+                            client.getOutputStream().flush()
+                        }
+                    }
+                    client.close()
+                }
+            }
+        }
+    }
+
+    private val job = SupervisorJob()
+    private val pool = HighwayConnectionPoolImpl(job, { 2 })
+
+    @AfterTest
+    fun afterTest() {
+        job.cancel()
+        server.close()
+    }
+
+    private suspend fun HighwayProtocolChannel.exchange(value: Int) {
+        send(buildPacket { writeInt(value) })
+        assertEquals(value, read().readInt())
+    }
+
+    @Test
+    fun `connection is reused after release`() = runBlockingUnit {
+        val first = pool.borrow("127.0.0.1", server.localPort)
+        first.exchange(1)
+        releaseHighwayConnection(first, reusable = true)
+        assertEquals(1, pool.idleCount)
+
+        val second = pool.borrow("127.0.0.1", server.localPort)
+        assertEquals(0, pool.idleCount)
+        second.exchange(2)
+        releaseHighwayConnection(second, reusable = true)
+
+        assertEquals(1, accepted.get())
+    }
+
+    @Test
+    fun `connection is closed if not reusable`() = runBlockingUnit {
+        val first = pool.borrow("127.0.0.1", server.localPort)
+        first.exchange(1)
+        releaseHighwayConnection(first, reusable = false)
+        assertEquals(0, pool.idleCount)
+
+        pool.borrow("127.0.0.1", server.localPort).exchange(2)
+        assertEquals(2, accepted.get())
+    }
+
+    @Test
+    fun `idle connections are limited`() = runBlockingUnit {
+        val connections = List(3) { pool.borrow("127.0.0.1", server.localPort) }
+        connections.forEach { releaseHighwayConnection(it, reusable = true) }
+        assertEquals(2, pool.idleCount)
+    }
+
+    @Test
+    fun `reconnects if server closed the idle connection`() = runBlockingUnit {
+        val first = pool.borrow("127.0.0.1", server.localPort)
+        first.exchange(1)
+        releaseHighwayConnection(first, reusable = true)
+
+        clients.forEach { it.close() }
+
+        val second = pool.borrow("127.0.0.1", server.localPort)
+        second.exchange(2)
+        assertEquals(2, accepted.get())
+    }
+}
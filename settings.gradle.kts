@@ -64,6 +64,7 @@ includeProject(":mirai-core-utils")
 includeProject(":mirai-core-api")
 includeProject(":mirai-core")
 includeProject(":mirai-core-mock")
+includeProject(":mirai-core-benchmarks")
 
 includeProject(":mirai-core-all")
 includeProject(":mirai-bom")